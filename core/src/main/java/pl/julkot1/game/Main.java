@@ -1,12 +1,16 @@
 package pl.julkot1.game;
 
+import com.badlogic.gdx.Application;
 import com.badlogic.gdx.Game;
+import com.badlogic.gdx.Gdx;
 import pl.julkot1.game.buildings.utils.BuildingManager;
 
 /** {@link com.badlogic.gdx.ApplicationListener} implementation shared by all platforms. */
 public class Main extends Game {
     @Override
     public void create() {
+        // Generation timings are logged at debug level, shown when started with -Dhex.debug=true
+        Gdx.app.setLogLevel(Boolean.getBoolean("hex.debug") ? Application.LOG_DEBUG : Application.LOG_INFO);
         BuildingManager buildingManager = new BuildingManager();
         // Print registered buildings for debugging
         setScreen(new Screen3D());
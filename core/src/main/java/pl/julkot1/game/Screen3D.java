@@ -10,43 +10,73 @@ import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.graphics.g3d.environment.DirectionalLight;
 import com.badlogic.gdx.graphics.g3d.environment.DirectionalShadowLight;
 import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
+import com.badlogic.gdx.math.GridPoint2;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.Ray;
-import com.badlogic.gdx.math.Intersector;
-import com.badlogic.gdx.math.collision.BoundingBox;
 import pl.julkot1.game.gui.Gui;
+import pl.julkot1.game.map.BackgroundRegenerator;
+import pl.julkot1.game.map.ChunkedTileStore;
+import pl.julkot1.game.map.GenerationCache;
+import pl.julkot1.game.map.HexLayout;
 import pl.julkot1.game.map.HexMap;
-import pl.julkot1.game.map.MapGenerator;
 import pl.julkot1.game.map.MapRender;
+import pl.julkot1.game.map.ProgressiveGenerator;
 import pl.julkot1.game.map.Tile;
+import pl.julkot1.game.map.TilePicker;
 
 public class Screen3D implements Screen {
-    public static final int MAP_WIDTH = 100;
-    public static final int MAP_HEIGHT = 100;
+    // Overridable with -Dhex.mapWidth and -Dhex.mapHeight, e.g. to try very large worlds
+    public static final int MAP_WIDTH = Integer.getInteger("hex.mapWidth", 100);
+    public static final int MAP_HEIGHT = Integer.getInteger("hex.mapHeight", 100);
+    /** Maps with more tiles are stored in chunks, generated as the camera reaches them. */
+    public static final long CHUNKED_MAP_TILES = 4_000_000;
+    /** Memory kept for resident chunks of a chunked map. */
+    public static final long CHUNK_MEMORY_BUDGET_BYTES = 256L << 20;
     public static final float HEX_RADIUS = 1f;
     public static final float HEX_HEIGHT = 0.5f;
+    public static final String GENERATION_CACHE_DIR = "cache/maps";
 
-    private final Vector3 mapCenter = new Vector3(MAP_WIDTH * HEX_RADIUS * 0.75f, 0, MAP_HEIGHT * HEX_RADIUS * (float)Math.sqrt(3) / 2f);
+    private final HexLayout layout = new HexLayout(HEX_RADIUS, MAP_WIDTH, MAP_HEIGHT);
+
+    private final TilePicker picker = new TilePicker(layout);
+
+    private final Vector3 mapCenter = new Vector3(layout.worldX(MAP_WIDTH) / 2f, 0, layout.worldZ(0, MAP_HEIGHT) / 2f);
 
     private final Vector3 cameraOffset = new Vector3(0, 0, 0);
 
     private HexMap hexMap;
 
+    private GenerationCache generationCache;
+
+    private ProgressiveGenerator generator;
+
+    private BackgroundRegenerator regenerator;
+
+    private final GridPoint2 focusTile = new GridPoint2();
+
     private Gui gui;
 
     private boolean wasLeftPressed = false;
 
+    // Set by the threshold sliders, applied once per frame however often they fire
+    private boolean thresholdsChanged;
+
     private Model hexModel;
     private Model cubeModel;
 
     @Override
     public void show() {
         MapRender.initCameraAndEnvironment(
-            MAP_WIDTH, MAP_HEIGHT, HEX_RADIUS, HEX_HEIGHT, mapCenter
+            layout, HEX_HEIGHT, mapCenter
         );
 
-        hexMap = new HexMap(MAP_WIDTH, MAP_HEIGHT, HexMap.Colors.randomColors());
-        MapGenerator.generateNoiseMap(hexMap);
+        hexMap = (long) MAP_WIDTH * MAP_HEIGHT > CHUNKED_MAP_TILES
+            ? HexMap.chunked(MAP_WIDTH, MAP_HEIGHT, ChunkedTileStore.DEFAULT_CHUNK_SIZE, CHUNK_MEMORY_BUDGET_BYTES)
+            : new HexMap(MAP_WIDTH, MAP_HEIGHT);
+        generationCache = new GenerationCache(Gdx.files.local(GENERATION_CACHE_DIR).file().toPath());
+        generator = new ProgressiveGenerator();
+        generator.start(hexMap, generationCache, MAP_WIDTH / 2, MAP_HEIGHT / 2);
+        regenerator = new BackgroundRegenerator(hexMap, generationCache);
 
         ModelBuilder modelBuilder = new ModelBuilder();
         hexModel = modelBuilder.createCylinder(
@@ -63,45 +93,20 @@ public class Screen3D implements Screen {
                 com.badlogic.gdx.graphics.VertexAttributes.Usage.Position | com.badlogic.gdx.graphics.VertexAttributes.Usage.Normal
         );
 
-        updateMapModel();
+        MapRender.setTileModel(hexModel);
 
         gui = new Gui(MAP_WIDTH * MAP_HEIGHT);
+        gui.getMinimap().setLayout(layout);
         gui.updateMinimap(hexMap);
 
         gui.getMinimap().setMinimapClickListener((tileX, tileY) -> {
-            float px = tileX * HEX_RADIUS * 1.5f;
-            float py = tileY * HEX_RADIUS * (float) Math.sqrt(3) + (tileX % 2) * HEX_RADIUS * (float) Math.sqrt(3) / 2f;
-
-            cameraOffset.x = px - mapCenter.x;
-            cameraOffset.z = py - mapCenter.z;
-        });
-
-        gui.setOnButtonClicked(() -> {
-            MapGenerator.generateNoiseMap(hexMap);
-            gui.updateMinimap(hexMap);
-
-            updateMapModel();
+            cameraOffset.x = layout.worldX(tileX) - mapCenter.x;
+            cameraOffset.z = layout.worldZ(tileX, tileY) - mapCenter.z;
         });
-    }
-
-    private void updateMapModel() {
-        for (int x = 0; x < MAP_WIDTH; x++) {
-            for (int y = 0; y < MAP_HEIGHT; y++) {
-                float px = x * HEX_RADIUS * 1.5f;
-                float py = y * HEX_RADIUS * (float) Math.sqrt(3) + (x % 2) * HEX_RADIUS * (float) Math.sqrt(3) / 2f;
-                Tile tile = hexMap.getTile(x, y);
-                tile.setModel(hexModel);
-                ModelInstance instance = tile.getModelInstance();
-
-                instance.transform.setToTranslation(px, tile.getHeight() / 2f, py);
-                instance.transform.scale(1f, tile.getHeight() / HEX_HEIGHT, 1f);
 
-                Color renderColor = tile.getColor();
-                instance.materials.get(0).set(ColorAttribute.createDiffuse(renderColor));
-
-                tile.setCubeModel(null);
-            }
-        }
+        // The current map keeps rendering until the regenerated one is swapped in
+        gui.setOnButtonClicked(() -> regenerator.start());
+        gui.setOnThresholdsChanged(() -> thresholdsChanged = true);
     }
 
     @Override
@@ -109,16 +114,35 @@ public class Screen3D implements Screen {
         MapRender.handleCameraInput(cameraOffset, delta);
         MapRender.handleMouseInput();
 
-        MapRender.updateHoveredTile(gui, hexMap, HEX_RADIUS);
+        MapRender.updateHoveredTile(gui, hexMap);
 
         MapRender.updateCamera(cameraOffset);
 
+        if (regenerator.update()) {
+            // The first map may still be filling in progressively; it is off screen now
+            generator.cancel();
+            hexMap = regenerator.getMap();
+        }
+        if (thresholdsChanged) {
+            thresholdsChanged = false;
+            regenerator.reclassify();
+        }
+        if (generator.isRunning()) {
+            updateFocusTile();
+            generator.setFocus(focusTile.x, focusTile.y);
+            generator.update();
+        }
+        gui.getMinimap().setProgress(generator.getProgress());
+
+        MapRender.syncTiles(hexMap);
+        gui.updateMinimap(hexMap);
+        gui.getTileWindow().refresh(hexMap);
+
         MapRender.preRender();
 
         MapRender.render(
             hexMap,
             gui,
-            HEX_RADIUS,
             cameraOffset
         );
         Vector3 cameraPosition = MapRender.getCamera().position;
@@ -131,6 +155,13 @@ public class Screen3D implements Screen {
     }
 
 
+    /** Tile the camera looks at, which generation prioritizes. */
+    private void updateFocusTile() {
+        layout.worldToTile(mapCenter.x + cameraOffset.x, mapCenter.z + cameraOffset.z, focusTile);
+        focusTile.x = Math.max(0, Math.min(MAP_WIDTH - 1, focusTile.x));
+        focusTile.y = Math.max(0, Math.min(MAP_HEIGHT - 1, focusTile.y));
+    }
+
     private void handleTileClick() {
         boolean leftPressed = Gdx.input.isButtonPressed(Input.Buttons.LEFT);
         if (!leftPressed && wasLeftPressed) {
@@ -144,29 +175,10 @@ public class Screen3D implements Screen {
 
             Ray ray = MapRender.getCamera().getPickRay(mouseX, mouseY);
 
-            float minDist = Float.MAX_VALUE;
             int selectedX = -1, selectedY = -1;
-
-            for (int x = 0; x < MAP_WIDTH; x++) {
-                for (int y = 0; y < MAP_HEIGHT; y++) {
-                    float px = x * HEX_RADIUS * 1.5f;
-                    float py = y * HEX_RADIUS * (float)Math.sqrt(3) + (x % 2) * HEX_RADIUS * (float)Math.sqrt(3) / 2f;
-                    float height = hexMap.getHeight(x, y);
-
-                    BoundingBox bbox = new BoundingBox(
-                        new Vector3(px - HEX_RADIUS, 0, py - HEX_RADIUS),
-                        new Vector3(px + HEX_RADIUS, height, py + HEX_RADIUS)
-                    );
-
-                    if (Intersector.intersectRayBoundsFast(ray, bbox)) {
-                        float dist = ray.origin.dst(px, 0, py);
-                        if (dist < minDist) {
-                            minDist = dist;
-                            selectedX = x;
-                            selectedY = y;
-                        }
-                    }
-                }
+            if (picker.pick(hexMap, ray, false)) {
+                selectedX = picker.getX();
+                selectedY = picker.getY();
             }
 
             if (selectedX != -1 && selectedY != -1) {
@@ -180,10 +192,9 @@ public class Screen3D implements Screen {
                     tile.setCubeModel(cubeModel);
                     ModelInstance cubeInstance = tile.getCubeInstance();
                     if (cubeInstance != null) {
-                        float px = selectedX * HEX_RADIUS * 1.5f;
-                        float py = selectedY * HEX_RADIUS * (float)Math.sqrt(3) + (selectedX % 2) * HEX_RADIUS * (float)Math.sqrt(3) / 2f;
                         float tileTop = tile.getHeight();
-                        cubeInstance.transform.setToTranslation(px, tileTop + HEX_RADIUS / 2f, py);
+                        cubeInstance.transform.setToTranslation(layout.worldX(selectedX), tileTop + HEX_RADIUS / 2f,
+                            layout.worldZ(selectedX, selectedY));
                     }
                 }
             }
@@ -214,6 +225,9 @@ public class Screen3D implements Screen {
 
     @Override
     public void dispose() {
+        if (generator != null) generator.dispose();
+        if (regenerator != null) regenerator.dispose();
+        MapRender.dispose();
         hexModel.dispose();
         cubeModel.dispose();
         if (gui != null) gui.dispose();
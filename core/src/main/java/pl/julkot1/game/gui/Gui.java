@@ -21,6 +21,7 @@ public class Gui {
     private final InfoPanel infoPanel;
 
     private Runnable onButtonClicked;
+    private Runnable onThresholdsChanged;
 
     private final int totalTiles;
 
@@ -55,6 +56,14 @@ public class Gui {
         textFieldStyle.background = createBackgroundDrawable(new Color(0.12f, 0.12f, 0.18f, 0.85f), 12);
         skin.add("default", textFieldStyle);
 
+        Slider.SliderStyle sliderStyle = new Slider.SliderStyle();
+        sliderStyle.background = createBackgroundDrawable(new Color(0.25f, 0.25f, 0.35f, 1f), 4);
+        sliderStyle.background.setMinHeight(8);
+        sliderStyle.knob = createBackgroundDrawable(new Color(0.2f, 0.4f, 0.7f, 1f), 4);
+        sliderStyle.knob.setMinWidth(12);
+        sliderStyle.knob.setMinHeight(20);
+        skin.add("default-horizontal", sliderStyle);
+
         // Main container (fills parent)
         mainContainer = new Table();
         mainContainer.setFillParent(true);
@@ -102,6 +111,19 @@ public class Gui {
         if (onButtonClicked != null) onButtonClicked.run();
     }
 
+    /**
+     * Called when a threshold slider changed {@link pl.julkot1.game.map.MapGenerator#getThresholds()},
+     * possibly several times per frame while it is dragged.
+     */
+    public void setOnThresholdsChanged(Runnable onThresholdsChanged) {
+        this.onThresholdsChanged = onThresholdsChanged;
+    }
+
+    // Called by RenderPanel's sliders
+    public void triggerThresholdsChanged() {
+        if (onThresholdsChanged != null) onThresholdsChanged.run();
+    }
+
     private BitmapFont generateFont(String ttfPath, int size, Color color) {
         FreeTypeFontGenerator generator = new FreeTypeFontGenerator(Gdx.files.internal(ttfPath));
         FreeTypeFontGenerator.FreeTypeFontParameter parameter = new FreeTypeFontGenerator.FreeTypeFontParameter();
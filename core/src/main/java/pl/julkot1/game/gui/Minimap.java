@@ -7,8 +7,11 @@ import com.badlogic.gdx.scenes.scene2d.ui.Image;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.InputEvent;
 import com.badlogic.gdx.scenes.scene2d.InputListener;
+import com.badlogic.gdx.math.GridPoint2;
+import pl.julkot1.game.map.ChangeTracker;
+import pl.julkot1.game.map.HexLayout;
 import pl.julkot1.game.map.HexMap;
-import pl.julkot1.game.map.Tile;
+import pl.julkot1.game.map.MapPyramid;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.graphics.g2d.Batch;
 
@@ -19,7 +22,18 @@ public class Minimap extends Table {
     private int minimapWidth;
     private int minimapHeight;
     private int scale = 1;
+    // Pyramid level drawn, 0 for the tiles themselves; scale is 2^level
+    private int level;
     private HexMap map;
+    private Pixmap pixmap;
+    private long drawnVersion = -1;
+    // Pixel rows below this one are drawn; a full redraw restarts it at 0
+    private int redrawRow;
+    // Whether the pixmap has pixels the texture does not have yet
+    private boolean textureStale;
+
+    /** Time per frame spent redrawing the whole minimap, e.g. after a map swap. */
+    public static final long REDRAW_BUDGET_NANOS = 3_000_000;
 
     public interface MinimapClickListener {
         void onTileClicked(int tileX, int tileY);
@@ -61,31 +75,74 @@ public class Minimap extends Table {
         });
     }
 
+    /**
+     * Redraws the minimap from the map. Large maps are drawn from the coarsest
+     * {@link MapPyramid} level that still fills the minimap, so each pixel shows the
+     * majority biome of its tiles; chunked maps always are, and show only the chunks
+     * generated so far. Only pixels whose tiles changed since the previous
+     * call are redrawn. A regeneration or a different map redraws everything, spread over
+     * frames at {@link #REDRAW_BUDGET_NANOS} each, and keeps showing the previous texture
+     * until the new one is complete.
+     */
     public void update(HexMap map) {
         if (map == null) return;
+        ChangeTracker changes = map.getChanges();
+        boolean fullRedraw = map != this.map || pixmap == null || changes.isFullyChangedSince(drawnVersion);
+        if (!fullRedraw && changes.getVersion() == drawnVersion && redrawRow == minimapHeight) return;
         this.map = map;
-        int rows = map.getRows();
-        int cols = map.getCols();
-
-        // Downscale for minimap (max 1000x1000)
-        int maxSize = 1000;
-        scale = Math.max(1, Math.max(rows, cols) / maxSize);
-        minimapWidth = cols / scale;
-        minimapHeight = rows / scale;
-
-        Pixmap pixmap = new Pixmap(minimapWidth, minimapHeight, Pixmap.Format.RGBA8888);
-        for (int y = 0; y < minimapHeight; y++) {
-            for (int x = 0; x < minimapWidth; x++) {
-                Tile tile = map.getTile(x * scale, y * scale);
-                Color c = tile.getColor();
-                pixmap.setColor(c);
-                pixmap.drawPixel(x, y);
+        long deadline = System.nanoTime() + REDRAW_BUDGET_NANOS;
+
+        MapPyramid pyramid = map.getPyramid();
+        if (fullRedraw) {
+            // Downscale for minimap (max 1000x1000)
+            int maxSize = 1000;
+            level = pyramid.levelFor(maxSize);
+            scale = 1 << level;
+            // Pixel x runs along the map's rows, see drawPixels
+            minimapWidth = pyramid.getRows(level);
+            minimapHeight = pyramid.getCols(level);
+
+            if (pixmap == null || pixmap.getWidth() != minimapWidth || pixmap.getHeight() != minimapHeight) {
+                if (pixmap != null) pixmap.dispose();
+                pixmap = new Pixmap(minimapWidth, minimapHeight, Pixmap.Format.RGBA8888);
+            }
+            redrawRow = 0;
+        } else if (changes.getVersion() != drawnVersion) {
+            // Pixel (x, y) covers tiles (x * scale, y * scale) up to the next pixel, see drawPixels.
+            // Pixel rows a running redraw has not reached yet are drawn by it.
+            changes.dirtyRegionsSince(drawnVersion, (rowStart, colStart, rowEnd, colEnd) ->
+                drawPixels(
+                    rowStart >> level, colStart >> level,
+                    Math.min(minimapWidth, ((rowEnd - 1) >> level) + 1),
+                    Math.min(redrawRow, ((colEnd - 1) >> level) + 1)));
+            textureStale = true;
+        }
+        drawnVersion = changes.getVersion();
+
+        while (redrawRow < minimapHeight && System.nanoTime() < deadline) {
+            drawPixels(0, redrawRow, minimapWidth, redrawRow + 1);
+            redrawRow++;
+            textureStale = true;
+        }
+        if (redrawRow < minimapHeight || !textureStale) return;
+        if (minimapTexture == null || minimapTexture.getWidth() != minimapWidth
+            || minimapTexture.getHeight() != minimapHeight) {
+            if (minimapTexture != null) minimapTexture.dispose();
+            minimapTexture = new Texture(pixmap);
+            minimapImage.setDrawable(new com.badlogic.gdx.scenes.scene2d.utils.TextureRegionDrawable(new com.badlogic.gdx.graphics.g2d.TextureRegion(minimapTexture)));
+        } else {
+            minimapTexture.draw(pixmap, 0, 0);
+        }
+        textureStale = false;
+    }
+
+    private void drawPixels(int xStart, int yStart, int xEnd, int yEnd) {
+        MapPyramid pyramid = level > 0 ? map.getPyramid() : null;
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = xStart; x < xEnd; x++) {
+                pixmap.drawPixel(x, y, pyramid != null ? pyramid.getColorBits(level, x, y) : map.getColorBits(x, y));
             }
         }
-        if (minimapTexture != null) minimapTexture.dispose();
-        minimapTexture = new Texture(pixmap);
-        pixmap.dispose();
-        minimapImage.setDrawable(new com.badlogic.gdx.scenes.scene2d.utils.TextureRegionDrawable(new com.badlogic.gdx.graphics.g2d.TextureRegion(minimapTexture)));
     }
 
     // Camera position and view size for overlay
@@ -93,6 +150,22 @@ public class Minimap extends Table {
     private float cameraY = -1;
 
     private final ShapeRenderer shapeRenderer = new ShapeRenderer();
+    private final GridPoint2 cameraTile = new GridPoint2();
+    private HexLayout layout;
+
+    /**
+     * Layout used to convert the camera position to a tile for the overlay.
+     */
+    public void setLayout(HexLayout layout) {
+        this.layout = layout;
+    }
+
+    // Fraction of the map generated; a bar is drawn under the image while below 1
+    private float progress = 1f;
+
+    public void setProgress(float progress) {
+        this.progress = progress;
+    }
 
     public void setCameraView(float cameraX, float cameraY) {
         this.cameraX = cameraX;
@@ -102,7 +175,10 @@ public class Minimap extends Table {
     @Override
     public void draw(Batch batch, float parentAlpha) {
         super.draw(batch, parentAlpha);
-        if (cameraX >= 0 && cameraY >= 0 && minimapImage != null && map != null) {
+        if (progress < 1f && minimapImage != null) {
+            drawProgress(batch);
+        }
+        if (cameraX >= 0 && cameraY >= 0 && minimapImage != null && map != null && layout != null) {
             batch.end();
             shapeRenderer.setProjectionMatrix(getStage().getCamera().combined);
             shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
@@ -116,9 +192,10 @@ public class Minimap extends Table {
             int cols = map.getCols();
             int rows = map.getRows();
 
-            // Fix: cameraX and cameraY are in world coordinates, convert to tile indices
-            float tileX = cameraX / (1.5f);
-            float tileY = (cameraY - ((int)tileX % 2) * (float)Math.sqrt(3) / 2f) / ((float)Math.sqrt(3));
+            // cameraX and cameraY are in world coordinates, convert to tile indices
+            layout.worldToTile(cameraX, cameraY, cameraTile);
+            float tileX = cameraTile.x;
+            float tileY = cameraTile.y;
 
             // Clamp tileX/tileY to map bounds
             tileX = Math.max(0, Math.min(cols - 1, tileX));
@@ -140,4 +217,23 @@ public class Minimap extends Table {
             batch.begin();
         }
     }
+
+    private void drawProgress(Batch batch) {
+        batch.end();
+        shapeRenderer.setProjectionMatrix(getStage().getCamera().combined);
+        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+
+        com.badlogic.gdx.math.Vector2 origin = minimapImage.localToStageCoordinates(new com.badlogic.gdx.math.Vector2(0, 0));
+        float barHeight = 6f;
+        float barY = origin.y - barHeight - 4f;
+        float imgW = minimapImage.getWidth();
+
+        shapeRenderer.setColor(0.12f, 0.12f, 0.18f, 1f);
+        shapeRenderer.rect(origin.x, barY, imgW, barHeight);
+        shapeRenderer.setColor(0.2f, 0.7f, 0.2f, 1f);
+        shapeRenderer.rect(origin.x, barY, imgW * progress, barHeight);
+
+        shapeRenderer.end();
+        batch.begin();
+    }
 }
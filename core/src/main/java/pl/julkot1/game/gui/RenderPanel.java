@@ -1,9 +1,14 @@
 package pl.julkot1.game.gui;
 
 import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.ui.*;
+import com.badlogic.gdx.scenes.scene2d.utils.ChangeListener;
 import pl.julkot1.game.map.MapGenerator;
 
+import java.util.Locale;
+import java.util.function.BiFunction;
+
 public class RenderPanel extends Table {
     private TextField seedField;
     public void initPanel(Skin skin, Gui gui) {
@@ -28,5 +33,38 @@ public class RenderPanel extends Table {
                 gui.triggerButton();
             }
         });
+
+        MapGenerator.Thresholds thresholds = MapGenerator.getThresholds();
+        addThresholdSlider(skin, gui, "Water level", 0.3f, 0.6f, thresholds.waterLevel(),
+            MapGenerator.Thresholds::withWaterLevel);
+        addThresholdSlider(skin, gui, "Sand level", 0.4f, 0.7f, thresholds.sandLevel(),
+            MapGenerator.Thresholds::withSandLevel);
+        addThresholdSlider(skin, gui, "Continents", 0.5f, 0.9f, thresholds.continentThreshold(),
+            MapGenerator.Thresholds::withContinentThreshold);
+    }
+
+    /**
+     * Adds a labeled slider replacing one of the {@link MapGenerator#getThresholds()} as it moves.
+     */
+    private void addThresholdSlider(Skin skin, Gui gui, String name, float min, float max, float value,
+                                    BiFunction<MapGenerator.Thresholds, Float, MapGenerator.Thresholds> apply) {
+        Label label = new Label(format(name, value), skin);
+        Slider slider = new Slider(min, max, 0.005f, false, skin);
+        slider.setValue(value);
+        slider.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                label.setText(format(name, slider.getValue()));
+                MapGenerator.setThresholds(apply.apply(MapGenerator.getThresholds(), slider.getValue()));
+                gui.triggerThresholdsChanged();
+            }
+        });
+        this.row();
+        this.add(label).pad(10).left();
+        this.add(slider).pad(10).left().width(200);
+    }
+
+    private static String format(String name, float value) {
+        return String.format(Locale.ROOT, "%s: %.3f", name, value);
     }
 }
@@ -4,10 +4,15 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
+import pl.julkot1.game.map.ChangeTracker;
+import pl.julkot1.game.map.HexMap;
 import pl.julkot1.game.map.Tile;
 
 public class TileWindow extends Table {
     private Label infoLabel;
+    private Tile shownTile;
+    private long shownVersion;
+    private HexMap shownMap;
 
     public void InitWindow(Gui gui, Skin skin) {
         this.setBackground(gui.createBackgroundDrawable(new Color(0.12f, 0.12f, 0.18f, 0.85f), 12));
@@ -43,5 +48,23 @@ public class TileWindow extends Table {
             tile.isClicked() ? "Yes" : "No"
         );
         infoLabel.setText(info);
+        shownTile = tile;
+    }
+
+    /**
+     * Refreshes the shown info if the tile's data changed since it was displayed, or shows
+     * the same tile of {@code map} if it replaced the map the tile came from.
+     */
+    public void refresh(HexMap map) {
+        ChangeTracker changes = map.getChanges();
+        if (shownTile != null && map != shownMap) {
+            int row = shownTile.getRow();
+            int col = shownTile.getCol();
+            setTileInfo(map.getTile(row, col), row, col);
+        } else if (shownTile != null && changes.isDirtySince(shownTile.getRow(), shownTile.getCol(), shownVersion)) {
+            setTileInfo(shownTile, shownTile.getRow(), shownTile.getCol());
+        }
+        shownMap = map;
+        shownVersion = changes.getVersion();
     }
 }
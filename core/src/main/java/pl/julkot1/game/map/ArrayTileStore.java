@@ -0,0 +1,98 @@
+package pl.julkot1.game.map;
+
+import java.util.Arrays;
+
+/**
+ * Dense in-heap storage backed by a single {@link MapLayers}.
+ */
+public class ArrayTileStore implements TileStore {
+    private final MapLayers layers;
+    private final int cols;
+    /** Lazily created tile views, allocated one row at a time. */
+    private final Tile[][] views;
+
+    public ArrayTileStore(int rows, int cols) {
+        this.layers = new MapLayers(rows, cols);
+        this.cols = cols;
+        this.views = new Tile[rows][];
+    }
+
+    public MapLayers getLayers() {
+        return layers;
+    }
+
+    @Override
+    public int getRows() { return layers.getRows(); }
+
+    @Override
+    public int getCols() { return cols; }
+
+    @Override
+    public int getChunkSize() { return Math.max(layers.getRows(), cols); }
+
+    @Override
+    public float getHeight(int row, int col) { return layers.height[row * cols + col]; }
+    @Override
+    public void setHeight(int row, int col, float value) { layers.height[row * cols + col] = value; }
+
+    @Override
+    public float getTemperature(int row, int col) { return layers.temperature[row * cols + col]; }
+    @Override
+    public void setTemperature(int row, int col, float value) { layers.temperature[row * cols + col] = value; }
+
+    @Override
+    public float getMoisture(int row, int col) { return layers.moisture[row * cols + col]; }
+    @Override
+    public void setMoisture(int row, int col, float value) { layers.moisture[row * cols + col] = value; }
+
+    @Override
+    public int getBiome(int row, int col) { return layers.biome[row * cols + col]; }
+    @Override
+    public void setBiome(int row, int col, int ordinal) { layers.biome[row * cols + col] = (byte) ordinal; }
+
+    @Override
+    public int getTerrain(int row, int col) { return layers.terrain[row * cols + col]; }
+    @Override
+    public void setTerrain(int row, int col, int ordinal) { layers.terrain[row * cols + col] = (byte) ordinal; }
+
+    @Override
+    public int getLevel(int row, int col) { return layers.level[row * cols + col]; }
+    @Override
+    public void setLevel(int row, int col, int ordinal) { layers.level[row * cols + col] = (byte) ordinal; }
+
+    @Override
+    public int getTemperatureType(int row, int col) { return layers.temperatureType[row * cols + col]; }
+    @Override
+    public void setTemperatureType(int row, int col, int ordinal) { layers.temperatureType[row * cols + col] = (byte) ordinal; }
+
+    @Override
+    public int getMoistureType(int row, int col) { return layers.moistureType[row * cols + col]; }
+    @Override
+    public void setMoistureType(int row, int col, int ordinal) { layers.moistureType[row * cols + col] = (byte) ordinal; }
+
+    @Override
+    public int getColor(int row, int col) { return layers.color[row * cols + col]; }
+    @Override
+    public void setColor(int row, int col, int rgba8888) { layers.color[row * cols + col] = rgba8888; }
+
+    @Override
+    public Tile getView(int row, int col) {
+        Tile[] rowViews = views[row];
+        return rowViews == null ? null : rowViews[col];
+    }
+
+    @Override
+    public void setView(int row, int col, Tile tile) {
+        Tile[] rowViews = views[row];
+        if (rowViews == null) {
+            rowViews = new Tile[cols];
+            views[row] = rowViews;
+        }
+        rowViews[col] = tile;
+    }
+
+    @Override
+    public void clearViews() {
+        Arrays.fill(views, null);
+    }
+}
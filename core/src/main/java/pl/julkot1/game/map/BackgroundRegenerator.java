@@ -0,0 +1,183 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.Gdx;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Regenerates a map on a background thread into a second buffer while the current map
+ * keeps rendering, then swaps the two on the render thread.
+ * <p>
+ * {@link #getMap()} is the front buffer, the map to render. {@link #start()} generates
+ * the back buffer for the current {@link MapGenerator#SEED} on a worker, with a
+ * {@link GeneratorPipeline} it keeps, so stage fields are reused between runs, e.g. the
+ * noise when only a threshold changed. Once
+ * it is done, {@link #update()} swaps the buffers and the old front becomes the next back
+ * buffer, so two maps are allocated in total. Renderers see a different map after a swap
+ * and rebuild what they draw from it over the next frames, see
+ * {@link MapRender#syncTiles(HexMap)}. The back buffer is always a dense map; a chunked
+ * front buffer, whose chunks are generated lazily as they are read, is regenerated in
+ * place instead, see {@link MapGenerator#generateNoiseMap(HexMap)}.
+ * <p>
+ * Threshold changes are applied with {@link #reclassify()}, in place and at once if the
+ * front buffer is the map the pipeline last generated and only the sand level or climate
+ * cutoffs changed, by a regeneration otherwise.
+ */
+public class BackgroundRegenerator {
+    private static final String TAG = "BackgroundRegenerator";
+
+    private final ExecutorService worker;
+    private final GenerationCache cache;
+    private final MapGenerator.BiomeResolver biomeResolver = new MapGenerator.SimpleBiomeResolver();
+    private HexMap front;
+    private HexMap back;
+    // Pipeline of the seed it was created for; only used on the worker
+    private GeneratorPipeline pipeline;
+    private int pipelineSeed;
+    // Buffer the pipeline's retained fields belong to, if any
+    private HexMap fieldsMap;
+    private volatile boolean running;
+    private volatile boolean done;
+    private volatile boolean failed;
+    private boolean restart;
+    private boolean reclassifyPending;
+
+    /**
+     * @param front Map rendered until the first swap.
+     * @param cache Cache regenerated maps are loaded from and stored in, may be null.
+     */
+    public BackgroundRegenerator(HexMap front, GenerationCache cache) {
+        this.front = front;
+        this.cache = cache;
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "map-regenerator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts regenerating the back buffer for the current {@link MapGenerator#SEED} and
+     * {@link MapGenerator#getThresholds() thresholds}. If a
+     * regeneration is already running, another one starts once it has been swapped in, so
+     * the latest seed always ends up on screen.
+     */
+    public void start() {
+        if (front.getStore() instanceof ChunkedTileStore) {
+            MapGenerator.generateNoiseMap(front);
+            return;
+        }
+        if (running) {
+            restart = true;
+            return;
+        }
+        if (back == null) back = new HexMap(front.getRows(), front.getCols());
+        HexMap target = back;
+        MapGenerator.Thresholds thresholds = MapGenerator.getThresholds();
+        MapGenerator.Params params = MapGenerator.Params.of(MapGenerator.SEED, thresholds);
+        running = true;
+        worker.execute(() -> {
+            try {
+                generate(target, params, thresholds);
+            } catch (RuntimeException e) {
+                Gdx.app.error(TAG, "Background generation failed", e);
+                failed = true;
+            } finally {
+                done = true;
+            }
+        });
+    }
+
+    private void generate(HexMap map, MapGenerator.Params params, MapGenerator.Thresholds thresholds) {
+        long start = System.nanoTime();
+        if (fieldsMap == map) fieldsMap = null;
+        if (cache != null && cache.load(map, params)) {
+            // Built here rather than by the minimap on the render thread after the swap
+            map.getPyramid();
+            Gdx.app.debug(TAG, "Loaded " + map.getRows() + "x" + map.getCols() + " map from cache in background in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return;
+        }
+        if (pipeline == null || pipelineSeed != params.seed()) {
+            pipeline = GeneratorPipeline.forSeed(params.seed(), biomeResolver);
+            pipelineSeed = params.seed();
+        }
+        pipeline.run(map, thresholds);
+        fieldsMap = map;
+        Gdx.app.debug(TAG, "Generated " + map.getRows() + "x" + map.getCols() + " map in background: "
+            + pipeline.getLastTimings() + ", total " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        if (cache != null) cache.store(map, params);
+    }
+
+    /**
+     * Applies the current {@link MapGenerator#getThresholds()} to the front buffer. Call on
+     * the render thread, at most once per frame while a slider is dragged. If the pipeline
+     * holds the front buffer's fields and only the sand level or climate cutoffs changed,
+     * it is reclassified in place, see {@link GeneratorPipeline#reclassify(HexMap)};
+     * otherwise, e.g. after the water level changed or for a map loaded from the cache, a
+     * regeneration is started, which samples no noise either if the seed has not changed. While a regeneration runs, the map it produces
+     * is reclassified once it has been swapped in.
+     *
+     * @return Whether the front buffer was reclassified in place.
+     */
+    public boolean reclassify() {
+        if (running) {
+            reclassifyPending = true;
+            return false;
+        }
+        if (fieldsMap != front || !pipeline.reclassify(front)) {
+            start();
+            return false;
+        }
+        Gdx.app.debug(TAG, "Reclassified " + front.getRows() + "x" + front.getCols() + " map: "
+            + pipeline.getLastTimings());
+        return true;
+    }
+
+    /**
+     * Swaps the buffers if the worker has finished. Call once per frame on the render
+     * thread, before the map is synced for rendering.
+     *
+     * @return Whether the buffers were swapped, i.e. {@link #getMap()} changed. A failed
+     *         regeneration keeps the current map.
+     */
+    public boolean update() {
+        if (!done) return false;
+        done = false;
+        running = false;
+        boolean swap = !failed;
+        failed = false;
+        if (swap) {
+            HexMap previous = front;
+            front = back;
+            back = previous;
+            // The old front keeps no tile instances while it waits to be regenerated
+            previous.clearTiles();
+        }
+        if (restart) {
+            restart = false;
+            reclassifyPending = false;
+            start();
+        } else if (reclassifyPending) {
+            reclassifyPending = false;
+            reclassify();
+        }
+        return swap;
+    }
+
+    /**
+     * The map to render.
+     */
+    public HexMap getMap() {
+        return front;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void dispose() {
+        worker.shutdownNow();
+    }
+}
@@ -0,0 +1,222 @@
+package pl.julkot1.game.map;
+
+import java.util.Arrays;
+
+/**
+ * Records which parts of a {@link HexMap} changed, so consumers can do work
+ * proportional to an edit instead of to the whole map.
+ * <p>
+ * Every change bumps a monotonically increasing version. The map is split into square
+ * regions of {@value #REGION_SIZE} tiles that remember the version of their last change,
+ * and single-tile edits are also appended to a bounded journal. A consumer remembers the
+ * version it last synced to and asks what changed since then: the journal answers
+ * precisely while it still covers that version, the regions always answer with a
+ * superset. Bulk writes such as regeneration bypass the journal and mark the whole map.
+ * <p>
+ * Not thread-safe; changes are expected to come from the render thread.
+ */
+public class ChangeTracker {
+    public static final int REGION_SIZE = 16;
+    public static final int JOURNAL_CAPACITY = 4096;
+
+    // Layer bits recorded with every journal entry
+    public static final int HEIGHT = 1;
+    public static final int TEMPERATURE = 1 << 1;
+    public static final int MOISTURE = 1 << 2;
+    public static final int BIOME = 1 << 3;
+    public static final int TERRAIN = 1 << 4;
+    public static final int LEVEL = 1 << 5;
+    public static final int TEMPERATURE_TYPE = 1 << 6;
+    public static final int MOISTURE_TYPE = 1 << 7;
+    public static final int COLOR = 1 << 8;
+    public static final int ALL = (1 << 9) - 1;
+
+    public interface ChangeVisitor {
+        void changed(int row, int col, int layers);
+    }
+
+    public interface RegionVisitor {
+        /**
+         * @param rowEnd Exclusive end row of the region.
+         * @param colEnd Exclusive end column of the region.
+         */
+        void changed(int rowStart, int colStart, int rowEnd, int colEnd);
+    }
+
+    // Regions are grouped GROUP_SIZE by GROUP_SIZE, so scans skip unchanged parts of large maps
+    private static final int GROUP_SIZE = 8;
+
+    private final int rows;
+    private final int cols;
+    private final int regionRows;
+    private final int regionCols;
+    private final long[] regionVersions;
+    private final int groupCols;
+    private final long[] groupVersions;
+
+    private final long[] journalVersions = new long[JOURNAL_CAPACITY];
+    private final int[] journalRows = new int[JOURNAL_CAPACITY];
+    private final int[] journalCols = new int[JOURNAL_CAPACITY];
+    private final int[] journalLayers = new int[JOURNAL_CAPACITY];
+    private int journalHead;
+    private int journalSize;
+    /** Versions at or below this one cannot be answered from the journal. */
+    private long journalFloor;
+
+    private long version;
+    private long fullChangeVersion;
+    private int bulkDepth;
+    private int batchDepth;
+
+    public ChangeTracker(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.regionRows = (rows + REGION_SIZE - 1) / REGION_SIZE;
+        this.regionCols = (cols + REGION_SIZE - 1) / REGION_SIZE;
+        this.regionVersions = new long[regionRows * regionCols];
+        this.groupCols = (regionCols + GROUP_SIZE - 1) / GROUP_SIZE;
+        this.groupVersions = new long[((regionRows + GROUP_SIZE - 1) / GROUP_SIZE) * groupCols];
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Version of the last change that touched the whole map, e.g. a regeneration.
+     */
+    public long getFullChangeVersion() {
+        return fullChangeVersion;
+    }
+
+    /**
+     * Whether the whole map changed after {@code since}; consumers should rebuild fully.
+     */
+    public boolean isFullyChangedSince(long since) {
+        return fullChangeVersion > since;
+    }
+
+    /**
+     * Records a single-tile change. Every change gets a version of its own, except that
+     * inside a batch consecutive writes to the same tile share one entry. Ignored inside
+     * a bulk update.
+     */
+    public void record(int row, int col, int layers) {
+        if (bulkDepth > 0) return;
+        if (batchDepth > 0 && journalSize > 0) {
+            int last = (journalHead + JOURNAL_CAPACITY - 1) % JOURNAL_CAPACITY;
+            if (journalVersions[last] == version && journalRows[last] == row && journalCols[last] == col) {
+                journalLayers[last] |= layers;
+                return;
+            }
+        }
+        version++;
+        stampRegion(row / REGION_SIZE, col / REGION_SIZE);
+        if (journalSize == JOURNAL_CAPACITY) {
+            journalFloor = journalVersions[journalHead];
+        } else {
+            journalSize++;
+        }
+        journalVersions[journalHead] = version;
+        journalRows[journalHead] = row;
+        journalCols[journalHead] = col;
+        journalLayers[journalHead] = layers;
+        journalHead = (journalHead + 1) % JOURNAL_CAPACITY;
+    }
+
+    /**
+     * Marks a rectangle as changed without journaling single tiles.
+     */
+    public void markRegion(int rowStart, int colStart, int rowEnd, int colEnd) {
+        version++;
+        journalFloor = version;
+        for (int r = rowStart / REGION_SIZE; r <= (rowEnd - 1) / REGION_SIZE; r++) {
+            for (int c = colStart / REGION_SIZE; c <= (colEnd - 1) / REGION_SIZE; c++) {
+                stampRegion(r, c);
+            }
+        }
+    }
+
+    private void stampRegion(int regionRow, int regionCol) {
+        regionVersions[regionRow * regionCols + regionCol] = version;
+        groupVersions[(regionRow / GROUP_SIZE) * groupCols + regionCol / GROUP_SIZE] = version;
+    }
+
+    public void markAll() {
+        version++;
+        fullChangeVersion = version;
+        journalFloor = version;
+        Arrays.fill(regionVersions, version);
+        Arrays.fill(groupVersions, version);
+    }
+
+    /**
+     * Suspends journaling until the matching {@link #endBulkUpdate()}, which marks the
+     * whole map as changed. Use around passes that rewrite most tiles.
+     */
+    public void beginBulkUpdate() {
+        bulkDepth++;
+    }
+
+    public void endBulkUpdate() {
+        if (--bulkDepth == 0) markAll();
+    }
+
+    /**
+     * Merges consecutive writes to the same tile, e.g. of several of its layers, into one
+     * journal entry until the matching {@link #endBatch()}. Nothing may sync to this
+     * tracker in between, or it would miss the writes merged after it synced.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    public void endBatch() {
+        batchDepth--;
+    }
+
+    /**
+     * Visits every journaled change newer than {@code since}, oldest first. Returns
+     * {@code false} without visiting anything if the journal no longer covers that
+     * version; fall back to {@link #dirtyRegionsSince} in that case.
+     */
+    public boolean changesSince(long since, ChangeVisitor visitor) {
+        if (since < journalFloor) return false;
+        int start = (journalHead - journalSize + JOURNAL_CAPACITY) % JOURNAL_CAPACITY;
+        for (int i = 0; i < journalSize; i++) {
+            int e = (start + i) % JOURNAL_CAPACITY;
+            if (journalVersions[e] > since) {
+                visitor.changed(journalRows[e], journalCols[e], journalLayers[e]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visits the bounds of every region changed after {@code since}.
+     */
+    public void dirtyRegionsSince(long since, RegionVisitor visitor) {
+        if (since >= version) return;
+        for (int group = 0; group < groupVersions.length; group++) {
+            if (groupVersions[group] <= since) continue;
+            int firstRow = (group / groupCols) * GROUP_SIZE;
+            int firstCol = (group % groupCols) * GROUP_SIZE;
+            for (int r = firstRow; r < Math.min(regionRows, firstRow + GROUP_SIZE); r++) {
+                for (int c = firstCol; c < Math.min(regionCols, firstCol + GROUP_SIZE); c++) {
+                    if (regionVersions[r * regionCols + c] <= since) continue;
+                    int rowStart = r * REGION_SIZE;
+                    int colStart = c * REGION_SIZE;
+                    visitor.changed(rowStart, colStart,
+                        Math.min(rows, rowStart + REGION_SIZE), Math.min(cols, colStart + REGION_SIZE));
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the region containing the tile changed after {@code since}.
+     */
+    public boolean isDirtySince(int row, int col, long since) {
+        return regionVersions[(row / REGION_SIZE) * regionCols + col / REGION_SIZE] > since;
+    }
+}
@@ -0,0 +1,14 @@
+package pl.julkot1.game.map;
+
+/**
+ * Fills a chunk of a lazily generated map. Implementations must be deterministic:
+ * an evicted chunk is regenerated from scratch the next time it is accessed.
+ */
+public interface ChunkGenerator {
+    /**
+     * @param layers Chunk-local layers to fill; index {@code (0, 0)} is the chunk origin.
+     * @param rowOffset Map row of the chunk origin.
+     * @param colOffset Map column of the chunk origin.
+     */
+    void generate(MapLayers layers, int rowOffset, int colOffset);
+}
@@ -0,0 +1,272 @@
+package pl.julkot1.game.map;
+
+import java.util.Arrays;
+
+/**
+ * Storage that splits the map into square chunks and generates each chunk on first
+ * access. Resident chunks are kept in an LRU list bounded by a memory budget; clean
+ * chunks past the budget are evicted and regenerated deterministically when touched
+ * again. Chunks written through the setters or holding pinned views, e.g. tiles with a
+ * placed cube, are kept so edits are never lost.
+ * <p>
+ * A listener hears about every chunk generated for the first time since the generator
+ * was set, see {@link #setChunkListener}; {@link HexMap} marks those regions changed so
+ * the minimap and other consumers pick up newly generated terrain.
+ */
+public class ChunkedTileStore implements TileStore {
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private static final class Chunk {
+        final int index;
+        final MapLayers layers;
+        Tile[] views;
+        int pinnedViews;
+        boolean modified;
+        Chunk prev, next;
+
+        Chunk(int index, int rows, int cols) {
+            this.index = index;
+            this.layers = new MapLayers(rows, cols);
+        }
+    }
+
+    private final int rows;
+    private final int cols;
+    private final int chunkSize;
+    private final int chunkCols;
+    private final int maxResidentChunks;
+    /** Resident chunks by chunk index, {@code null} when not loaded. */
+    private final Chunk[] chunks;
+
+    private ChunkGenerator generator;
+    private ChangeTracker.RegionVisitor chunkListener;
+    // Chunks generated at least once since the generator was set
+    private final boolean[] generatedOnce;
+    private Chunk head, tail;
+    private int residentChunks;
+    private long generatedChunks;
+
+    /**
+     * @param memoryBudgetBytes Upper bound for the layer memory of resident chunks.
+     *                          At least one chunk is always kept.
+     */
+    public ChunkedTileStore(int rows, int cols, int chunkSize, long memoryBudgetBytes) {
+        this.rows = rows;
+        this.cols = cols;
+        this.chunkSize = chunkSize;
+        int chunkRows = (rows + chunkSize - 1) / chunkSize;
+        this.chunkCols = (cols + chunkSize - 1) / chunkSize;
+        long chunkBytes = (long) chunkSize * chunkSize * MapLayers.BYTES_PER_TILE;
+        this.maxResidentChunks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudgetBytes / chunkBytes));
+        this.chunks = new Chunk[chunkRows * chunkCols];
+        this.generatedOnce = new boolean[chunks.length];
+    }
+
+    /**
+     * Replaces the generator and drops every resident chunk, including edited ones.
+     */
+    public void setGenerator(ChunkGenerator generator) {
+        this.generator = generator;
+        Arrays.fill(chunks, null);
+        Arrays.fill(generatedOnce, false);
+        head = tail = null;
+        residentChunks = 0;
+    }
+
+    /**
+     * Called with the bounds of each chunk the first time it is generated after the
+     * generator was set, once the chunk is resident. Regenerations after eviction are
+     * not reported, they restore the same tiles.
+     */
+    public void setChunkListener(ChangeTracker.RegionVisitor listener) {
+        this.chunkListener = listener;
+    }
+
+    /**
+     * Visits the bounds of every chunk generated since the generator was set, whether
+     * it is still resident or not.
+     */
+    public void generatedChunks(ChangeTracker.RegionVisitor visitor) {
+        for (int index = 0; index < chunks.length; index++) {
+            if (!generatedOnce[index]) continue;
+            int rowStart = (index / chunkCols) * chunkSize;
+            int colStart = (index % chunkCols) * chunkSize;
+            visitor.changed(rowStart, colStart, Math.min(rows, rowStart + chunkSize), Math.min(cols, colStart + chunkSize));
+        }
+    }
+
+    public int getResidentChunks() {
+        return residentChunks;
+    }
+
+    /**
+     * Total number of chunk generations, including regenerations after eviction.
+     */
+    public long getGeneratedChunks() {
+        return generatedChunks;
+    }
+
+    @Override
+    public int getRows() { return rows; }
+
+    @Override
+    public int getCols() { return cols; }
+
+    @Override
+    public int getChunkSize() { return chunkSize; }
+
+    /**
+     * Reads load and evict chunks, so they must not run concurrently.
+     */
+    @Override
+    public boolean supportsConcurrentReads() { return false; }
+
+    @Override
+    public boolean isGenerated(int row, int col) {
+        return generatedOnce[(row / chunkSize) * chunkCols + col / chunkSize];
+    }
+
+    private Chunk chunk(int row, int col) {
+        int index = (row / chunkSize) * chunkCols + col / chunkSize;
+        Chunk chunk = chunks[index];
+        if (chunk == null) {
+            chunk = load(index);
+        } else if (chunk != head) {
+            unlink(chunk);
+            pushFront(chunk);
+        }
+        return chunk;
+    }
+
+    private int local(Chunk chunk, int row, int col) {
+        return (row % chunkSize) * chunk.layers.getCols() + col % chunkSize;
+    }
+
+    private Chunk load(int index) {
+        int rowOffset = (index / chunkCols) * chunkSize;
+        int colOffset = (index % chunkCols) * chunkSize;
+        Chunk chunk = new Chunk(index,
+            Math.min(chunkSize, rows - rowOffset),
+            Math.min(chunkSize, cols - colOffset));
+        if (generator != null) {
+            generator.generate(chunk.layers, rowOffset, colOffset);
+            generatedChunks++;
+        }
+        chunks[index] = chunk;
+        pushFront(chunk);
+        residentChunks++;
+        evict();
+        if (generator != null && !generatedOnce[index]) {
+            generatedOnce[index] = true;
+            if (chunkListener != null) {
+                chunkListener.changed(rowOffset, colOffset, rowOffset + chunk.layers.getRows(),
+                    colOffset + chunk.layers.getCols());
+            }
+        }
+        return chunk;
+    }
+
+    private void evict() {
+        Chunk candidate = tail;
+        while (residentChunks > maxResidentChunks && candidate != null && candidate != head) {
+            Chunk prev = candidate.prev;
+            if (!candidate.modified && candidate.pinnedViews == 0) {
+                unlink(candidate);
+                chunks[candidate.index] = null;
+                residentChunks--;
+            }
+            candidate = prev;
+        }
+    }
+
+    private void pushFront(Chunk chunk) {
+        chunk.prev = null;
+        chunk.next = head;
+        if (head != null) head.prev = chunk;
+        head = chunk;
+        if (tail == null) tail = chunk;
+    }
+
+    private void unlink(Chunk chunk) {
+        if (chunk.prev != null) chunk.prev.next = chunk.next; else head = chunk.next;
+        if (chunk.next != null) chunk.next.prev = chunk.prev; else tail = chunk.prev;
+        chunk.prev = chunk.next = null;
+    }
+
+    private Chunk write(int row, int col) {
+        Chunk chunk = chunk(row, col);
+        chunk.modified = true;
+        return chunk;
+    }
+
+    @Override
+    public float getHeight(int row, int col) { Chunk c = chunk(row, col); return c.layers.height[local(c, row, col)]; }
+    @Override
+    public void setHeight(int row, int col, float value) { Chunk c = write(row, col); c.layers.height[local(c, row, col)] = value; }
+
+    @Override
+    public float getTemperature(int row, int col) { Chunk c = chunk(row, col); return c.layers.temperature[local(c, row, col)]; }
+    @Override
+    public void setTemperature(int row, int col, float value) { Chunk c = write(row, col); c.layers.temperature[local(c, row, col)] = value; }
+
+    @Override
+    public float getMoisture(int row, int col) { Chunk c = chunk(row, col); return c.layers.moisture[local(c, row, col)]; }
+    @Override
+    public void setMoisture(int row, int col, float value) { Chunk c = write(row, col); c.layers.moisture[local(c, row, col)] = value; }
+
+    @Override
+    public int getBiome(int row, int col) { Chunk c = chunk(row, col); return c.layers.biome[local(c, row, col)]; }
+    @Override
+    public void setBiome(int row, int col, int ordinal) { Chunk c = write(row, col); c.layers.biome[local(c, row, col)] = (byte) ordinal; }
+
+    @Override
+    public int getTerrain(int row, int col) { Chunk c = chunk(row, col); return c.layers.terrain[local(c, row, col)]; }
+    @Override
+    public void setTerrain(int row, int col, int ordinal) { Chunk c = write(row, col); c.layers.terrain[local(c, row, col)] = (byte) ordinal; }
+
+    @Override
+    public int getLevel(int row, int col) { Chunk c = chunk(row, col); return c.layers.level[local(c, row, col)]; }
+    @Override
+    public void setLevel(int row, int col, int ordinal) { Chunk c = write(row, col); c.layers.level[local(c, row, col)] = (byte) ordinal; }
+
+    @Override
+    public int getTemperatureType(int row, int col) { Chunk c = chunk(row, col); return c.layers.temperatureType[local(c, row, col)]; }
+    @Override
+    public void setTemperatureType(int row, int col, int ordinal) { Chunk c = write(row, col); c.layers.temperatureType[local(c, row, col)] = (byte) ordinal; }
+
+    @Override
+    public int getMoistureType(int row, int col) { Chunk c = chunk(row, col); return c.layers.moistureType[local(c, row, col)]; }
+    @Override
+    public void setMoistureType(int row, int col, int ordinal) { Chunk c = write(row, col); c.layers.moistureType[local(c, row, col)] = (byte) ordinal; }
+
+    @Override
+    public int getColor(int row, int col) { Chunk c = chunk(row, col); return c.layers.color[local(c, row, col)]; }
+    @Override
+    public void setColor(int row, int col, int rgba8888) { Chunk c = write(row, col); c.layers.color[local(c, row, col)] = rgba8888; }
+
+    @Override
+    public Tile getView(int row, int col) {
+        Chunk chunk = chunk(row, col);
+        return chunk.views == null ? null : chunk.views[local(chunk, row, col)];
+    }
+
+    @Override
+    public void setView(int row, int col, Tile tile) {
+        Chunk chunk = chunk(row, col);
+        if (chunk.views == null) chunk.views = new Tile[chunk.layers.size()];
+        chunk.views[local(chunk, row, col)] = tile;
+    }
+
+    @Override
+    public void pinView(int row, int col, boolean pinned) {
+        chunk(row, col).pinnedViews += pinned ? 1 : -1;
+    }
+
+    @Override
+    public void clearViews() {
+        for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+            chunk.views = null;
+            chunk.pinnedViews = 0;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Directory of generated maps in {@link MapFile} format, named by a hash of everything
+ * that determines the map: the generator {@link MapGenerator.Params}, the map size, the
+ * remaining generator constants and the noise backend. A hit costs one file read
+ * instead of calibrating the noise and generating every tile.
+ * <p>
+ * Temperature and moisture come back quantized to 16 bits, as with any saved map.
+ * River colors and moisture are part of the tiles, but the {@link Hydrology} itself is
+ * not stored, so loaded maps have none.
+ * Once the files exceed the size budget the least recently used ones are deleted.
+ * Failures are logged as errors and treated as misses; the cache never breaks generation.
+ * <p>
+ * Thread-safe: background generators store maps while the render thread loads them, so
+ * the methods touching the directory are synchronized. Files are written under a
+ * temporary name and moved in place, so other processes never read a partial map.
+ */
+public class GenerationCache {
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+    private static final String EXTENSION = ".hexm";
+    private static final String TAG = "GenerationCache";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public GenerationCache(Path directory) {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    public GenerationCache(Path directory, long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Hash identifying the map generated with {@code params} at the given size. Callers
+     * pass params of the thresholds captured when the generation started, so a map
+     * stored after a slider moved keeps its own key.
+     */
+    public static String key(MapGenerator.Params params, int rows, int cols) {
+        ByteBuffer buffer = ByteBuffer.allocate(MapGenerator.Params.BYTES + 9 * 4
+            + Tile.BiomeType.values().length * 4);
+        buffer.putInt(MapFile.VERSION).putInt(rows).putInt(cols);
+        params.write(buffer);
+        buffer.putInt(MapGenerator.LAKE_MAX_TILES);
+        buffer.putFloat(MapGenerator.RIVER_MIN_DRAINAGE).putFloat(MapGenerator.RIVER_MOISTURE)
+            .putFloat(MapGenerator.RIVER_BANK_MOISTURE).putInt(MapGenerator.riverColorBits());
+        buffer.putInt(Tile.BiomeType.values().length);
+        for (Tile.BiomeType biome : Tile.BiomeType.values()) {
+            Color color = MapGenerator.BIOME_COLORS.get(biome);
+            buffer.putInt(color == null ? 0 : Color.rgba8888(color));
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(buffer.array());
+            digest.update(MapGenerator.getNoiseBackendName().getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest();
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Path fileFor(MapGenerator.Params params, int rows, int cols) {
+        return directory.resolve(key(params, rows, cols) + EXTENSION);
+    }
+
+    /**
+     * Reads the cached map for {@code params} into {@code map}.
+     *
+     * @return Whether the map was cached; on {@code false} the map is left unchanged
+     * unless the file turned out to be corrupt, in which case it is deleted.
+     */
+    public synchronized boolean load(HexMap map, MapGenerator.Params params) {
+        Path file = fileFor(params, map.getRows(), map.getCols());
+        if (!Files.isRegularFile(file)) return false;
+        try (var channel = Files.newByteChannel(file)) {
+            MapFile.Header header = MapFile.readHeader(channel);
+            if (!header.params().equals(params)) return false;
+            MapFile.readTiles(channel, header, map);
+            map.setHydrology(null);
+        } catch (IOException e) {
+            Gdx.app.error(TAG, "Dropping unreadable cached map " + file, e);
+            delete(file);
+            return false;
+        }
+        touch(file);
+        return true;
+    }
+
+    /**
+     * Writes {@code map} under the key of {@code params}, then
+     * evicts old entries.
+     */
+    public synchronized void store(HexMap map, MapGenerator.Params params) {
+        Path file = fileFor(params, map.getRows(), map.getCols());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            MapFile.save(map, params, temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Gdx.app.error(TAG, "Could not cache map " + file, e);
+            delete(temp);
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used maps until the cache fits its budget.
+     */
+    public synchronized void evict() {
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : stream) {
+                files.add(file);
+                total += Files.size(file);
+            }
+            files.sort(Comparator.comparing(GenerationCache::lastUsed));
+        } catch (IOException e) {
+            Gdx.app.error(TAG, "Could not scan map cache " + directory, e);
+            return;
+        }
+        for (int i = 0; i < files.size() && total > maxBytes; i++) {
+            long size = sizeOf(files.get(i));
+            if (delete(files.get(i))) total -= size;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private static FileTime lastUsed(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /** Hits refresh the modification time, which orders eviction. */
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
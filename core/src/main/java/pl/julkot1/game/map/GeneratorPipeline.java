@@ -0,0 +1,716 @@
+package pl.julkot1.game.map;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Map generation as a chain of stages. Each stage declares the named fields it reads
+ * and writes: raw noise and elevation are double fields owned by the pipeline, terrain
+ * and biomes are written into the map's {@link MapLayers}. Stages run one after another,
+ * each over all rows of the region, in parallel bands on large maps.
+ * <p>
+ * A pipeline remembers the fields it produced. When it runs again on a map of the same
+ * size, a stage whose parameters, and whose upstream stages' parameters, are unchanged
+ * keeps its previous fields instead of recomputing them; changing a threshold therefore
+ * only reruns the stages from that threshold on. Stages writing the map always run.
+ * Thresholds that only the terrain and biome stages read can also be applied to the last
+ * generated map without rerunning any stage, see {@link #reclassify(HexMap)}.
+ * <p>
+ * Hydrology needs the whole map, so it is only part of runs over a whole dense map;
+ * blocks filled on their own, e.g. chunks, take moisture straight from the noise.
+ * <p>
+ * Every run records wall time and allocated bytes per stage, see {@link #getLastTimings()}.
+ */
+public class GeneratorPipeline {
+    // Field names
+    public static final String CONTINENT = "continent";
+    public static final String ISLAND = "island";
+    public static final String BASE = "base";
+    public static final String HUMIDITY = "humidity";
+    public static final String TEMPERATURE = "temperature";
+    public static final String ELEVATION = "elevation";
+    public static final String DRAINAGE = "drainage";
+    /** Humidity raised along rivers. */
+    public static final String MOISTURE = "moisture";
+    // Map layers written by the terrain and biome stages
+    public static final String TERRAIN = "terrain";
+    public static final String LEVEL = "level";
+    public static final String CLIMATE = "climate";
+    public static final String BIOME = "biome";
+    public static final String LAKES = "lakes";
+    public static final String PYRAMID = "pyramid";
+
+    /** Maps at least this large run their stages in parallel bands. */
+    static final int PARALLEL_TILES = 1 << 16;
+
+    /**
+     * One step of the pipeline. {@link #run} is called for disjoint row ranges of a
+     * region, possibly concurrently, after one {@link #prepare} call.
+     */
+    public abstract static class Stage {
+        private final String name;
+        private final List<String> inputs;
+        private final List<String> outputs;
+        private final boolean retained;
+
+        /**
+         * @param retained Whether the outputs are pipeline fields that can be reused by a
+         *                 later run, as opposed to map layers that are rewritten every run.
+         */
+        protected Stage(String name, List<String> inputs, List<String> outputs, boolean retained) {
+            this.name = name;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.retained = retained;
+        }
+
+        public String getName() { return name; }
+        public List<String> getInputs() { return inputs; }
+        public List<String> getOutputs() { return outputs; }
+        public boolean isRetained() { return retained; }
+
+        /**
+         * Hash of every parameter the stage reads besides its input fields, e.g. the
+         * region's thresholds.
+         */
+        protected abstract long fingerprint(Region region);
+
+        protected void prepare(Region region) {
+        }
+
+        /**
+         * Called instead of {@link #prepare} and {@link #run} when the fields of a retained
+         * stage are reused, to restore anything else it keeps on the region.
+         */
+        protected void reuse(Region region) {
+        }
+
+        /**
+         * Computes region rows {@code rowStart} to {@code rowEnd} (exclusive, region-local).
+         */
+        protected abstract void run(Region region, int rowStart, int rowEnd);
+
+        /**
+         * Called after every run over a whole map, also when the stage was reused.
+         */
+        protected void apply(HexMap map) {
+        }
+    }
+
+    /**
+     * Tiles a pipeline runs over: a block of the map at an offset, its named fields, the
+     * layers the map stages write to and the thresholds of the run.
+     */
+    public static final class Region {
+        final int rowOffset;
+        final int colOffset;
+        final int rows;
+        final int cols;
+        final MapLayers layers;
+        final MapGenerator.Thresholds thresholds;
+        private final Map<String, double[]> fields;
+        /** River tiles set by the hydrology stage, {@code null} without hydrology. */
+        boolean[] rivers;
+
+        Region(MapLayers layers, int rowOffset, int colOffset, Map<String, double[]> fields,
+               MapGenerator.Thresholds thresholds) {
+            this.layers = layers;
+            this.rowOffset = rowOffset;
+            this.colOffset = colOffset;
+            this.rows = layers.getRows();
+            this.cols = layers.getCols();
+            this.fields = fields;
+            this.thresholds = thresholds;
+        }
+
+        /**
+         * The named field, allocated on first use. Indexed like the layers. Outputs of
+         * retained stages are allocated before their rows run, so concurrent calls only read.
+         */
+        public double[] field(String name) {
+            return fields.computeIfAbsent(name, n -> new double[rows * cols]);
+        }
+    }
+
+    public record StageTiming(String stage, long nanos, long allocatedBytes, boolean reused) {
+        @Override
+        public String toString() {
+            return stage + " " + (reused ? "reused" : nanos / 1_000_000 + " ms"
+                + (allocatedBytes >= 0 ? ", " + allocatedBytes / 1024 + " KiB" : ""));
+        }
+    }
+
+    private final List<Stage> stages;
+    private final Map<String, double[]> fields = new HashMap<>();
+    // Chained fingerprint each retained stage's fields were computed with, by stage
+    private final Map<String, Long> computedWith = new HashMap<>();
+    private int fieldRows = -1;
+    private int fieldCols = -1;
+    private List<StageTiming> lastTimings = List.of();
+
+    public GeneratorPipeline(List<Stage> stages) {
+        this.stages = List.copyOf(stages);
+    }
+
+    /**
+     * The standard stages: noise, elevation, hydrology, terrain and biomes.
+     */
+    public static GeneratorPipeline standard(MapGenerator.BiomeResolver biomeResolver) {
+        return new GeneratorPipeline(List.of(new NoiseStage(null, null), new ElevationStage(), new HydrologyStage(),
+            new TerrainStage(), new BiomeStage(biomeResolver)));
+    }
+
+    /**
+     * The standard stages for a fixed seed instead of {@link MapGenerator#SEED}. Pipelines
+     * share no state, so maps for different seeds can be generated at the same time, one
+     * pipeline per thread.
+     */
+    public static GeneratorPipeline forSeed(int seed, MapGenerator.BiomeResolver biomeResolver) {
+        return new GeneratorPipeline(List.of(new NoiseStage(null, seed), new ElevationStage(), new HydrologyStage(),
+            new TerrainStage(), new BiomeStage(biomeResolver)));
+    }
+
+    /**
+     * The standard stages sampling a backend created beforehand, e.g. to calibrate a seed once.
+     */
+    static GeneratorPipeline forNoise(NoiseBackend noise, MapGenerator.BiomeResolver biomeResolver) {
+        return new GeneratorPipeline(List.of(new NoiseStage(noise, null), new ElevationStage(), new HydrologyStage(),
+            new TerrainStage(), new BiomeStage(biomeResolver)));
+    }
+
+    /**
+     * Stages for a quick low-resolution preview of a map: every {@code step}-th tile in both
+     * directions of the map {@code noise} belongs to, without hydrology, whose drainage
+     * does not scale down.
+     */
+    static GeneratorPipeline sampled(NoiseBackend noise, int step, MapGenerator.BiomeResolver biomeResolver) {
+        NoiseBackend strided = new NoiseBackend() {
+            @Override
+            public void sampleRow(int row, int colStart, int count, NoiseRow out) {
+                noise.local().sampleStrided(row * step, colStart * step, step, count, out);
+            }
+        };
+        return new GeneratorPipeline(List.of(new NoiseStage(strided, null), new ElevationStage(), new MoistureStage(),
+            new TerrainStage(), new BiomeStage(biomeResolver)));
+    }
+
+    /**
+     * Runs the stages over a dense map for the current {@link MapGenerator#getThresholds()},
+     * reusing fields where possible, then marks lakes and builds the map's {@link MapPyramid}.
+     */
+    public void run(HexMap map) {
+        run(map, MapGenerator.getThresholds());
+    }
+
+    /**
+     * Like {@link #run(HexMap)} with the given thresholds, e.g. ones captured when a
+     * background generation was requested.
+     */
+    public void run(HexMap map, MapGenerator.Thresholds thresholds) {
+        MapLayers layers = map.getLayers();
+        if (layers == null) throw new IllegalArgumentException("Pipeline needs a map with flat layers");
+        if (map.getRows() != fieldRows || map.getCols() != fieldCols) {
+            fields.clear();
+            computedWith.clear();
+            fieldRows = map.getRows();
+            fieldCols = map.getCols();
+        }
+        Region region = new Region(layers, 0, 0, fields, thresholds);
+        boolean parallel = map.getRows() * map.getCols() >= PARALLEL_TILES;
+
+        List<StageTiming> timings = new ArrayList<>();
+        long chain = 17;
+        for (Stage stage : stages) {
+            chain = chain * 31 + stage.fingerprint(region);
+            if (stage.isRetained() && Objects.equals(computedWith.get(stage.getName()), chain)) {
+                stage.reuse(region);
+                timings.add(new StageTiming(stage.getName(), 0, 0, true));
+                continue;
+            }
+            computedWith.remove(stage.getName());
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            runStage(stage, region, parallel);
+            long nanos = System.nanoTime() - start;
+            timings.add(new StageTiming(stage.getName(), nanos,
+                allocated < 0 ? -1 : allocatedBytes() - allocated, false));
+            if (stage.isRetained()) computedWith.put(stage.getName(), chain);
+        }
+        for (Stage stage : stages) stage.apply(map);
+        map.getChanges().markAll();
+        finish(map, timings);
+    }
+
+    /**
+     * Applies the current {@link MapGenerator#getThresholds()} to the map this pipeline
+     * generated last, without sampling noise or rerunning any stage: terrain, climate,
+     * biomes and colors are rebuilt from the retained elevation and moisture fields in a
+     * single pass over the tiles, in parallel bands on large maps, then lakes are marked
+     * again. Only thresholds no retained stage depends on can be applied this way, i.e. the
+     * sand level and the climate cutoffs; the water level and the continent and island
+     * thresholds change elevation or rivers, which needs {@link #run(HexMap)}.
+     *
+     * @return Whether the map was reclassified; {@code false} if the pipeline holds no
+     *         fields of a map of this size, e.g. after {@link #clear()}, or if a retained
+     *         field is stale for these thresholds. Running the pipeline then still reuses
+     *         the noise.
+     */
+    public boolean reclassify(HexMap map) {
+        return reclassify(map, MapGenerator.getThresholds());
+    }
+
+    public boolean reclassify(HexMap map, MapGenerator.Thresholds thresholds) {
+        MapLayers layers = map.getLayers();
+        if (layers == null || map.getRows() != fieldRows || map.getCols() != fieldCols) return false;
+        Region region = new Region(layers, 0, 0, fields, thresholds);
+        ReclassifyStage reclassify = null;
+        long chain = 17;
+        for (Stage stage : stages) {
+            chain = chain * 31 + stage.fingerprint(region);
+            if (stage.isRetained() && !Objects.equals(computedWith.get(stage.getName()), chain)) return false;
+            if (stage.isRetained()) stage.reuse(region);
+            if (stage instanceof BiomeStage biomeStage) reclassify = new ReclassifyStage(biomeStage.biomeResolver);
+        }
+        if (reclassify == null || !fields.containsKey(ELEVATION) || !fields.containsKey(MOISTURE)) return false;
+
+        List<StageTiming> timings = new ArrayList<>();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        runStage(reclassify, region, map.getRows() * map.getCols() >= PARALLEL_TILES);
+        timings.add(new StageTiming(reclassify.getName(), System.nanoTime() - start,
+            allocated < 0 ? -1 : allocatedBytes() - allocated, false));
+        map.getChanges().markAll();
+        finish(map, timings);
+        return true;
+    }
+
+    /** Marks lakes and builds the pyramid after the stages wrote the map. */
+    private void finish(HexMap map, List<StageTiming> timings) {
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        map.getComponents().markLakes(map, MapGenerator.LAKE_MAX_TILES);
+        timings.add(new StageTiming(LAKES, System.nanoTime() - start,
+            allocated < 0 ? -1 : allocatedBytes() - allocated, false));
+
+        // Previews read the pyramid, so it is built as part of generation
+        allocated = allocatedBytes();
+        start = System.nanoTime();
+        map.getPyramid();
+        timings.add(new StageTiming(PYRAMID, System.nanoTime() - start,
+            allocated < 0 ? -1 : allocatedBytes() - allocated, false));
+        lastTimings = Collections.unmodifiableList(timings);
+    }
+
+    /**
+     * Runs the standard stages once over a block of layers with no reuse, e.g. a chunk.
+     *
+     * @param noise Backend to sample on the calling thread.
+     */
+    static void fill(NoiseBackend noise, MapGenerator.BiomeResolver biomeResolver, MapLayers layers,
+                     int rowOffset, int colOffset, MapGenerator.Thresholds thresholds) {
+        fill(noise, biomeResolver, layers, rowOffset, colOffset, new HashMap<>(), thresholds);
+    }
+
+    /**
+     * Like {@link #fill(NoiseBackend, MapGenerator.BiomeResolver, MapLayers, int, int, MapGenerator.Thresholds)},
+     * keeping the computed fields in {@code fields}.
+     */
+    static void fill(NoiseBackend noise, MapGenerator.BiomeResolver biomeResolver, MapLayers layers,
+                     int rowOffset, int colOffset, Map<String, double[]> fields, MapGenerator.Thresholds thresholds) {
+        Region region = new Region(layers, rowOffset, colOffset, fields, thresholds);
+        for (Stage stage : List.of(new NoiseStage(noise, null), new ElevationStage(), new MoistureStage(),
+                new TerrainStage(), new BiomeStage(biomeResolver))) {
+            stage.prepare(region);
+            stage.run(region, 0, region.rows);
+        }
+    }
+
+    /**
+     * Reruns hydrology, terrain and biomes over a whole dense map whose noise and
+     * elevation fields were assembled elsewhere, e.g. from chunks generated one by one,
+     * giving the same map as {@link #run(HexMap)}. Lakes are left to the caller.
+     *
+     * @param fields Full-map {@link #ELEVATION}, {@link #HUMIDITY} and {@link #TEMPERATURE} fields.
+     */
+    static void hydrate(HexMap map, MapGenerator.BiomeResolver biomeResolver, Map<String, double[]> fields,
+                        MapGenerator.Thresholds thresholds) {
+        MapLayers layers = map.getLayers();
+        if (layers == null) throw new IllegalArgumentException("Hydrology needs a map with flat layers");
+        Region region = new Region(layers, 0, 0, fields, thresholds);
+        boolean parallel = map.getRows() * map.getCols() >= PARALLEL_TILES;
+        for (Stage stage : List.of(new HydrologyStage(), new TerrainStage(), new BiomeStage(biomeResolver))) {
+            runStage(stage, region, parallel);
+            stage.apply(map);
+        }
+        map.getChanges().markAll();
+    }
+
+    private static void runStage(Stage stage, Region region, boolean parallel) {
+        stage.prepare(region);
+        for (String output : stage.getOutputs()) {
+            if (stage.isRetained()) region.field(output);
+        }
+        if (!parallel) {
+            stage.run(region, 0, region.rows);
+            return;
+        }
+        int bands = Math.min(region.rows, ForkJoinPool.getCommonPoolParallelism() * 4);
+        int bandRows = (region.rows + bands - 1) / bands;
+        IntStream.range(0, (region.rows + bandRows - 1) / bandRows).parallel()
+            .forEach(band -> stage.run(region, band * bandRows, Math.min(region.rows, (band + 1) * bandRows)));
+    }
+
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * The retained field with the given name, or {@code null} if no run produced it.
+     * Indexed like the map's layers. Do not modify.
+     */
+    public double[] getField(String name) {
+        return fields.get(name);
+    }
+
+    public List<StageTiming> getLastTimings() {
+        return lastTimings;
+    }
+
+    /**
+     * Drops all retained fields, e.g. to free memory; the next run recomputes everything.
+     */
+    public void clear() {
+        fields.clear();
+        computedWith.clear();
+        fieldRows = -1;
+        fieldCols = -1;
+    }
+
+    /**
+     * Bytes allocated so far by all live threads, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean threads) || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static long hash(double... values) {
+        long hash = 1;
+        for (double value : values) hash = hash * 31 + Double.doubleToLongBits(value);
+        return hash;
+    }
+
+    /** Samples the five noise fields. */
+    static final class NoiseStage extends Stage {
+        private final NoiseBackend fixedNoise;
+        private final Integer fixedSeed;
+        private NoiseBackend noise;
+        private int noiseSeed;
+        private String noiseBackend;
+
+        /**
+         * @param fixedNoise Backend to use for every run, or {@code null} to create one
+         *                   for the seed when needed.
+         * @param fixedSeed Seed to create the backend for, or {@code null} for
+         *                  {@link MapGenerator#SEED} at the time of the run.
+         */
+        NoiseStage(NoiseBackend fixedNoise, Integer fixedSeed) {
+            super("noise", List.of(), List.of(CONTINENT, ISLAND, BASE, HUMIDITY, TEMPERATURE), true);
+            this.fixedNoise = fixedNoise;
+            this.fixedSeed = fixedSeed;
+        }
+
+        private int seed() {
+            return fixedSeed != null ? fixedSeed : MapGenerator.SEED;
+        }
+
+        @Override
+        protected long fingerprint(Region region) {
+            return hash(seed(), MapGenerator.getNoiseBackendName().hashCode(),
+                MapGenerator.BASE_OCTAVES, MapGenerator.BASE_FREQ,
+                MapGenerator.HUMIDITY_OCTAVES, MapGenerator.HUMIDITY_FREQ,
+                MapGenerator.TEMP_OCTAVES, MapGenerator.TEMP_FREQ,
+                MapGenerator.CONTINENT_OCTAVES, MapGenerator.CONTINENT_FREQ,
+                MapGenerator.ISLAND_OCTAVES, MapGenerator.ISLAND_FREQ);
+        }
+
+        @Override
+        protected void prepare(Region region) {
+            if (fixedNoise != null) {
+                noise = fixedNoise;
+            } else if (noise == null || noiseSeed != seed()
+                || !MapGenerator.getNoiseBackendName().equals(noiseBackend)) {
+                noiseSeed = seed();
+                noise = MapGenerator.createNoise(noiseSeed);
+                noiseBackend = MapGenerator.getNoiseBackendName();
+            }
+        }
+
+        @Override
+        protected void run(Region region, int rowStart, int rowEnd) {
+            NoiseBackend local = noise.local();
+            NoiseRow samples = new NoiseRow(region.cols);
+            double[] continent = region.field(CONTINENT);
+            double[] island = region.field(ISLAND);
+            double[] base = region.field(BASE);
+            double[] humidity = region.field(HUMIDITY);
+            double[] temperature = region.field(TEMPERATURE);
+            for (int row = rowStart; row < rowEnd; row++) {
+                local.sampleRow(region.rowOffset + row, region.colOffset, region.cols, samples);
+                int index = row * region.cols;
+                System.arraycopy(samples.continent, 0, continent, index, region.cols);
+                System.arraycopy(samples.island, 0, island, index, region.cols);
+                System.arraycopy(samples.base, 0, base, index, region.cols);
+                System.arraycopy(samples.humidity, 0, humidity, index, region.cols);
+                System.arraycopy(samples.temperature, 0, temperature, index, region.cols);
+            }
+        }
+    }
+
+    /** Combines the base noise with the continent and island masks. */
+    static final class ElevationStage extends Stage {
+        ElevationStage() {
+            super("elevation", List.of(CONTINENT, ISLAND, BASE), List.of(ELEVATION), true);
+        }
+
+        @Override
+        protected long fingerprint(Region region) {
+            return hash(region.thresholds.continentThreshold(), region.thresholds.islandThreshold());
+        }
+
+        @Override
+        protected void run(Region region, int rowStart, int rowEnd) {
+            compute(region, rowStart * region.cols, rowEnd * region.cols);
+        }
+
+        /** Computes the elevation of tiles {@code from} to {@code to} (exclusive). */
+        static void compute(Region region, int from, int to) {
+            double[] continent = region.field(CONTINENT);
+            double[] island = region.field(ISLAND);
+            double[] base = region.field(BASE);
+            double[] elevation = region.field(ELEVATION);
+            float continentThreshold = region.thresholds.continentThreshold();
+            float islandThreshold = region.thresholds.islandThreshold();
+            for (int i = from; i < to; i++) {
+                double n = base[i];
+                double terrainValue;
+                if (continent[i] > continentThreshold) {
+                    terrainValue = Math.max(n, continent[i] * 0.6);
+                } else if (island[i] > islandThreshold) {
+                    terrainValue = Math.max(n, island[i] * 0.7);
+                } else {
+                    terrainValue = Math.min(n, continent[i] * 0.2);
+                }
+                elevation[i] = terrainValue;
+            }
+        }
+    }
+
+    /**
+     * Flow directions and drainage from a priority-flood over the whole elevation field,
+     * see {@link Hydrology}, and moisture raised on and next to rivers. The flood itself is
+     * sequential; rivers and moisture are computed per row.
+     */
+    static final class HydrologyStage extends Stage {
+        private Hydrology hydrology;
+
+        HydrologyStage() {
+            super("hydrology", List.of(ELEVATION, HUMIDITY), List.of(DRAINAGE, MOISTURE), true);
+        }
+
+        @Override
+        protected long fingerprint(Region region) {
+            return hash(region.thresholds.waterLevel(), MapGenerator.RIVER_MIN_DRAINAGE,
+                MapGenerator.RIVER_MOISTURE, MapGenerator.RIVER_BANK_MOISTURE);
+        }
+
+        @Override
+        protected void prepare(Region region) {
+            if (region.rowOffset != 0 || region.colOffset != 0) {
+                throw new IllegalArgumentException("Hydrology needs the whole map");
+            }
+            hydrology = Hydrology.compute(region.field(ELEVATION), region.rows, region.cols,
+                region.thresholds.waterLevel(), MapGenerator.RIVER_MIN_DRAINAGE);
+            region.fields.put(DRAINAGE, hydrology.getDrainageLayer());
+            region.rivers = hydrology.getRiverLayer();
+        }
+
+        @Override
+        protected void reuse(Region region) {
+            region.rivers = hydrology.getRiverLayer();
+        }
+
+        @Override
+        protected void run(Region region, int rowStart, int rowEnd) {
+            boolean[] rivers = region.rivers;
+            double[] humidity = region.field(HUMIDITY);
+            double[] moisture = region.field(MOISTURE);
+            int rows = region.rows;
+            int cols = region.cols;
+            for (int x = rowStart; x < rowEnd; x++) {
+                for (int y = 0; y < cols; y++) {
+                    int i = x * cols + y;
+                    double bonus = 0;
+                    if (rivers[i]) {
+                        bonus = MapGenerator.RIVER_MOISTURE;
+                    } else {
+                        for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                            int nx = HexLayout.neighborX(x, d);
+                            int ny = HexLayout.neighborY(x, y, d);
+                            if (nx >= 0 && ny >= 0 && nx < rows && ny < cols && rivers[nx * cols + ny]) {
+                                bonus = MapGenerator.RIVER_BANK_MOISTURE;
+                                break;
+                            }
+                        }
+                    }
+                    moisture[i] = Math.min(1, humidity[i] + bonus);
+                }
+            }
+        }
+
+        @Override
+        protected void apply(HexMap map) {
+            map.setHydrology(hydrology);
+        }
+    }
+
+    /** Moisture straight from the humidity noise, for blocks filled without hydrology. */
+    static final class MoistureStage extends Stage {
+        MoistureStage() {
+            super("moisture", List.of(HUMIDITY), List.of(MOISTURE), true);
+        }
+
+        @Override
+        protected long fingerprint(Region region) {
+            return 0;
+        }
+
+        @Override
+        protected void run(Region region, int rowStart, int rowEnd) {
+            double[] humidity = region.field(HUMIDITY);
+            double[] moisture = region.field(MOISTURE);
+            int from = rowStart * region.cols;
+            System.arraycopy(humidity, from, moisture, from, (rowEnd - rowStart) * region.cols);
+        }
+    }
+
+    /** Classifies terrain, level, temperature and moisture into the map layers. */
+    static final class TerrainStage extends Stage {
+        TerrainStage() {
+            super("terrain", List.of(ELEVATION, TEMPERATURE, MOISTURE), List.of(TERRAIN, LEVEL, CLIMATE), false);
+        }
+
+        @Override
+        protected long fingerprint(Region region) {
+            MapGenerator.Thresholds thresholds = region.thresholds;
+            return hash(thresholds.waterLevel(), thresholds.sandLevel(), thresholds.coldBelow(),
+                thresholds.hotAbove(), thresholds.dryBelow(), thresholds.wetAbove());
+        }
+
+        @Override
+        protected void run(Region region, int rowStart, int rowEnd) {
+            classify(region, rowStart * region.cols, rowEnd * region.cols);
+        }
+
+        /** Classifies tiles {@code from} to {@code to} (exclusive). */
+        static void classify(Region region, int from, int to) {
+            double[] elevation = region.field(ELEVATION);
+            double[] temperature = region.field(TEMPERATURE);
+            double[] moisture = region.field(MOISTURE);
+            MapLayers layers = region.layers;
+            MapGenerator.Thresholds thresholds = region.thresholds;
+            for (int i = from; i < to; i++) {
+                Tile.TerrainLevel terrainLevel = MapGenerator.resolveHeight(elevation[i], thresholds);
+                layers.setLevel(i, terrainLevel.ordinal());
+                layers.setHeight(i, Tile.heightOf(terrainLevel));
+                layers.setTerrain(i, MapGenerator.resolveTerrainType(elevation[i], thresholds).ordinal());
+                layers.setTemperatureType(i, MapGenerator.resolveTemperatureType(temperature[i], thresholds).ordinal());
+                layers.setMoistureType(i, MapGenerator.resolveMoistureType(moisture[i], thresholds).ordinal());
+                layers.setTemperature(i, (float) temperature[i]);
+                layers.setMoisture(i, (float) moisture[i]);
+            }
+        }
+    }
+
+    /**
+     * Resolves biomes and colors from the classified terrain and climate. River tiles, if
+     * the region has hydrology, are colored as rivers but keep their biome, unless
+     * they are water.
+     */
+    static final class BiomeStage extends Stage {
+        private final MapGenerator.BiomeResolver biomeResolver;
+
+        BiomeStage(MapGenerator.BiomeResolver biomeResolver) {
+            super("biome", List.of(TERRAIN, CLIMATE, ELEVATION, MOISTURE, TEMPERATURE), List.of(BIOME), false);
+            this.biomeResolver = biomeResolver;
+        }
+
+        @Override
+        protected long fingerprint(Region region) {
+            return biomeResolver.getClass().getName().hashCode();
+        }
+
+        @Override
+        protected void run(Region region, int rowStart, int rowEnd) {
+            resolve(biomeResolver, region, rowStart * region.cols, rowEnd * region.cols);
+        }
+
+        /** Resolves biomes and colors of tiles {@code from} to {@code to} (exclusive). */
+        static void resolve(MapGenerator.BiomeResolver biomeResolver, Region region, int from, int to) {
+            MapLayers layers = region.layers;
+            biomeResolver.resolveAll(layers.terrain, layers.temperatureType, layers.moistureType,
+                region.field(ELEVATION), region.field(MOISTURE), region.field(TEMPERATURE), from, to, layers.biome);
+            boolean[] rivers = region.rivers;
+            int riverColor = MapGenerator.riverColorBits();
+            int water = Tile.TerrainType.WATER.ordinal();
+            for (int i = from; i < to; i++) {
+                layers.color[i] = rivers != null && rivers[i] && layers.terrain[i] != water
+                    ? riverColor : MapGenerator.biomeColorBits(layers.biome[i]);
+            }
+        }
+    }
+
+    /**
+     * Terrain, climate and biomes in one pass, row by row, so each row's fields are still
+     * in cache for the next step. See {@link #reclassify(HexMap)}.
+     */
+    static final class ReclassifyStage extends Stage {
+        private final MapGenerator.BiomeResolver biomeResolver;
+
+        ReclassifyStage(MapGenerator.BiomeResolver biomeResolver) {
+            super("reclassify", List.of(ELEVATION, TEMPERATURE, MOISTURE),
+                List.of(TERRAIN, LEVEL, CLIMATE, BIOME), false);
+            this.biomeResolver = biomeResolver;
+        }
+
+        @Override
+        protected long fingerprint(Region region) {
+            return 0;
+        }
+
+        @Override
+        protected void run(Region region, int rowStart, int rowEnd) {
+            for (int row = rowStart; row < rowEnd; row++) {
+                int from = row * region.cols;
+                int to = from + region.cols;
+                TerrainStage.classify(region, from, to);
+                BiomeStage.resolve(biomeResolver, region, from, to);
+            }
+        }
+    }
+}
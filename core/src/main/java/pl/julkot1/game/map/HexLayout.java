@@ -0,0 +1,165 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.math.GridPoint2;
+
+/**
+ * Geometry of the flat-topped hex grid used by the map.
+ * <p>
+ * Tiles are addressed with offset coordinates {@code (x, y)}, where {@code x} is the
+ * first {@link HexMap} index and runs along world X, and {@code y} runs along world Z.
+ * Odd columns are shifted half a tile towards +Z ("odd-q"). Axial {@code (q, r)} and
+ * cube {@code (q, r, s)} coordinates are provided for distance and range math.
+ * <p>
+ * World positions of the map's columns and rows are precomputed, so converting a tile
+ * to world space is two table lookups.
+ */
+public class HexLayout {
+    public static final int DIRECTIONS = 6;
+
+    // Neighbor offsets for odd-q layout, indexed by direction; only Y depends on column parity
+    private static final int[] NEIGHBOR_DX = {+1, +1, 0, -1, -1, 0};
+    private static final int[] EVEN_DY = {0, -1, -1, -1, 0, +1};
+    private static final int[] ODD_DY = {+1, 0, -1, 0, +1, +1};
+
+    private static final float SQRT3 = (float) Math.sqrt(3);
+
+    public interface NeighborVisitor {
+        void visit(int x, int y, int direction);
+    }
+
+    private final float radius;
+    private final float columnSpacing;
+    private final float rowSpacing;
+    private final int width;
+    private final int height;
+    private final float[] columnX;
+    private final float[] rowZ;
+
+    /**
+     * @param radius Distance from a tile center to its corners.
+     * @param width Number of tiles along X (the first map index).
+     * @param height Number of tiles along Z (the second map index).
+     */
+    public HexLayout(float radius, int width, int height) {
+        this.radius = radius;
+        this.columnSpacing = radius * 1.5f;
+        this.rowSpacing = radius * SQRT3;
+        this.width = width;
+        this.height = height;
+        this.columnX = new float[width];
+        this.rowZ = new float[height];
+        for (int x = 0; x < width; x++) columnX[x] = x * columnSpacing;
+        for (int y = 0; y < height; y++) rowZ[y] = y * rowSpacing;
+    }
+
+    /**
+     * Layout matching the size of a map, with {@code width} = rows and {@code height} = cols.
+     */
+    public static HexLayout forMap(HexMap map, float radius) {
+        return new HexLayout(radius, map.getRows(), map.getCols());
+    }
+
+    public float getRadius() { return radius; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** World X distance between neighbouring columns. */
+    public float getColumnSpacing() { return columnSpacing; }
+
+    /** World Z distance between neighbouring rows of one column. */
+    public float getRowSpacing() { return rowSpacing; }
+
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    // --- Offset <-> world ---
+
+    public float worldX(int x) {
+        return x >= 0 && x < width ? columnX[x] : x * columnSpacing;
+    }
+
+    public float worldZ(int x, int y) {
+        float z = y >= 0 && y < height ? rowZ[y] : y * rowSpacing;
+        return (x & 1) == 0 ? z : z + rowSpacing * 0.5f;
+    }
+
+    /**
+     * Tile containing the world position, written to {@code out}. The result may lie
+     * outside the map; check with {@link #contains}.
+     */
+    public GridPoint2 worldToTile(float worldX, float worldZ, GridPoint2 out) {
+        float q = (2f / 3f * worldX) / radius;
+        float r = (-1f / 3f * worldX + SQRT3 / 3f * worldZ) / radius;
+        float s = -q - r;
+
+        int rq = Math.round(q);
+        int rr = Math.round(r);
+        int rs = Math.round(s);
+        float dq = Math.abs(rq - q);
+        float dr = Math.abs(rr - r);
+        float ds = Math.abs(rs - s);
+        if (dq > dr && dq > ds) {
+            rq = -rr - rs;
+        } else if (dr > ds) {
+            rr = -rq - rs;
+        }
+        return out.set(rq, axialToOffsetY(rq, rr));
+    }
+
+    // --- Offset <-> axial / cube ---
+
+    public static int offsetToAxialQ(int x) {
+        return x;
+    }
+
+    public static int offsetToAxialR(int x, int y) {
+        return y - ((x - (x & 1)) >> 1);
+    }
+
+    public static int axialToOffsetX(int q) {
+        return q;
+    }
+
+    public static int axialToOffsetY(int q, int r) {
+        return r + ((q - (q & 1)) >> 1);
+    }
+
+    /** Third cube coordinate, {@code s = -q - r}. */
+    public static int cubeS(int q, int r) {
+        return -q - r;
+    }
+
+    /**
+     * Number of steps between two tiles.
+     */
+    public static int distance(int x1, int y1, int x2, int y2) {
+        int dq = offsetToAxialQ(x1) - offsetToAxialQ(x2);
+        int dr = offsetToAxialR(x1, y1) - offsetToAxialR(x2, y2);
+        return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
+    }
+
+    // --- Neighbors ---
+
+    public static int neighborX(int x, int direction) {
+        return x + NEIGHBOR_DX[direction];
+    }
+
+    public static int neighborY(int x, int y, int direction) {
+        return y + ((x & 1) == 0 ? EVEN_DY[direction] : ODD_DY[direction]);
+    }
+
+    /**
+     * Visits the in-bounds neighbors of a tile without allocating.
+     */
+    public void forEachNeighbor(int x, int y, NeighborVisitor visitor) {
+        int[] dy = (x & 1) == 0 ? EVEN_DY : ODD_DY;
+        for (int d = 0; d < DIRECTIONS; d++) {
+            int nx = x + NEIGHBOR_DX[d];
+            int ny = y + dy[d];
+            if (nx >= 0 && ny >= 0 && nx < width && ny < height) {
+                visitor.visit(nx, ny, d);
+            }
+        }
+    }
+}
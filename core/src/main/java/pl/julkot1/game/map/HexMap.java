@@ -1,7 +1,12 @@
 package pl.julkot1.game.map;
 
 import com.badlogic.gdx.graphics.Color;
-import java.util.Random;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 public class HexMap {
     /**
@@ -11,99 +16,187 @@ public class HexMap {
         void iterate(int row, int col, Tile tile);
     }
 
+    /**
+     * Visits every tile. Chunked maps are walked chunk by chunk so each chunk is
+     * generated at most once per traversal.
+     */
     public void iterate(HexMapIterator iterator) {
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                Tile tile = tiles[row][col];
-                iterator.iterate(row, col, tile);
+        int chunkSize = store.getChunkSize();
+        for (int rowStart = 0; rowStart < rows; rowStart += chunkSize) {
+            int rowEnd = Math.min(rows, rowStart + chunkSize);
+            for (int colStart = 0; colStart < cols; colStart += chunkSize) {
+                int colEnd = Math.min(cols, colStart + chunkSize);
+                for (int row = rowStart; row < rowEnd; row++) {
+                    for (int col = colStart; col < colEnd; col++) {
+                        iterator.iterate(row, col, getTile(row, col));
+                    }
+                }
             }
         }
     }
 
-
-    public static class Colors {
-        float baseR;
-        float baseG;
-        float BaseB;
-
-        float randomFactorR;
-        float randomFactorG;
-        float randomFactorB;
-        /**
-         * Constructs a Colors object with specified base colors and random factors.
-         *
-         * @param baseR Base red component (0.0 to 1.0).
-         * @param baseG Base green component (0.0 to 1.0).
-         * @param baseB Base blue component (0.0 to 1.0).
-         * @param randomFactorR Random factor for red component (0.0 to 1.0).
-         * @param randomFactorG Random factor for green component (0.0 to 1.0).
-         * @param randomFactorB Random factor for blue component (0.0 to 1.0).
-         */
-        public Colors(float baseR, float baseG, float baseB, float randomFactorR, float randomFactorG, float randomFactorB) {
-            this.baseR = baseR;
-            this.baseG = baseG;
-            this.BaseB = baseB;
-            this.randomFactorR = randomFactorR;
-            this.randomFactorG = randomFactorG;
-            this.randomFactorB = randomFactorB;
+    /**
+     * Visits every tile like {@link #iterate}, on several threads when the map is large
+     * and its store allows concurrent reads; otherwise sequentially. Rows are split into
+     * bands, so each row is visited by exactly one thread and its tile views are created
+     * on that thread.
+     * <p>
+     * The iterator may read any tile and change render state such as light on the tile
+     * it is given, but must not write map layers; use {@link #parallelUpdate} for that.
+     */
+    public void parallelIterate(HexMapIterator iterator) {
+        if (!isParallel()) {
+            iterate(iterator);
+            return;
         }
-        public Color getRandomColor() {
-            Random rand = new Random();
-            float r = (1-randomFactorR)*baseR + randomFactorR * rand.nextFloat();
-            float g = (1-randomFactorG)*baseG + randomFactorG * rand.nextFloat();
-            float b = (1-randomFactorG)*BaseB + randomFactorB * rand.nextFloat();
-            return new Color(r, g, b, 1f);
+        forEachBand((rowStart, rowEnd) -> {
+            for (int row = rowStart; row < rowEnd; row++) {
+                for (int col = 0; col < cols; col++) {
+                    iterator.iterate(row, col, getTile(row, col));
+                }
+            }
+        });
+    }
+
+    /**
+     * Visits every tile without creating tile views, in parallel under the same
+     * conditions as {@link #parallelIterate}. The visitor may only read the map.
+     */
+    public void parallelVisit(HexQueries.TileVisitor visitor) {
+        if (!isParallel()) {
+            visitSequential(visitor);
+            return;
         }
-        public static Colors randomColors() {
-            Random rand = new Random();
-            float baseR = rand.nextFloat();
-            float baseG = rand.nextFloat();
-            float baseB = rand.nextFloat();
-            float randomFactorR = 0;
-            float randomFactorG = 0;
-            float randomFactorB = 0;
-            int randChanel = rand.nextInt(3);
-            switch (randChanel) {
-                case 0:
-                    randomFactorR = 0.6f + rand.nextFloat() * 0.4f;
-                    break;
-                case 1:
-                    randomFactorG = 0.6f + rand.nextFloat() * 0.4f;
-                    break;
-                case 2:
-                    randomFactorB = 0.6f + rand.nextFloat() * 0.4f;
-                    break;
+        forEachBand((rowStart, rowEnd) -> {
+            for (int row = rowStart; row < rowEnd; row++) {
+                for (int col = 0; col < cols; col++) {
+                    visitor.visit(row, col);
+                }
             }
+        });
+    }
 
-            return new Colors(baseR, baseG, baseB, randomFactorR, randomFactorG, randomFactorB);
+    /**
+     * Like {@link #parallelVisit}, but the visitor may write the tile it is given through
+     * the setters of this map. Runs as a bulk update, so the whole map is marked changed.
+     * Reads of other tiles may see either their old or their new values.
+     */
+    public void parallelUpdate(HexQueries.TileVisitor visitor) {
+        changes.beginBulkUpdate();
+        try {
+            parallelVisit(visitor);
+        } finally {
+            changes.endBulkUpdate();
         }
+    }
 
+    /**
+     * Row-major layer indices ({@code row * cols + col}) of every tile. Chunked maps
+     * stream chunk by chunk and cannot be split, so the stream stays sequential even if
+     * made parallel. Like {@link #parallelVisit}, a parallel stream may only read the map.
+     */
+    public IntStream tileIndices() {
+        return StreamSupport.intStream(new TileSpliterator(this, 0, rows), false);
+    }
+
+    private boolean isParallel() {
+        return rows * cols >= PARALLEL_TILES && store.supportsConcurrentReads();
+    }
+
+    private void visitSequential(HexQueries.TileVisitor visitor) {
+        int chunkSize = store.getChunkSize();
+        for (int rowStart = 0; rowStart < rows; rowStart += chunkSize) {
+            int rowEnd = Math.min(rows, rowStart + chunkSize);
+            for (int colStart = 0; colStart < cols; colStart += chunkSize) {
+                int colEnd = Math.min(cols, colStart + chunkSize);
+                for (int row = rowStart; row < rowEnd; row++) {
+                    for (int col = colStart; col < colEnd; col++) {
+                        visitor.visit(row, col);
+                    }
+                }
+            }
+        }
     }
+
+    private interface BandTask {
+        void run(int rowStart, int rowEnd);
+    }
+
+    /** Runs the task on bands of rows in the common fork-join pool. */
+    private void forEachBand(BandTask task) {
+        int bands = Math.min(rows, ForkJoinPool.getCommonPoolParallelism() * 4);
+        int bandRows = (rows + bands - 1) / bands;
+        IntStream.range(0, (rows + bandRows - 1) / bandRows).parallel()
+            .forEach(band -> task.run(band * bandRows, Math.min(rows, (band + 1) * bandRows)));
+    }
+
+    /** Maps at least this large are traversed in parallel by the parallel methods. */
+    static final int PARALLEL_TILES = 1 << 16;
+
+    private static final Tile.BiomeType[] BIOME_TYPES = Tile.BiomeType.values();
+    private static final Tile.TerrainType[] TERRAIN_TYPES = Tile.TerrainType.values();
+    private static final Tile.TerrainLevel[] TERRAIN_LEVELS = Tile.TerrainLevel.values();
+    private static final Tile.TemperatureType[] TEMPERATURE_TYPES = Tile.TemperatureType.values();
+    private static final Tile.MoistureType[] MOISTURE_TYPES = Tile.MoistureType.values();
+
     private final int rows;
     private final int cols;
-    private final Tile[][] tiles;
+    private final TileStore store;
+    private final ChangeTracker changes;
+    private MapComponents components;
+    private Hydrology hydrology;
+    private MapPyramid pyramid;
 
     /**
      * Creates a hexagonal map with the specified number of rows and columns.
-     * Each tile is initialized with a random color based on the provided Colors object.
+     * Tile data lives in primitive {@link MapLayers}; {@link Tile} objects are only
+     * created on demand by {@link #getTile(int, int)}.
      *
      * @param rows Number of rows in the hex map.
      * @param cols Number of columns in the hex map.
-     * @param colors Colors object to generate random colors for tiles.
-     */
-    public HexMap(int rows, int cols, Colors colors) {
-        this.rows = rows;
-        this.cols = cols;
-        this.tiles = new Tile[rows][cols];
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                Tile tile = new Tile(colors.getRandomColor());
-                //tile.setHeight(0.3f + rand.nextFloat() * 2.0f); // Height between 0.3 and 2.3
-                tiles[row][col] = tile;
-            }
+     */
+    public HexMap(int rows, int cols) {
+        this(new ArrayTileStore(rows, cols));
+    }
+
+    /**
+     * Creates a map on top of an existing storage backend.
+     */
+    public HexMap(TileStore store) {
+        this.rows = store.getRows();
+        this.cols = store.getCols();
+        this.store = store;
+        this.changes = new ChangeTracker(rows, cols);
+        if (store instanceof ChunkedTileStore chunked) {
+            // Chunks appearing count as changes, so the minimap and pyramid show them
+            chunked.setChunkListener(changes::markRegion);
         }
     }
 
+    /**
+     * Creates a map whose chunks are generated on first access and evicted once the
+     * resident chunks exceed {@code memoryBudgetBytes}. The map stays empty until a
+     * generator is installed, see {@link MapGenerator#generateNoiseMap(HexMap)}. Each chunk
+     * generated for the first time is marked changed.
+     */
+    public static HexMap chunked(int rows, int cols, int chunkSize, long memoryBudgetBytes) {
+        return new HexMap(new ChunkedTileStore(rows, cols, chunkSize, memoryBudgetBytes));
+    }
+
+    /**
+     * Creates a new map whose layers live in a memory-mapped file.
+     */
+    public static HexMap createMapped(Path file, int rows, int cols) throws IOException {
+        return new HexMap(MappedTileStore.create(file, rows, cols));
+    }
+
+    /**
+     * Maps an existing map file without reading it into the heap.
+     */
+    public static HexMap openMapped(Path file, boolean writable) throws IOException {
+        return new HexMap(MappedTileStore.open(file, writable));
+    }
+
     public int getRows() {
         return rows;
     }
@@ -112,16 +205,168 @@ public class HexMap {
         return cols;
     }
 
-    public Color getColor(int row, int col) {
-        return tiles[row][col].getColor();
+    public TileStore getStore() {
+        return store;
+    }
+
+    /**
+     * Change tracking for this map. Every setter records into it; code that writes the
+     * store or layers directly must mark its changes itself.
+     */
+    public ChangeTracker getChanges() {
+        return changes;
     }
 
+    /**
+     * Connected water bodies and landmasses, relabeled when the map changed since the
+     * last call.
+     */
+    public MapComponents getComponents() {
+        if (components == null || components.getVersion() != changes.getVersion()) {
+            components = MapComponents.label(this);
+        }
+        return components;
+    }
+
+    /**
+     * Downsampled levels of the map, see {@link MapPyramid}. Built on first use and after a
+     * regeneration; after edits only the cells over the changed tiles are rebuilt.
+     */
+    public MapPyramid getPyramid() {
+        if (pyramid == null || !pyramid.refresh(this)) {
+            pyramid = MapPyramid.build(this);
+        }
+        return pyramid;
+    }
+
+    /**
+     * Rivers and drainage of the last generation, or {@code null} if the map was not
+     * generated as a whole, e.g. because it is chunked, lives in a file or was loaded.
+     */
+    public Hydrology getHydrology() {
+        return hydrology;
+    }
+
+    void setHydrology(Hydrology hydrology) {
+        this.hydrology = hydrology;
+    }
+
+    /**
+     * Returns the flat layers of a dense map, or {@code null} if the map uses another storage.
+     */
+    public MapLayers getLayers() {
+        return store instanceof ArrayTileStore arrayStore ? arrayStore.getLayers() : null;
+    }
+
+    /**
+     * Returns the view object for the given tile, creating it on first access.
+     */
     public Tile getTile(int row, int col) {
-        return tiles[row][col];
+        Tile tile = store.getView(row, col);
+        if (tile == null) {
+            tile = new Tile(this, row, col);
+            store.setView(row, col, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Drops all tile views and their render state, e.g. after the map was regenerated.
+     */
+    public void clearTiles() {
+        store.clearViews();
+    }
+
+    /**
+     * Returns a new {@link Color} for the tile. Prefer {@link #getColorBits(int, int)} in loops.
+     */
+    public Color getColor(int row, int col) {
+        return new Color(getColorBits(row, col));
+    }
+
+    public int getColorBits(int row, int col) {
+        return store.getColor(row, col);
+    }
+
+    public void setColor(int row, int col, Color color) {
+        setColorBits(row, col, Color.rgba8888(color));
+    }
+
+    public void setColorBits(int row, int col, int rgba8888) {
+        store.setColor(row, col, rgba8888);
+        changes.record(row, col, ChangeTracker.COLOR);
     }
 
     public float getHeight(int row, int col) {
-        return tiles[row][col].getHeight();
+        return store.getHeight(row, col);
+    }
+
+    public void setHeight(int row, int col, float height) {
+        store.setHeight(row, col, height);
+        changes.record(row, col, ChangeTracker.HEIGHT);
+    }
+
+    public float getTemperature(int row, int col) {
+        return store.getTemperature(row, col);
+    }
+
+    public void setTemperature(int row, int col, float temperature) {
+        store.setTemperature(row, col, temperature);
+        changes.record(row, col, ChangeTracker.TEMPERATURE);
+    }
+
+    public float getMoisture(int row, int col) {
+        return store.getMoisture(row, col);
+    }
+
+    public void setMoisture(int row, int col, float moisture) {
+        store.setMoisture(row, col, moisture);
+        changes.record(row, col, ChangeTracker.MOISTURE);
+    }
+
+    public Tile.BiomeType getBiomeType(int row, int col) {
+        return BIOME_TYPES[store.getBiome(row, col)];
+    }
+
+    public void setBiomeType(int row, int col, Tile.BiomeType biomeType) {
+        store.setBiome(row, col, biomeType.ordinal());
+        changes.record(row, col, ChangeTracker.BIOME);
+    }
+
+    public Tile.TerrainType getTerrainType(int row, int col) {
+        return TERRAIN_TYPES[store.getTerrain(row, col)];
+    }
+
+    public void setTerrainType(int row, int col, Tile.TerrainType terrainType) {
+        store.setTerrain(row, col, terrainType.ordinal());
+        changes.record(row, col, ChangeTracker.TERRAIN);
+    }
+
+    public Tile.TerrainLevel getTerrainLevel(int row, int col) {
+        return TERRAIN_LEVELS[store.getLevel(row, col)];
+    }
+
+    public void setTerrainLevel(int row, int col, Tile.TerrainLevel terrainLevel) {
+        store.setLevel(row, col, terrainLevel.ordinal());
+        changes.record(row, col, ChangeTracker.LEVEL);
+    }
+
+    public Tile.TemperatureType getTemperatureType(int row, int col) {
+        return TEMPERATURE_TYPES[store.getTemperatureType(row, col)];
+    }
+
+    public void setTemperatureType(int row, int col, Tile.TemperatureType temperatureType) {
+        store.setTemperatureType(row, col, temperatureType.ordinal());
+        changes.record(row, col, ChangeTracker.TEMPERATURE_TYPE);
+    }
+
+    public Tile.MoistureType getMoistureType(int row, int col) {
+        return MOISTURE_TYPES[store.getMoistureType(row, col)];
+    }
+
+    public void setMoistureType(int row, int col, Tile.MoistureType moistureType) {
+        store.setMoistureType(row, col, moistureType.ordinal());
+        changes.record(row, col, ChangeTracker.MOISTURE_TYPE);
     }
 
 }
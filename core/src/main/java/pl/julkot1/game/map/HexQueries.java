@@ -0,0 +1,132 @@
+package pl.julkot1.game.map;
+
+/**
+ * Spatial queries over the tiles of a {@link HexLayout}. Every query visits only the
+ * tiles it covers, clipped to the layout bounds, and reports them through a primitive
+ * {@link TileVisitor}, so a query costs O(result) and allocates nothing.
+ * <p>
+ * Visitors that need to accumulate a result (e.g. the nearest match) should keep it in
+ * their own fields and be reused between calls.
+ */
+public final class HexQueries {
+    // Axial direction vectors in ring walking order
+    private static final int[] AXIAL_DQ = {+1, +1, 0, -1, -1, 0};
+    private static final int[] AXIAL_DR = {0, -1, -1, 0, +1, +1};
+
+    public interface TileVisitor {
+        void visit(int x, int y);
+    }
+
+    private HexQueries() {}
+
+    /**
+     * Visits every tile within {@code radius} steps of {@code (x, y)}, including the
+     * center. Returns the number of tiles visited.
+     */
+    public static int range(HexLayout layout, int x, int y, int radius, TileVisitor visitor) {
+        if (radius < 0) return 0;
+        int q0 = HexLayout.offsetToAxialQ(x);
+        int r0 = HexLayout.offsetToAxialR(x, y);
+        int qMin = Math.max(q0 - radius, 0);
+        int qMax = Math.min(q0 + radius, layout.getWidth() - 1);
+        int visited = 0;
+        for (int q = qMin; q <= qMax; q++) {
+            int dq = q - q0;
+            // Clip the axial r span to rows inside the map: y = r + shift
+            int shift = HexLayout.axialToOffsetY(q, 0);
+            int rMin = Math.max(r0 + Math.max(-radius, -dq - radius), -shift);
+            int rMax = Math.min(r0 + Math.min(radius, -dq + radius), layout.getHeight() - 1 - shift);
+            for (int r = rMin; r <= rMax; r++) {
+                visitor.visit(q, r + shift);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the tiles exactly {@code radius} steps from {@code (x, y)}. A radius of 0
+     * visits the center only. Returns the number of tiles visited.
+     */
+    public static int ring(HexLayout layout, int x, int y, int radius, TileVisitor visitor) {
+        if (radius < 0) return 0;
+        int q = HexLayout.offsetToAxialQ(x);
+        int r = HexLayout.offsetToAxialR(x, y);
+        if (radius == 0) {
+            return visitIfInside(layout, q, r, visitor);
+        }
+        q += AXIAL_DQ[4] * radius;
+        r += AXIAL_DR[4] * radius;
+        int visited = 0;
+        for (int side = 0; side < HexLayout.DIRECTIONS; side++) {
+            for (int step = 0; step < radius; step++) {
+                visited += visitIfInside(layout, q, r, visitor);
+                q += AXIAL_DQ[side];
+                r += AXIAL_DR[side];
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the tiles on the straight line from {@code (x0, y0)} to {@code (x1, y1)},
+     * both ends included, in order. Tiles outside the map are skipped. Returns the
+     * number of tiles visited.
+     */
+    public static int line(HexLayout layout, int x0, int y0, int x1, int y1, TileVisitor visitor) {
+        int n = HexLayout.distance(x0, y0, x1, y1);
+        // Nudge the start so samples never land exactly on a tile edge
+        double qa = HexLayout.offsetToAxialQ(x0) + 1e-6;
+        double ra = HexLayout.offsetToAxialR(x0, y0) + 2e-6;
+        double qb = HexLayout.offsetToAxialQ(x1);
+        double rb = HexLayout.offsetToAxialR(x1, y1);
+        if (n == 0) {
+            return visitIfInside(layout, (int) Math.round(qa), (int) Math.round(ra), visitor);
+        }
+        int visited = 0;
+        for (int i = 0; i <= n; i++) {
+            double t = (double) i / n;
+            double q = qa + (qb - qa) * t;
+            double r = ra + (rb - ra) * t;
+            double s = -q - r;
+            long rq = Math.round(q);
+            long rr = Math.round(r);
+            long rs = Math.round(s);
+            double dq = Math.abs(rq - q);
+            double dr = Math.abs(rr - r);
+            double ds = Math.abs(rs - s);
+            if (dq > dr && dq > ds) {
+                rq = -rr - rs;
+            } else if (dr > ds) {
+                rr = -rq - rs;
+            }
+            visited += visitIfInside(layout, (int) rq, (int) rr, visitor);
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the offset-coordinate rectangle {@code [minX, maxX) x [minY, maxY)}, column
+     * by column. Returns the number of tiles visited.
+     */
+    public static int rect(HexLayout layout, int minX, int minY, int maxX, int maxY, TileVisitor visitor) {
+        int x0 = Math.max(minX, 0);
+        int y0 = Math.max(minY, 0);
+        int x1 = Math.min(maxX, layout.getWidth());
+        int y1 = Math.min(maxY, layout.getHeight());
+        for (int x = x0; x < x1; x++) {
+            for (int y = y0; y < y1; y++) {
+                visitor.visit(x, y);
+            }
+        }
+        return Math.max(0, x1 - x0) * Math.max(0, y1 - y0);
+    }
+
+    private static int visitIfInside(HexLayout layout, int q, int r, TileVisitor visitor) {
+        int x = HexLayout.axialToOffsetX(q);
+        int y = HexLayout.axialToOffsetY(q, r);
+        if (!layout.contains(x, y)) return 0;
+        visitor.visit(x, y);
+        return 1;
+    }
+}
@@ -0,0 +1,234 @@
+package pl.julkot1.game.map;
+
+import java.util.Arrays;
+
+/**
+ * Surface water flow over a generated map: where every land tile drains to, how many
+ * tiles drain through it and which tiles carry rivers.
+ * <p>
+ * Computed with a priority-flood from all outlets, i.e. water tiles and the map edge,
+ * over the continuous elevation field. Tiles are claimed lowest first; a tile lower than
+ * the tile that reached it lies in a depression and is raised just above it, so every
+ * land tile gets a downhill path to an outlet. Tiles inside depressions go through a
+ * plain queue instead of the heap, which keeps flat areas cheap. The order in which
+ * tiles are claimed puts every tile after the tile it drains to, so flow accumulation is
+ * a single reverse pass over that order.
+ */
+public final class Hydrology {
+    /** Flow direction of outlets, which drain off the map or into open water. */
+    public static final byte OUTLET = -1;
+
+    private final int rows;
+    private final int cols;
+    private final byte[] flow;
+    private final double[] drainage;
+    private final boolean[] river;
+    private int riverTiles;
+
+    private Hydrology(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        int tiles = rows * cols;
+        this.flow = new byte[tiles];
+        this.drainage = new double[tiles];
+        this.river = new boolean[tiles];
+    }
+
+    /**
+     * @param elevation Continuous elevation, row-major like the map's layers.
+     * @param waterLevel Tiles below this elevation are water and act as outlets.
+     * @param riverDrainage Land tiles with at least this many tiles draining through
+     *                      them, themselves included, carry a river.
+     */
+    public static Hydrology compute(double[] elevation, int rows, int cols, float waterLevel, float riverDrainage) {
+        Hydrology hydrology = new Hydrology(rows, cols);
+        hydrology.flood(elevation, waterLevel);
+        for (int i = 0; i < elevation.length; i++) {
+            if (elevation[i] >= waterLevel && hydrology.drainage[i] >= riverDrainage) {
+                hydrology.river[i] = true;
+                hydrology.riverTiles++;
+            }
+        }
+        return hydrology;
+    }
+
+    private void flood(double[] elevation, float waterLevel) {
+        int tiles = rows * cols;
+        double[] filled = new double[tiles];
+        boolean[] claimed = new boolean[tiles];
+        // Claimed tiles in claiming order, which puts every tile after its downstream tile
+        int[] order = new int[tiles];
+        int ordered = 0;
+        Heap open = new Heap(tiles);
+        // Ring buffer of tiles inside depressions; every tile enters it at most once
+        int[] pit = new int[tiles];
+        int pitHead = 0;
+        int pitSize = 0;
+
+        Arrays.fill(flow, OUTLET);
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < cols; y++) {
+                int i = x * cols + y;
+                claimed[i] = x == 0 || y == 0 || x == rows - 1 || y == cols - 1 || elevation[i] < waterLevel;
+            }
+        }
+        // Only outlets with land around them can be reached from; open water stays out of the heap
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < cols; y++) {
+                int i = x * cols + y;
+                if (!claimed[i]) continue;
+                for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                    int nx = HexLayout.neighborX(x, d);
+                    int ny = HexLayout.neighborY(x, y, d);
+                    if (nx >= 0 && ny >= 0 && nx < rows && ny < cols && !claimed[nx * cols + ny]) {
+                        filled[i] = elevation[i];
+                        open.push(i, filled[i]);
+                        break;
+                    }
+                }
+            }
+        }
+
+        while (pitSize > 0 || !open.isEmpty()) {
+            int node;
+            if (pitSize > 0) {
+                node = pit[pitHead];
+                pitHead = pitHead + 1 == tiles ? 0 : pitHead + 1;
+                pitSize--;
+            } else {
+                node = open.pop();
+            }
+            order[ordered++] = node;
+            int x = node / cols;
+            int y = node - x * cols;
+            for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                int nx = HexLayout.neighborX(x, d);
+                int ny = HexLayout.neighborY(x, y, d);
+                if (nx < 0 || ny < 0 || nx >= rows || ny >= cols) continue;
+                int next = nx * cols + ny;
+                if (claimed[next]) continue;
+                claimed[next] = true;
+                // The opposite direction leads back from the neighbour to this tile
+                flow[next] = (byte) ((d + HexLayout.DIRECTIONS / 2) % HexLayout.DIRECTIONS);
+                if (elevation[next] <= filled[node]) {
+                    filled[next] = Math.nextUp(filled[node]);
+                    int tail = pitHead + pitSize;
+                    pit[tail >= tiles ? tail - tiles : tail] = next;
+                    pitSize++;
+                } else {
+                    filled[next] = elevation[next];
+                    open.push(next, filled[next]);
+                }
+            }
+        }
+
+        // Walking the claiming order back accumulates every tile before its downstream tile
+        Arrays.fill(drainage, 1);
+        for (int k = ordered - 1; k >= 0; k--) {
+            int node = order[k];
+            int direction = flow[node];
+            if (direction == OUTLET) continue;
+            int x = node / cols;
+            int y = node - x * cols;
+            drainage[HexLayout.neighborX(x, direction) * cols + HexLayout.neighborY(x, y, direction)] += drainage[node];
+        }
+    }
+
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+
+    /**
+     * Direction index (see {@link HexLayout#neighborX}) the tile drains towards, or
+     * {@link #OUTLET}.
+     */
+    public byte getFlowDirection(int x, int y) {
+        return flow[x * cols + y];
+    }
+
+    /**
+     * Number of tiles, the tile itself included, whose water flows through the tile.
+     */
+    public double getDrainage(int x, int y) {
+        return drainage[x * cols + y];
+    }
+
+    public boolean isRiver(int x, int y) {
+        return river[x * cols + y];
+    }
+
+    public int getRiverTiles() {
+        return riverTiles;
+    }
+
+    /**
+     * The raw drainage layer, row-major like the map's layers. Do not modify.
+     */
+    public double[] getDrainageLayer() {
+        return drainage;
+    }
+
+    /**
+     * The raw river layer, row-major like the map's layers. Do not modify.
+     */
+    public boolean[] getRiverLayer() {
+        return river;
+    }
+
+    /**
+     * Binary min-heap of tiles by filled elevation, ties broken by tile index. Keys are
+     * stored as bits that sort like the double, so entries compare as plain longs. Each
+     * tile is pushed at most once.
+     */
+    private static final class Heap {
+        private final long[] keys;
+        private final int[] nodes;
+        private int size;
+
+        Heap(int capacity) {
+            keys = new long[capacity];
+            nodes = new int[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int node, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            long key = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(key, node, keys[parent], nodes[parent])) break;
+                keys[i] = keys[parent];
+                nodes[i] = nodes[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            long key = keys[--size];
+            int node = nodes[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && less(keys[child + 1], nodes[child + 1], keys[child], nodes[child])) child++;
+                if (!less(keys[child], nodes[child], key, node)) break;
+                keys[i] = keys[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+            return top;
+        }
+
+        private static boolean less(long key, int node, long otherKey, int otherNode) {
+            return key < otherKey || key == otherKey && node < otherNode;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Draws all tile columns in one instanced draw call: a copy of the tile model's mesh,
+ * with one instance per {@link TileInstanceBuffer} entry positioning, stretching and
+ * coloring it, lit like the model batch lights tile instances. Needs GL30, see
+ * {@link #isSupported()}.
+ */
+public class InstancedTileRenderer implements Disposable {
+    private static final String VERTEX_SHADER = """
+        in vec3 a_position;
+        in vec3 a_normal;
+        in vec3 a_instance;
+        in vec4 a_color;
+        uniform mat4 u_projViewTrans;
+        uniform float u_hexHeight;
+        uniform vec3 u_ambient;
+        uniform vec3 u_lightColor;
+        uniform vec3 u_lightDirection;
+        out vec4 v_color;
+
+        void main() {
+            // a_instance is the column's x, z and height; the mesh is centered on the origin
+            vec3 world = vec3(a_position.x + a_instance.x,
+                a_position.y * a_instance.z / u_hexHeight + a_instance.z * 0.5,
+                a_position.z + a_instance.y);
+            float lambert = max(0.0, dot(a_normal, -u_lightDirection));
+            v_color = vec4(a_color.rgb * (u_ambient + u_lightColor * lambert), a_color.a);
+            gl_Position = u_projViewTrans * vec4(world, 1.0);
+        }
+        """;
+
+    private static final String FRAGMENT_SHADER = """
+        in vec4 v_color;
+        out vec4 fragColor;
+
+        void main() {
+            fragColor = v_color;
+        }
+        """;
+
+    private final Mesh mesh;
+    private final ShaderProgram shader;
+    private final float hexHeight;
+    private int capacity;
+
+    /**
+     * Whether the current context can draw instanced meshes.
+     */
+    public static boolean isSupported() {
+        return Gdx.gl30 != null;
+    }
+
+    /**
+     * @param tileModel Model whose first mesh is a tile column of height {@code hexHeight}
+     *                  centered on the origin, with positions and normals.
+     * @throws IllegalStateException If instancing is unsupported or the shader does not compile.
+     */
+    public InstancedTileRenderer(Model tileModel, float hexHeight) {
+        if (!isSupported()) throw new IllegalStateException("Instanced rendering needs GL30");
+        String version = Gdx.app.getType() == Application.ApplicationType.Desktop
+            ? "#version 150\n" : "#version 300 es\nprecision mediump float;\n";
+        shader = new ShaderProgram(version + VERTEX_SHADER, version + FRAGMENT_SHADER);
+        if (!shader.isCompiled()) {
+            String log = shader.getLog();
+            shader.dispose();
+            throw new IllegalStateException("Tile instancing shader failed to compile: " + log);
+        }
+        this.mesh = tileModel.meshes.first().copy(true);
+        this.hexHeight = hexHeight;
+    }
+
+    /**
+     * Draws the instances with depth testing and back-face culling. Call outside of a
+     * model batch.
+     */
+    public void render(Camera camera, TileInstanceBuffer instances, Color ambient, Color lightColor,
+                       Vector3 lightDirection) {
+        int count = instances.size();
+        if (count == 0) return;
+        if (count > capacity) {
+            if (capacity > 0) mesh.disableInstancedRendering();
+            capacity = Math.max(count, capacity * 2);
+            mesh.enableInstancedRendering(false, capacity,
+                new VertexAttribute(VertexAttributes.Usage.Generic, 3, "a_instance"),
+                VertexAttribute.ColorPacked());
+        }
+        mesh.setInstanceData(instances.getData(), 0, count * TileInstanceBuffer.FLOATS_PER_INSTANCE);
+
+        Gdx.gl.glEnable(GL20.GL_DEPTH_TEST);
+        Gdx.gl.glDepthFunc(GL20.GL_LEQUAL);
+        Gdx.gl.glEnable(GL20.GL_CULL_FACE);
+        Gdx.gl.glCullFace(GL20.GL_BACK);
+        shader.bind();
+        shader.setUniformMatrix("u_projViewTrans", camera.combined);
+        shader.setUniformf("u_hexHeight", hexHeight);
+        shader.setUniformf("u_ambient", ambient.r, ambient.g, ambient.b);
+        shader.setUniformf("u_lightColor", lightColor.r, lightColor.g, lightColor.b);
+        shader.setUniformf("u_lightDirection", lightDirection.x, lightDirection.y, lightDirection.z);
+        mesh.render(shader, GL20.GL_TRIANGLES);
+        Gdx.gl.glDisable(GL20.GL_CULL_FACE);
+        Gdx.gl.glDisable(GL20.GL_DEPTH_TEST);
+    }
+
+    @Override
+    public void dispose() {
+        mesh.dispose();
+        shader.dispose();
+    }
+}
@@ -0,0 +1,238 @@
+package pl.julkot1.game.map;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Connected water bodies and landmasses of a map. Two neighbouring tiles belong to the
+ * same component when both are water or both are not. Every tile gets a component id,
+ * and per component the size, whether it is water and whether it touches the map edge
+ * are recorded.
+ * <p>
+ * Labeling is a union-find over the tiles. On large maps the map is cut into bands of
+ * rows that are unioned in parallel, then the band seams are merged and the final ids
+ * are resolved per band, again in parallel. Each tile's root is the lowest index of its
+ * component, so ids come out in scan order regardless of thread scheduling.
+ */
+public class MapComponents {
+    /** Maps at least this large are labeled in parallel. */
+    static final int PARALLEL_TILES = 1 << 16;
+
+    private static final int WATER = Tile.TerrainType.WATER.ordinal();
+
+    private final int rows;
+    private final int cols;
+    private final int[] ids;
+    private final int count;
+    private final int[] sizes;
+    private final boolean[] water;
+    private final boolean[] touchesEdge;
+    private long version;
+
+    private MapComponents(int rows, int cols, int[] ids, int count, int[] sizes, boolean[] water,
+                          boolean[] touchesEdge, long version) {
+        this.rows = rows;
+        this.cols = cols;
+        this.ids = ids;
+        this.count = count;
+        this.sizes = sizes;
+        this.water = water;
+        this.touchesEdge = touchesEdge;
+        this.version = version;
+    }
+
+    /**
+     * Labels the current state of the map. Reads every tile, so on a chunked map this
+     * generates all chunks.
+     */
+    public static MapComponents label(HexMap map) {
+        int rows = map.getRows();
+        int cols = map.getCols();
+        int tiles = rows * cols;
+        TileStore store = map.getStore();
+        boolean parallel = tiles >= PARALLEL_TILES && store.supportsConcurrentReads();
+        int bands = parallel ? Math.min(rows, ForkJoinPool.getCommonPoolParallelism() * 4) : 1;
+        int bandRows = (rows + bands - 1) / bands;
+
+        boolean[] isWater = new boolean[tiles];
+        int[] parent = new int[tiles];
+        run(parallel, bands, band -> {
+            int x0 = band * bandRows;
+            int x1 = Math.min(rows, x0 + bandRows);
+            for (int x = x0; x < x1; x++) {
+                for (int y = 0; y < cols; y++) {
+                    int i = x * cols + y;
+                    isWater[i] = store.getTerrain(x, y) == WATER;
+                    parent[i] = i;
+                }
+            }
+            for (int x = x0; x < x1; x++) {
+                unionForward(isWater, parent, cols, x, x + 1 < x1);
+            }
+        });
+        // Seams between bands; each touches two rows only
+        for (int x = bandRows - 1; x + 1 < rows; x += bandRows) {
+            unionAcross(isWater, parent, cols, x);
+        }
+
+        // Resolve roots per band; parent is only read from here on
+        int[] ids = new int[tiles];
+        run(parallel, bands, band -> {
+            int end = Math.min(rows, (band + 1) * bandRows) * cols;
+            for (int i = band * bandRows * cols; i < end; i++) {
+                int root = i;
+                while (parent[root] != root) root = parent[root];
+                ids[i] = root;
+            }
+        });
+
+        // A root is the lowest index of its component, so it is numbered before its members
+        int count = 0;
+        int[] sizes = new int[64];
+        boolean[] water = new boolean[64];
+        boolean[] edge = new boolean[64];
+        for (int i = 0; i < tiles; i++) {
+            int root = ids[i];
+            int id;
+            if (root == i) {
+                id = count++;
+                if (id == sizes.length) {
+                    sizes = Arrays.copyOf(sizes, id * 2);
+                    water = Arrays.copyOf(water, id * 2);
+                    edge = Arrays.copyOf(edge, id * 2);
+                }
+                water[id] = isWater[i];
+            } else {
+                id = ids[root];
+            }
+            ids[i] = id;
+            sizes[id]++;
+            int x = i / cols;
+            int y = i - x * cols;
+            if (x == 0 || y == 0 || x == rows - 1 || y == cols - 1) edge[id] = true;
+        }
+        return new MapComponents(rows, cols, ids, count, Arrays.copyOf(sizes, count),
+            Arrays.copyOf(water, count), Arrays.copyOf(edge, count), map.getChanges().getVersion());
+    }
+
+    private static void run(boolean parallel, int bands, IntConsumer task) {
+        IntStream range = IntStream.range(0, bands);
+        (parallel ? range.parallel() : range).forEach(task);
+    }
+
+    /**
+     * Unions the tile row {@code x} with its next neighbour along the row and, if
+     * {@code withNextRow}, with its neighbours in row {@code x + 1}.
+     */
+    private static void unionForward(boolean[] isWater, int[] parent, int cols, int x, boolean withNextRow) {
+        for (int y = 0; y < cols; y++) {
+            int i = x * cols + y;
+            if (y + 1 < cols && isWater[i] == isWater[i + 1]) union(parent, i, i + 1);
+        }
+        if (withNextRow) unionAcross(isWater, parent, cols, x);
+    }
+
+    /**
+     * Unions row {@code x} with its neighbours in row {@code x + 1}: odd-q rows reach
+     * {@code y - 1, y} from even rows and {@code y, y + 1} from odd rows.
+     */
+    private static void unionAcross(boolean[] isWater, int[] parent, int cols, int x) {
+        int shift = (x & 1) == 0 ? -1 : 1;
+        for (int y = 0; y < cols; y++) {
+            int i = x * cols + y;
+            int below = i + cols;
+            if (isWater[i] == isWater[below]) union(parent, i, below);
+            int ny = y + shift;
+            if (ny >= 0 && ny < cols && isWater[i] == isWater[below + shift]) union(parent, i, below + shift);
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /** Links the higher root under the lower one, keeping the lowest index as root. */
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra < rb) parent[rb] = ra;
+        else if (rb < ra) parent[ra] = rb;
+    }
+
+    /**
+     * Marks water components that do not touch the map edge and have at most
+     * {@code maxLakeTiles} tiles as {@link Tile.BiomeType#LAKE}.
+     *
+     * @return Number of lakes marked.
+     */
+    public int markLakes(HexMap map, int maxLakeTiles) {
+        boolean[] lake = new boolean[count];
+        int lakes = 0;
+        for (int id = 0; id < count; id++) {
+            lake[id] = water[id] && !touchesEdge[id] && sizes[id] <= maxLakeTiles;
+            if (lake[id]) lakes++;
+        }
+        if (lakes == 0) return 0;
+
+        int lakeColor = MapGenerator.biomeColorBits(Tile.BiomeType.LAKE.ordinal());
+        ChangeTracker changes = map.getChanges();
+        changes.beginBulkUpdate();
+        for (int i = 0; i < ids.length; i++) {
+            if (!lake[ids[i]]) continue;
+            int x = i / cols;
+            int y = i - x * cols;
+            map.setBiomeType(x, y, Tile.BiomeType.LAKE);
+            map.setColorBits(x, y, lakeColor);
+        }
+        changes.endBulkUpdate();
+        // Biomes changed, water and land did not
+        version = changes.getVersion();
+        return lakes;
+    }
+
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+
+    /**
+     * Number of components.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getComponentId(int x, int y) {
+        return ids[x * cols + y];
+    }
+
+    /**
+     * The raw component id layer, row-major like the map's layers. Do not modify.
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    public int getSize(int id) {
+        return sizes[id];
+    }
+
+    public boolean isWater(int id) {
+        return water[id];
+    }
+
+    public boolean touchesEdge(int id) {
+        return touchesEdge[id];
+    }
+
+    /**
+     * Map change version the labeling reflects.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
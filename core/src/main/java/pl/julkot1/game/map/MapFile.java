@@ -0,0 +1,314 @@
+package pl.julkot1.game.map;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary save format for generated maps.
+ * <p>
+ * The file starts with a fixed {@value #HEADER_SIZE} byte header: magic, version, rows,
+ * cols and the {@link MapGenerator.Params} the map was generated with, including the
+ * generator revision and the climate cutoffs. Tiles follow
+ * column by column. Per column every ordinal layer (biome, terrain, level, temperature
+ * type, moisture type) is stored as runs of {@code varint length, byte value}, colors as
+ * runs of {@code varint length, int value}, and temperature and moisture are quantized
+ * to 16 bits and stored as zigzag varint deltas between neighbouring rows. Heights are
+ * derived from the terrain level on load.
+ * <p>
+ * Both directions stream through a small fixed buffer, no copy of the map is built.
+ */
+public final class MapFile {
+    public static final int MAGIC = 0x4845584D; // "HEXM"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 4 * 4 + MapGenerator.Params.BYTES;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int QUANT_MAX = 0xFFFF;
+
+    private static final int LAYER_BIOME = 0;
+    private static final int LAYER_TERRAIN = 1;
+    private static final int LAYER_LEVEL = 2;
+    private static final int LAYER_TEMPERATURE_TYPE = 3;
+    private static final int LAYER_MOISTURE_TYPE = 4;
+    private static final int ORDINAL_LAYERS = 5;
+
+    private static final Tile.TerrainLevel[] TERRAIN_LEVELS = Tile.TerrainLevel.values();
+
+    public record Header(int version, int rows, int cols, MapGenerator.Params params) {
+    }
+
+    public record LoadedMap(Header header, HexMap map) {
+    }
+
+    private MapFile() {}
+
+    public static void save(HexMap map, MapGenerator.Params params, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(map, params, channel);
+        }
+    }
+
+    public static LoadedMap load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    public static void write(HexMap map, MapGenerator.Params params, WritableByteChannel channel) throws IOException {
+        Output out = new Output(channel);
+        out.ensure(HEADER_SIZE);
+        out.buffer.putInt(MAGIC).putInt(VERSION).putInt(map.getRows()).putInt(map.getCols());
+        params.write(out.buffer);
+
+        TileStore store = map.getStore();
+        int rows = map.getRows();
+        for (int col = 0; col < map.getCols(); col++) {
+            for (int layer = 0; layer < ORDINAL_LAYERS; layer++) {
+                int run = 0;
+                int value = ordinal(store, layer, 0, col);
+                for (int row = 0; row < rows; row++) {
+                    int next = ordinal(store, layer, row, col);
+                    if (next != value) {
+                        out.varint(run);
+                        out.put((byte) value);
+                        value = next;
+                        run = 0;
+                    }
+                    run++;
+                }
+                out.varint(run);
+                out.put((byte) value);
+            }
+
+            int run = 0;
+            int color = store.getColor(0, col);
+            for (int row = 0; row < rows; row++) {
+                int next = store.getColor(row, col);
+                if (next != color) {
+                    out.varint(run);
+                    out.putInt(color);
+                    color = next;
+                    run = 0;
+                }
+                run++;
+            }
+            out.varint(run);
+            out.putInt(color);
+
+            int previous = 0;
+            for (int row = 0; row < rows; row++) {
+                int q = quantize(store.getTemperature(row, col));
+                out.varint(zigzag(q - previous));
+                previous = q;
+            }
+            previous = 0;
+            for (int row = 0; row < rows; row++) {
+                int q = quantize(store.getMoisture(row, col));
+                out.varint(zigzag(q - previous));
+                previous = q;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the header only, e.g. to decide which storage to load a map into.
+     */
+    public static Header readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Truncated map header");
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) throw new IOException("Not a hex map file");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported map file version " + version);
+        int rows = buffer.getInt();
+        int cols = buffer.getInt();
+        if (rows <= 0 || cols <= 0) throw new IOException("Invalid map size " + rows + "x" + cols);
+        return new Header(version, rows, cols, MapGenerator.Params.read(buffer));
+    }
+
+    /**
+     * Reads a map into a new dense {@link HexMap}. Fails if the file was written by a
+     * generator with a different revision, constants or thresholds than the current one.
+     */
+    public static LoadedMap read(ReadableByteChannel channel) throws IOException {
+        Header header = readHeader(channel);
+        if (!header.params().sameGenerator(MapGenerator.Params.current())) {
+            throw new IOException("Map was generated with different generator constants: " + header.params());
+        }
+        HexMap map = new HexMap(header.rows(), header.cols());
+        readTiles(channel, header, map);
+        return new LoadedMap(header, map);
+    }
+
+    /**
+     * Reads the tile section following {@link #readHeader} into {@code map}, which must
+     * have the size stored in the header.
+     */
+    public static void readTiles(ReadableByteChannel channel, Header header, HexMap map) throws IOException {
+        if (map.getRows() != header.rows() || map.getCols() != header.cols()) {
+            throw new IOException("Map size " + map.getRows() + "x" + map.getCols()
+                + " does not match file size " + header.rows() + "x" + header.cols());
+        }
+        Input in = new Input(channel);
+        TileStore store = map.getStore();
+        int rows = header.rows();
+        for (int col = 0; col < header.cols(); col++) {
+            for (int layer = 0; layer < ORDINAL_LAYERS; layer++) {
+                int row = 0;
+                while (row < rows) {
+                    int run = in.varint();
+                    int value = in.get();
+                    if (run <= 0 || row + run > rows) throw new IOException("Corrupt run in column " + col);
+                    for (int end = row + run; row < end; row++) {
+                        setOrdinal(store, layer, row, col, value);
+                    }
+                }
+            }
+
+            int row = 0;
+            while (row < rows) {
+                int run = in.varint();
+                int color = in.getInt();
+                if (run <= 0 || row + run > rows) throw new IOException("Corrupt run in column " + col);
+                for (int end = row + run; row < end; row++) {
+                    store.setColor(row, col, color);
+                }
+            }
+
+            int previous = 0;
+            for (row = 0; row < rows; row++) {
+                previous += unzigzag(in.varint());
+                store.setTemperature(row, col, previous / (float) QUANT_MAX);
+            }
+            previous = 0;
+            for (row = 0; row < rows; row++) {
+                previous += unzigzag(in.varint());
+                store.setMoisture(row, col, previous / (float) QUANT_MAX);
+            }
+            for (row = 0; row < rows; row++) {
+                store.setHeight(row, col, Tile.heightOf(TERRAIN_LEVELS[store.getLevel(row, col)]));
+            }
+        }
+        map.getChanges().markAll();
+    }
+
+    private static int ordinal(TileStore store, int layer, int row, int col) {
+        return switch (layer) {
+            case LAYER_BIOME -> store.getBiome(row, col);
+            case LAYER_TERRAIN -> store.getTerrain(row, col);
+            case LAYER_LEVEL -> store.getLevel(row, col);
+            case LAYER_TEMPERATURE_TYPE -> store.getTemperatureType(row, col);
+            default -> store.getMoistureType(row, col);
+        };
+    }
+
+    private static void setOrdinal(TileStore store, int layer, int row, int col, int value) {
+        switch (layer) {
+            case LAYER_BIOME -> store.setBiome(row, col, value);
+            case LAYER_TERRAIN -> store.setTerrain(row, col, value);
+            case LAYER_LEVEL -> store.setLevel(row, col, value);
+            case LAYER_TEMPERATURE_TYPE -> store.setTemperatureType(row, col, value);
+            default -> store.setMoistureType(row, col, value);
+        }
+    }
+
+    private static int quantize(float value) {
+        return Math.round(Math.max(0f, Math.min(1f, value)) * QUANT_MAX);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output {
+        final WritableByteChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        void put(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void varint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+    private static final class Input {
+        final ReadableByteChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Input(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return;
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) throw new EOFException("Truncated map file");
+            }
+            buffer.flip();
+        }
+
+        int get() throws IOException {
+            require(1);
+            return buffer.get();
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = get();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package pl.julkot1.game.map;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 // Joise imports
 import com.sudoplay.joise.module.ModuleFractal;
@@ -14,28 +19,58 @@ public class MapGenerator {
     public static int SEED = 1332232137;
 
     // --- Constants for thresholds ---
+    // Defaults of the thresholds in use, which can be changed at runtime, see setThresholds
     public static final float WATER_LEVEL = 0.45f;
     public static final float SAND_LEVEL = 0.5f;
+    public static final double COLD_BELOW = 0.28;
+    public static final double HOT_ABOVE = 0.72;
+    public static final double DRY_BELOW = 0.28;
+    public static final double WET_ABOVE = 0.72;
 
     // --- Color constants ---
-    public static final Map<Tile.BiomeType, Color> BIOME_COLORS = new HashMap<>();
+    public static final Map<Tile.BiomeType, Color> BIOME_COLORS;
+    /** Packed RGBA8888 color per biome ordinal; gray for biomes without a color. */
+    private static final int[] BIOME_PALETTE = new int[Tile.BiomeType.values().length];
     static {
-        BIOME_COLORS.put(Tile.BiomeType.OCEAN, new Color(0.18f, 0.45f, 0.7f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.BEACH, new Color(0.85f, 0.8f, 0.5f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.DESERT, new Color(0.93f, 0.85f, 0.45f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.SAVANNA, new Color(0.7f, 0.7f, 0.2f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.STEPPE, new Color(0.6f, 0.8f, 0.4f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.GRASSLAND, new Color(0.2f, 0.7f, 0.2f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.TUNDRA, new Color(0.8f, 0.85f, 0.7f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.TAIGA, new Color(0.2f, 0.5f, 0.3f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.JUNGLE, new Color(0.0f, 0.45f, 0.13f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.FOREST, new Color(0.1f, 0.5f, 0.1f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.FLOWER_FIELD, new Color(0.7f, 0.9f, 0.5f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.SHRUBLAND, new Color(0.5f, 0.7f, 0.3f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.FERN_FOREST, new Color(0.1f, 0.7f, 0.3f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.PINE_FOREST, new Color(0.15f, 0.35f, 0.18f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.RAINFOREST, new Color(0.0f, 0.35f, 0.18f, 1f));
-        BIOME_COLORS.put(Tile.BiomeType.DENSE_FOREST, new Color(0.05f, 0.35f, 0.12f, 1f));
+        Map<Tile.BiomeType, Color> colors = new EnumMap<>(Tile.BiomeType.class);
+        colors.put(Tile.BiomeType.OCEAN, new Color(0.18f, 0.45f, 0.7f, 1f));
+        colors.put(Tile.BiomeType.LAKE, new Color(0.3f, 0.6f, 0.8f, 1f));
+        colors.put(Tile.BiomeType.BEACH, new Color(0.85f, 0.8f, 0.5f, 1f));
+        colors.put(Tile.BiomeType.DESERT, new Color(0.93f, 0.85f, 0.45f, 1f));
+        colors.put(Tile.BiomeType.SAVANNA, new Color(0.7f, 0.7f, 0.2f, 1f));
+        colors.put(Tile.BiomeType.STEPPE, new Color(0.6f, 0.8f, 0.4f, 1f));
+        colors.put(Tile.BiomeType.GRASSLAND, new Color(0.2f, 0.7f, 0.2f, 1f));
+        colors.put(Tile.BiomeType.TUNDRA, new Color(0.8f, 0.85f, 0.7f, 1f));
+        colors.put(Tile.BiomeType.TAIGA, new Color(0.2f, 0.5f, 0.3f, 1f));
+        colors.put(Tile.BiomeType.JUNGLE, new Color(0.0f, 0.45f, 0.13f, 1f));
+        colors.put(Tile.BiomeType.FOREST, new Color(0.1f, 0.5f, 0.1f, 1f));
+        colors.put(Tile.BiomeType.FLOWER_FIELD, new Color(0.7f, 0.9f, 0.5f, 1f));
+        colors.put(Tile.BiomeType.SHRUBLAND, new Color(0.5f, 0.7f, 0.3f, 1f));
+        colors.put(Tile.BiomeType.FERN_FOREST, new Color(0.1f, 0.7f, 0.3f, 1f));
+        colors.put(Tile.BiomeType.PINE_FOREST, new Color(0.15f, 0.35f, 0.18f, 1f));
+        colors.put(Tile.BiomeType.RAINFOREST, new Color(0.0f, 0.35f, 0.18f, 1f));
+        colors.put(Tile.BiomeType.DENSE_FOREST, new Color(0.05f, 0.35f, 0.12f, 1f));
+        BIOME_COLORS = Collections.unmodifiableMap(colors);
+        for (Tile.BiomeType biome : Tile.BiomeType.values()) {
+            BIOME_PALETTE[biome.ordinal()] = Color.rgba8888(colors.getOrDefault(biome, Color.GRAY));
+        }
+    }
+
+    public static final Color RIVER_COLOR = new Color(0.25f, 0.5f, 0.85f, 1f);
+    private static final int RIVER_COLOR_BITS = Color.rgba8888(RIVER_COLOR);
+
+    /**
+     * Packed RGBA8888 color of the biome with the given ordinal.
+     */
+    public static int biomeColorBits(int biomeOrdinal) {
+        return BIOME_PALETTE[biomeOrdinal];
+    }
+
+    /**
+     * Packed RGBA8888 color of river tiles.
+     */
+    public static int riverColorBits() {
+        return RIVER_COLOR_BITS;
     }
 
 
@@ -50,120 +85,308 @@ public class MapGenerator {
     public static final float CONTINENT_FREQ = 0.023f;
     public static final float CONTINENT_THRESHOLD = 0.7f;
 
+    public static final int ISLAND_OCTAVES = 3;
+    public static final float ISLAND_FREQ = 0.09f;
+    public static final float ISLAND_THRESHOLD = 0.82f;
+
+    // Enclosed water bodies up to this many tiles become lakes
+    public static final int LAKE_MAX_TILES = 400;
+
+    // Land tiles drained by at least this many tiles, themselves included, carry a river
+    public static final float RIVER_MIN_DRAINAGE = 120f;
+    // Moisture added on river tiles and on tiles next to one
+    public static final float RIVER_MOISTURE = 0.25f;
+    public static final float RIVER_BANK_MOISTURE = 0.12f;
+
+    // Tiles generated per band when filling stores without flat layers
+    private static final int BAND_TILES = 1 << 16;
+    // Maps at least this large are generated on several threads
+    static final int PARALLEL_TILES = 1 << 16;
+
+    private static final String TAG = "MapGenerator";
+
+    // Bumped whenever the same constants start producing different maps
+    public static final int GENERATOR_REVISION = 5;
+
+    private static volatile Thresholds thresholds = Thresholds.DEFAULT;
+
+    public static final String REFERENCE_NOISE = "joise";
+    private static String noiseBackendName = REFERENCE_NOISE;
+    private static NoiseBackend.Factory noiseBackendFactory = NoiseModules::new;
+    private static final int NOISE_CHECK_TILES = 64;
+
+    /**
+     * Generates the whole map for the current {@link #SEED}. Chunked maps only get the
+     * generator installed; their chunks are filled lazily on first access and get no
+     * lakes or rivers, which need the whole map to be known. Maps without flat layers
+     * get lakes but no rivers, see {@link HexMap#getHydrology()}.
+     * <p>
+     * Large maps are generated in bands of rows on the common fork-join pool. Every
+     * tile depends only on its position and the seed, so the result is identical to a
+     * single-threaded run.
+     */
     public static void generateNoiseMap(HexMap map) {
+        long start = System.nanoTime();
+        BiomeResolver biomeResolver = new SimpleBiomeResolver();
 
-        // --- Continent mask noise ---
-        ModuleFractal continentMask = new ModuleFractal();
-        continentMask.setSeed(SEED + 5000);
-        continentMask.setType(ModuleFractal.FractalType.HYBRIDMULTI);
-        continentMask.setAllSourceBasisTypes(BasisType.GRADIENT);
-        continentMask.setAllSourceInterpolationTypes(InterpolationType.LINEAR);
-        continentMask.setNumOctaves(CONTINENT_OCTAVES);
-        continentMask.setFrequency(CONTINENT_FREQ);
-
-        ModuleAutoCorrect continentNorm = new ModuleAutoCorrect();
-        continentNorm.setSource(continentMask);
-        continentNorm.setSamples(10000);
-        continentNorm.calculate();
-
-        // --- Island mask noise for scattered islands ---
-        ModuleFractal islandMask = new ModuleFractal();
-        islandMask.setSeed(SEED + 9000);
-        islandMask.setType(ModuleFractal.FractalType.FBM);
-        islandMask.setAllSourceBasisTypes(BasisType.SIMPLEX);
-        islandMask.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
-        islandMask.setNumOctaves(3);
-        islandMask.setFrequency(0.09f);
-
-        ModuleAutoCorrect islandNorm = new ModuleAutoCorrect();
-        islandNorm.setSource(islandMask);
-        islandNorm.setSamples(10000);
-        islandNorm.calculate();
-
-        // --- Noise modules ---
-        ModuleFractal base = new ModuleFractal();
-        base.setSeed(SEED);
-        base.setType(ModuleFractal.FractalType.FBM);
-        base.setAllSourceBasisTypes(BasisType.SIMPLEX);
-        base.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
-        base.setNumOctaves(BASE_OCTAVES);
-        base.setFrequency(BASE_FREQ);
-
-        ModuleFractal humidity = new ModuleFractal();
-        humidity.setSeed(SEED + 1000);
-        humidity.setType(ModuleFractal.FractalType.FBM);
-        humidity.setAllSourceBasisTypes(BasisType.SIMPLEX);
-        humidity.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
-        humidity.setNumOctaves(HUMIDITY_OCTAVES);
-        humidity.setFrequency(HUMIDITY_FREQ);
-
-        ModuleFractal temperature = new ModuleFractal();
-        temperature.setSeed(SEED + 2000);
-        temperature.setType(ModuleFractal.FractalType.FBM);
-        temperature.setAllSourceBasisTypes(BasisType.SIMPLEX);
-        temperature.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
-        temperature.setNumOctaves(TEMP_OCTAVES);
-        temperature.setFrequency(TEMP_FREQ);
-
-
-        // --- Normalize all noises to [0,1] ---
-        ModuleAutoCorrect baseNorm = new ModuleAutoCorrect();
-        baseNorm.setSource(base);
-        baseNorm.setSamples(10000);
-        baseNorm.calculate();
-
-        ModuleAutoCorrect humidityNorm = new ModuleAutoCorrect();
-        humidityNorm.setSource(humidity);
-        humidityNorm.setSamples(10000);
-        humidityNorm.calculate();
-
-        ModuleAutoCorrect tempNorm = new ModuleAutoCorrect();
-        tempNorm.setSource(temperature);
-        tempNorm.setSamples(10000);
-        tempNorm.calculate();
-
+        // Captured once, so chunks regenerated after eviction match the ones they replace
+        Thresholds thresholds = getThresholds();
 
-        BiomeResolver biomeResolver = new SimpleBiomeResolver();
+        if (map.getStore() instanceof ChunkedTileStore chunked) {
+            NoiseBackend noise = createNoise(SEED);
+            chunked.setGenerator((layers, rowOffset, colOffset) ->
+                fillLayers(noise.local(), biomeResolver, layers, rowOffset, colOffset, thresholds));
+            map.setHydrology(null);
+            map.getChanges().markAll();
+            return;
+        }
+        int rows = map.getRows();
+        int cols = map.getCols();
+        boolean parallel = rows * cols >= PARALLEL_TILES;
+        if (map.getLayers() != null) {
+            // A pipeline of its own, so its full-map fields are garbage once the map is done
+            GeneratorPipeline pipeline = GeneratorPipeline.standard(biomeResolver);
+            pipeline.run(map, thresholds);
+            Gdx.app.debug(TAG, "Generated " + rows + "x" + cols + " map"
+                + (parallel ? " on " + ForkJoinPool.getCommonPoolParallelism() + " threads" : "")
+                + ": " + pipeline.getLastTimings() + ", total " + millis(System.nanoTime() - start) + " ms");
+            return;
+        }
 
-        for (int row = 0; row < map.getRows(); row++) {
-            for (int col = 0; col < map.getCols(); col++) {
+        // Other stores are filled band by band through small on-heap buffers
+        NoiseBackend noise = createNoise(SEED);
+        long calibrated = System.nanoTime();
+        int bandRows = Math.max(1, BAND_TILES / cols);
+        TileStore store = map.getStore();
+        bands(rows, bandRows, parallel).forEach(row -> {
+            MapLayers band = new MapLayers(Math.min(bandRows, rows - row), cols);
+            fillLayers(noise.local(), biomeResolver, band, row, 0, thresholds);
+            synchronized (store) {
+                store.write(band, row, 0);
+            }
+        });
+        map.setHydrology(null);
+        map.getChanges().markAll();
+        long filled = System.nanoTime();
+        map.getComponents().markLakes(map, LAKE_MAX_TILES);
+        long done = System.nanoTime();
+        Gdx.app.debug(TAG, "Generated " + rows + "x" + cols + " map"
+            + (parallel ? " on " + ForkJoinPool.getCommonPoolParallelism() + " threads" : "")
+            + ": calibration " + millis(calibrated - start) + " ms, noise " + millis(filled - calibrated)
+            + " ms, lakes " + millis(done - filled) + " ms, total " + millis(done - start) + " ms");
+    }
 
-                double continent = continentNorm.get(col, row, 0);
-                double island = islandNorm.get(col, row, 0);
+    /**
+     * Like {@link #generateNoiseMap(HexMap)}, but reads the map from {@code cache} if it
+     * was generated before with the same constants and size, and caches it otherwise.
+     * Chunked maps are generated lazily and bypass the cache.
+     */
+    public static void generateNoiseMap(HexMap map, GenerationCache cache) {
+        if (map.getStore() instanceof ChunkedTileStore) {
+            generateNoiseMap(map);
+            return;
+        }
+        Thresholds thresholds = getThresholds();
+        Params params = Params.of(SEED, thresholds);
+        long start = System.nanoTime();
+        if (cache.load(map, params)) {
+            Gdx.app.debug(TAG, "Loaded " + map.getRows() + "x" + map.getCols() + " map from cache in "
+                + millis(System.nanoTime() - start) + " ms");
+            return;
+        }
+        generateNoiseMap(map);
+        cache.store(map, params);
+    }
 
-                double n = baseNorm.get(col, row, 0);
-                double h = humidityNorm.get(col, row, 0);
-                double t = tempNorm.get(col, row, 0);
+    /**
+     * Thresholds used by generation from now on. Maps generated before keep theirs until
+     * they are regenerated or reclassified, see {@link GeneratorPipeline#reclassify(HexMap)}.
+     */
+    public static void setThresholds(Thresholds thresholds) {
+        MapGenerator.thresholds = thresholds;
+    }
 
-                Tile tile = map.getTile(row, col);
+    public static Thresholds getThresholds() {
+        return thresholds;
+    }
 
-                double terrainValue;
-                if (continent > CONTINENT_THRESHOLD) {
-                    terrainValue = Math.max(n, continent * 0.6);
-                } else if (island > 0.82) {
-                    terrainValue = Math.max(n, island * 0.7);
-                } else {
-                    terrainValue = Math.min(n, continent * 0.2);
-                }
-                tile.setTerrainLevel(resolveHeight(terrainValue));
-                tile.setHeight();
-                tile.setTerrainType(resolveTerrainType(terrainValue));
-                tile.setTemperatureType(resolveTemperatureType(t));
-                tile.setMoistureType(resolveMoistureType(h));
-
-                BiomeResult biomeResult = biomeResolver.resolve(
-                    tile.getTerrainType(), tile.getTemperatureType(), tile.getMoistureType(), terrainValue, h, t
-                );
-                tile.setBiomeType(biomeResult.biomeType);
-                tile.setColor(biomeResult.color);
-
-                tile.setTemperature((float)t);
-                tile.setMoisture((float)h);
+    /**
+     * Replaces the noise backend used by all generation, e.g. with a vectorized one.
+     * Other backends than the reference are first compared with it over a
+     * {@value #NOISE_CHECK_TILES} tile square and rejected beyond {@link NoiseBackend#TOLERANCE}.
+     * Maps differ from the reference backend wherever a sample within the tolerance
+     * crosses a threshold, so the name becomes part of the {@link GenerationCache} key.
+     *
+     * @throws IllegalArgumentException If the backend deviates too much.
+     */
+    public static void setNoiseBackend(String name, NoiseBackend.Factory factory) {
+        if (!REFERENCE_NOISE.equals(name)) {
+            double deviation = NoiseBackend.maxDeviation(new NoiseModules(SEED), factory.create(SEED),
+                NOISE_CHECK_TILES, NOISE_CHECK_TILES);
+            if (deviation > NoiseBackend.TOLERANCE) {
+                throw new IllegalArgumentException("Noise backend " + name + " deviates from "
+                    + REFERENCE_NOISE + " by " + deviation);
             }
         }
+        noiseBackendName = name;
+        noiseBackendFactory = factory;
+    }
+
+    public static String getNoiseBackendName() {
+        return noiseBackendName;
+    }
+
+    static NoiseBackend createNoise(int seed) {
+        return noiseBackendFactory.create(seed);
+    }
+
+    /** First rows of the bands, as a parallel stream if requested. */
+    private static IntStream bands(int rows, int bandRows, boolean parallel) {
+        IntStream starts = IntStream.range(0, (rows + bandRows - 1) / bandRows).map(band -> band * bandRows);
+        return parallel ? starts.parallel() : starts;
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    /**
+     * Normalized noise sources for one seed. Building them runs the auto-correct
+     * calibration, so one set is shared by every region generated for that seed.
+     * <p>
+     * Joise modules are not safe to share between threads, so each thread samples its
+     * own copy, see {@link #local()}. The calibration is deterministic for a seed, so
+     * all copies return the same values.
+     */
+    static final class NoiseModules implements NoiseBackend {
+        final ModuleAutoCorrect continentNorm;
+        final ModuleAutoCorrect islandNorm;
+        final ModuleAutoCorrect baseNorm;
+        final ModuleAutoCorrect humidityNorm;
+        final ModuleAutoCorrect tempNorm;
+
+        private final Thread owner = Thread.currentThread();
+        private final ThreadLocal<NoiseModules> copies;
+
+        /**
+         * The modules to sample on the calling thread.
+         */
+        @Override
+        public NoiseModules local() {
+            return Thread.currentThread() == owner ? this : copies.get();
+        }
+
+        /**
+         * Samples one noise at a time across the run, keeping each module's state hot.
+         */
+        @Override
+        public void sampleRow(int row, int colStart, int count, NoiseRow out) {
+            for (int i = 0; i < count; i++) out.continent[i] = continentNorm.get(colStart + i, row, 0);
+            for (int i = 0; i < count; i++) out.island[i] = islandNorm.get(colStart + i, row, 0);
+            for (int i = 0; i < count; i++) out.base[i] = baseNorm.get(colStart + i, row, 0);
+            for (int i = 0; i < count; i++) out.humidity[i] = humidityNorm.get(colStart + i, row, 0);
+            for (int i = 0; i < count; i++) out.temperature[i] = tempNorm.get(colStart + i, row, 0);
+        }
+
+        @Override
+        public void sampleStrided(int row, int colStart, int step, int count, NoiseRow out) {
+            for (int i = 0; i < count; i++) out.continent[i] = continentNorm.get(colStart + i * step, row, 0);
+            for (int i = 0; i < count; i++) out.island[i] = islandNorm.get(colStart + i * step, row, 0);
+            for (int i = 0; i < count; i++) out.base[i] = baseNorm.get(colStart + i * step, row, 0);
+            for (int i = 0; i < count; i++) out.humidity[i] = humidityNorm.get(colStart + i * step, row, 0);
+            for (int i = 0; i < count; i++) out.temperature[i] = tempNorm.get(colStart + i * step, row, 0);
+        }
+
+        NoiseModules(int seed) {
+            this.copies = ThreadLocal.withInitial(() -> new NoiseModules(seed));
+            // --- Continent mask noise ---
+            ModuleFractal continentMask = new ModuleFractal();
+            continentMask.setSeed(seed + 5000);
+            continentMask.setType(ModuleFractal.FractalType.HYBRIDMULTI);
+            continentMask.setAllSourceBasisTypes(BasisType.GRADIENT);
+            continentMask.setAllSourceInterpolationTypes(InterpolationType.LINEAR);
+            continentMask.setNumOctaves(CONTINENT_OCTAVES);
+            continentMask.setFrequency(CONTINENT_FREQ);
+
+            continentNorm = new ModuleAutoCorrect();
+            continentNorm.setSource(continentMask);
+            continentNorm.setSamples(10000);
+            continentNorm.calculate();
+
+            // --- Island mask noise for scattered islands ---
+            ModuleFractal islandMask = new ModuleFractal();
+            islandMask.setSeed(seed + 9000);
+            islandMask.setType(ModuleFractal.FractalType.FBM);
+            islandMask.setAllSourceBasisTypes(BasisType.SIMPLEX);
+            islandMask.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
+            islandMask.setNumOctaves(ISLAND_OCTAVES);
+            islandMask.setFrequency(ISLAND_FREQ);
+
+            islandNorm = new ModuleAutoCorrect();
+            islandNorm.setSource(islandMask);
+            islandNorm.setSamples(10000);
+            islandNorm.calculate();
+
+            // --- Noise modules ---
+            ModuleFractal base = new ModuleFractal();
+            base.setSeed(seed);
+            base.setType(ModuleFractal.FractalType.FBM);
+            base.setAllSourceBasisTypes(BasisType.SIMPLEX);
+            base.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
+            base.setNumOctaves(BASE_OCTAVES);
+            base.setFrequency(BASE_FREQ);
+
+            ModuleFractal humidity = new ModuleFractal();
+            humidity.setSeed(seed + 1000);
+            humidity.setType(ModuleFractal.FractalType.FBM);
+            humidity.setAllSourceBasisTypes(BasisType.SIMPLEX);
+            humidity.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
+            humidity.setNumOctaves(HUMIDITY_OCTAVES);
+            humidity.setFrequency(HUMIDITY_FREQ);
+
+            ModuleFractal temperature = new ModuleFractal();
+            temperature.setSeed(seed + 2000);
+            temperature.setType(ModuleFractal.FractalType.FBM);
+            temperature.setAllSourceBasisTypes(BasisType.SIMPLEX);
+            temperature.setAllSourceInterpolationTypes(InterpolationType.QUINTIC);
+            temperature.setNumOctaves(TEMP_OCTAVES);
+            temperature.setFrequency(TEMP_FREQ);
+
+
+            // --- Normalize all noises to [0,1] ---
+            baseNorm = new ModuleAutoCorrect();
+            baseNorm.setSource(base);
+            baseNorm.setSamples(10000);
+            baseNorm.calculate();
+
+            humidityNorm = new ModuleAutoCorrect();
+            humidityNorm.setSource(humidity);
+            humidityNorm.setSamples(10000);
+            humidityNorm.calculate();
+
+            tempNorm = new ModuleAutoCorrect();
+            tempNorm.setSource(temperature);
+            tempNorm.setSamples(10000);
+            tempNorm.calculate();
+        }
+    }
+
+    /**
+     * Fills {@code layers} with the tiles starting at map position ({@code rowOffset}, {@code colOffset}).
+     *
+     * @param noise Backend to sample on the calling thread, see {@link NoiseBackend#local()}.
+     */
+    static void fillLayers(NoiseBackend noise, BiomeResolver biomeResolver, MapLayers layers, int rowOffset, int colOffset,
+                           Thresholds thresholds) {
+        GeneratorPipeline.fill(noise, biomeResolver, layers, rowOffset, colOffset, thresholds);
     }
 
 
+    /**
+     * Resolves the biome of one tile. Called from several threads during generation, so
+     * implementations must be thread-safe. Generation only uses the biome of the result;
+     * tile colors come from {@link #BIOME_COLORS}.
+     */
     public interface BiomeResolver {
         BiomeResult resolve(
             Tile.TerrainType terrainType,
@@ -171,13 +394,173 @@ public class MapGenerator {
             Tile.MoistureType moistureType,
             double n, double h, double t
         );
+
+        /**
+         * Resolves tiles {@code from} to {@code to} (exclusive) of parallel layer arrays into
+         * biome ordinals. The default calls {@link #resolve} per tile; resolvers that only
+         * look at the classified types should override it with a table lookup.
+         *
+         * @param terrain Terrain type ordinals.
+         * @param n Terrain values, see {@link GeneratorPipeline#ELEVATION}.
+         * @param biomes Receives the biome ordinals.
+         */
+        default void resolveAll(byte[] terrain, byte[] temperatureType, byte[] moistureType,
+                                double[] n, double[] h, double[] t, int from, int to, byte[] biomes) {
+            Tile.TerrainType[] terrainTypes = Tile.TerrainType.values();
+            Tile.TemperatureType[] temperatureTypes = Tile.TemperatureType.values();
+            Tile.MoistureType[] moistureTypes = Tile.MoistureType.values();
+            for (int i = from; i < to; i++) {
+                biomes[i] = (byte) resolve(terrainTypes[terrain[i]], temperatureTypes[temperatureType[i]],
+                    moistureTypes[moistureType[i]], n[i], h[i], t[i]).biomeType().ordinal();
+            }
+        }
     }
 
     public record BiomeResult(Tile.BiomeType biomeType, Color color) {
     }
 
+    /**
+     * Seed, generator revision, constants and thresholds a map was generated with. Maps
+     * that share params are identical, so this identifies saved maps.
+     */
+    public record Params(
+        int seed, int generatorRevision,
+        float waterLevel, float sandLevel,
+        int baseOctaves, float baseFreq,
+        int humidityOctaves, float humidityFreq,
+        int tempOctaves, float tempFreq,
+        int continentOctaves, float continentFreq, float continentThreshold,
+        int islandOctaves, float islandFreq, float islandThreshold,
+        double coldBelow, double hotAbove,
+        double dryBelow, double wetAbove
+    ) {
+        /** Size of the serialized form in bytes. */
+        public static final int BYTES = 16 * 4 + 4 * 8;
+
+        public static Params current() {
+            return of(SEED, getThresholds());
+        }
+
+        /** Params for {@code seed} with the given thresholds, e.g. a captured snapshot. */
+        public static Params of(int seed, Thresholds thresholds) {
+            return new Params(
+                seed, GENERATOR_REVISION,
+                thresholds.waterLevel(), thresholds.sandLevel(),
+                BASE_OCTAVES, BASE_FREQ,
+                HUMIDITY_OCTAVES, HUMIDITY_FREQ,
+                TEMP_OCTAVES, TEMP_FREQ,
+                CONTINENT_OCTAVES, CONTINENT_FREQ, thresholds.continentThreshold(),
+                ISLAND_OCTAVES, ISLAND_FREQ, thresholds.islandThreshold(),
+                thresholds.coldBelow(), thresholds.hotAbove(),
+                thresholds.dryBelow(), thresholds.wetAbove()
+            );
+        }
+
+        /**
+         * The same generator with another seed.
+         */
+        public Params withSeed(int seed) {
+            return new Params(
+                seed, generatorRevision,
+                waterLevel, sandLevel,
+                baseOctaves, baseFreq,
+                humidityOctaves, humidityFreq,
+                tempOctaves, tempFreq,
+                continentOctaves, continentFreq, continentThreshold,
+                islandOctaves, islandFreq, islandThreshold,
+                coldBelow, hotAbove,
+                dryBelow, wetAbove
+            );
+        }
+
+        /**
+         * Whether both params describe the same generator, ignoring the seed.
+         */
+        public boolean sameGenerator(Params other) {
+            return equals(other.withSeed(seed));
+        }
+
+        public void write(ByteBuffer buffer) {
+            buffer.putInt(seed).putInt(generatorRevision);
+            buffer.putFloat(waterLevel).putFloat(sandLevel);
+            buffer.putInt(baseOctaves).putFloat(baseFreq);
+            buffer.putInt(humidityOctaves).putFloat(humidityFreq);
+            buffer.putInt(tempOctaves).putFloat(tempFreq);
+            buffer.putInt(continentOctaves).putFloat(continentFreq).putFloat(continentThreshold);
+            buffer.putInt(islandOctaves).putFloat(islandFreq).putFloat(islandThreshold);
+            buffer.putDouble(coldBelow).putDouble(hotAbove);
+            buffer.putDouble(dryBelow).putDouble(wetAbove);
+        }
+
+        public static Params read(ByteBuffer buffer) {
+            return new Params(
+                buffer.getInt(), buffer.getInt(),
+                buffer.getFloat(), buffer.getFloat(),
+                buffer.getInt(), buffer.getFloat(),
+                buffer.getInt(), buffer.getFloat(),
+                buffer.getInt(), buffer.getFloat(),
+                buffer.getInt(), buffer.getFloat(), buffer.getFloat(),
+                buffer.getInt(), buffer.getFloat(), buffer.getFloat(),
+                buffer.getDouble(), buffer.getDouble(),
+                buffer.getDouble(), buffer.getDouble()
+            );
+        }
+    }
+
+    /**
+     * Values the elevation and climate fields are classified by. Unlike the noise
+     * parameters they can change at runtime: the raw noise stays valid, so a pipeline
+     * only reruns the stages after them, and the sand level and climate cutoffs are applied
+     * in place, see {@link GeneratorPipeline#reclassify(HexMap)}.
+     * The climate cutoffs are doubles so the defaults classify exactly as before they
+     * became tunable.
+     */
+    public record Thresholds(
+        float waterLevel, float sandLevel,
+        float continentThreshold, float islandThreshold,
+        double coldBelow, double hotAbove,
+        double dryBelow, double wetAbove
+    ) {
+        public static final Thresholds DEFAULT = new Thresholds(
+            WATER_LEVEL, SAND_LEVEL,
+            CONTINENT_THRESHOLD, ISLAND_THRESHOLD,
+            COLD_BELOW, HOT_ABOVE,
+            DRY_BELOW, WET_ABOVE
+        );
+
+        public Thresholds withWaterLevel(float waterLevel) {
+            return new Thresholds(waterLevel, sandLevel, continentThreshold, islandThreshold,
+                coldBelow, hotAbove, dryBelow, wetAbove);
+        }
+
+        public Thresholds withSandLevel(float sandLevel) {
+            return new Thresholds(waterLevel, sandLevel, continentThreshold, islandThreshold,
+                coldBelow, hotAbove, dryBelow, wetAbove);
+        }
+
+        public Thresholds withContinentThreshold(float continentThreshold) {
+            return new Thresholds(waterLevel, sandLevel, continentThreshold, islandThreshold,
+                coldBelow, hotAbove, dryBelow, wetAbove);
+        }
+
+        public Thresholds withIslandThreshold(float islandThreshold) {
+            return new Thresholds(waterLevel, sandLevel, continentThreshold, islandThreshold,
+                coldBelow, hotAbove, dryBelow, wetAbove);
+        }
+
+        public Thresholds withClimate(double coldBelow, double hotAbove, double dryBelow, double wetAbove) {
+            return new Thresholds(waterLevel, sandLevel, continentThreshold, islandThreshold,
+                coldBelow, hotAbove, dryBelow, wetAbove);
+        }
+    }
+
     // --- SIMPLER BIOME RESOLVER WITH MORE FOREST/JUNGLE/PLANTS ---
     public static class SimpleBiomeResolver implements BiomeResolver {
+        private static final int TEMPERATURES = Tile.TemperatureType.values().length;
+        private static final int MOISTURES = Tile.MoistureType.values().length;
+        /** Biome ordinal by {@code (terrain * TEMPERATURES + temperature) * MOISTURES + moisture}. */
+        private static final byte[] TABLE = buildTable();
+
         @Override
         public BiomeResult resolve(
             Tile.TerrainType terrainType,
@@ -185,76 +568,99 @@ public class MapGenerator {
             Tile.MoistureType moistureType,
             double n, double h, double t
         ) {
+            Tile.BiomeType biomeType = biomeOf(terrainType, temperatureType, moistureType);
+            Color color = BIOME_COLORS.getOrDefault(biomeType, Color.GRAY);
+            return new BiomeResult(biomeType, color);
+        }
 
-            Tile.BiomeType biomeType = null;
+        @Override
+        public void resolveAll(byte[] terrain, byte[] temperatureType, byte[] moistureType,
+                               double[] n, double[] h, double[] t, int from, int to, byte[] biomes) {
+            for (int i = from; i < to; i++) {
+                biomes[i] = TABLE[(terrain[i] * TEMPERATURES + temperatureType[i]) * MOISTURES + moistureType[i]];
+            }
+        }
+
+        private static byte[] buildTable() {
+            byte[] table = new byte[Tile.TerrainType.values().length * TEMPERATURES * MOISTURES];
+            for (Tile.TerrainType terrain : Tile.TerrainType.values()) {
+                for (Tile.TemperatureType temperature : Tile.TemperatureType.values()) {
+                    for (Tile.MoistureType moisture : Tile.MoistureType.values()) {
+                        int index = (terrain.ordinal() * TEMPERATURES + temperature.ordinal()) * MOISTURES + moisture.ordinal();
+                        table[index] = (byte) biomeOf(terrain, temperature, moisture).ordinal();
+                    }
+                }
+            }
+            return table;
+        }
 
+        private static Tile.BiomeType biomeOf(
+            Tile.TerrainType terrainType,
+            Tile.TemperatureType temperatureType,
+            Tile.MoistureType moistureType
+        ) {
             switch (terrainType) {
                 case WATER:
-                    biomeType = Tile.BiomeType.OCEAN;
-                    break;
+                    return Tile.BiomeType.OCEAN;
                 case SAND:
-                    biomeType = Tile.BiomeType.DESERT;
+                    return Tile.BiomeType.DESERT;
                 case LAND:
-                {
                     switch (temperatureType) {
                         case COLD -> {
                             switch (moistureType) {
-                                case DRY -> biomeType = Tile.BiomeType.TUNDRA;
-                                case NORMAL -> biomeType = Tile.BiomeType.PINE_FOREST;
-                                case WET -> biomeType = Tile.BiomeType.FERN_FOREST;
-                                default -> biomeType = Tile.BiomeType.TAIGA;
+                                case DRY -> { return Tile.BiomeType.TUNDRA; }
+                                case NORMAL -> { return Tile.BiomeType.PINE_FOREST; }
+                                case WET -> { return Tile.BiomeType.FERN_FOREST; }
+                                default -> { return Tile.BiomeType.TAIGA; }
                             }
                         }
                         case TEMPERATE -> {
                             switch (moistureType) {
-                                case DRY -> biomeType = Tile.BiomeType.SHRUBLAND;
-                                case NORMAL -> biomeType = Tile.BiomeType.FOREST;
-                                case WET -> biomeType = Tile.BiomeType.DENSE_FOREST;
-                                default -> biomeType = Tile.BiomeType.FLOWER_FIELD;
+                                case DRY -> { return Tile.BiomeType.SHRUBLAND; }
+                                case NORMAL -> { return Tile.BiomeType.FOREST; }
+                                case WET -> { return Tile.BiomeType.DENSE_FOREST; }
+                                default -> { return Tile.BiomeType.FLOWER_FIELD; }
                             }
                         }
                         case HOT -> {
                             switch (moistureType) {
-                                case DRY -> biomeType = Tile.BiomeType.DESERT;
-                                case NORMAL -> biomeType = Tile.BiomeType.SAVANNA;
-                                case WET -> biomeType = Tile.BiomeType.JUNGLE;
-                                default -> biomeType = Tile.BiomeType.RAINFOREST;
+                                case DRY -> { return Tile.BiomeType.DESERT; }
+                                case NORMAL -> { return Tile.BiomeType.SAVANNA; }
+                                case WET -> { return Tile.BiomeType.JUNGLE; }
+                                default -> { return Tile.BiomeType.RAINFOREST; }
                             }
-
                         }
+                        default -> { return Tile.BiomeType.UNKNOWN; }
                     }
-                }
-
+                default:
+                    return Tile.BiomeType.UNKNOWN;
             }
-
-            Color color = BIOME_COLORS.getOrDefault(biomeType, Color.GRAY);
-            return new BiomeResult(biomeType, color);
         }
     }
 
     // --- Helper methods for modularity ---
 
-    private static Tile.TerrainType resolveTerrainType(double n) {
-        if (n < WATER_LEVEL) return Tile.TerrainType.WATER;
-        if (n < SAND_LEVEL) return Tile.TerrainType.SAND;
+    static Tile.TerrainType resolveTerrainType(double n, Thresholds thresholds) {
+        if (n < thresholds.waterLevel()) return Tile.TerrainType.WATER;
+        if (n < thresholds.sandLevel()) return Tile.TerrainType.SAND;
         return Tile.TerrainType.LAND;
     }
-    private static Tile.TerrainLevel resolveHeight(double n) {
-        if (n < WATER_LEVEL) return Tile.TerrainLevel.LEVEL_0;
-        if (n < SAND_LEVEL) return Tile.TerrainLevel.LEVEL_1;
+    static Tile.TerrainLevel resolveHeight(double n, Thresholds thresholds) {
+        if (n < thresholds.waterLevel()) return Tile.TerrainLevel.LEVEL_0;
+        if (n < thresholds.sandLevel()) return Tile.TerrainLevel.LEVEL_1;
         if (n  < 0.6) return Tile.TerrainLevel.LEVEL_2;
         if (n < 0.75) return Tile.TerrainLevel.LEVEL_3;
         return Tile.TerrainLevel.LEVEL_4;
     }
-    private static Tile.TemperatureType resolveTemperatureType(double t) {
-        if (t < 0.28) return Tile.TemperatureType.COLD;
-        if (t > 0.72) return Tile.TemperatureType.HOT;
+    static Tile.TemperatureType resolveTemperatureType(double t, Thresholds thresholds) {
+        if (t < thresholds.coldBelow()) return Tile.TemperatureType.COLD;
+        if (t > thresholds.hotAbove()) return Tile.TemperatureType.HOT;
         return Tile.TemperatureType.TEMPERATE;
     }
 
-    private static Tile.MoistureType resolveMoistureType(double h) {
-        if (h < 0.28) return Tile.MoistureType.DRY;
-        if (h > 0.72) return Tile.MoistureType.WET;
+    static Tile.MoistureType resolveMoistureType(double h, Thresholds thresholds) {
+        if (h < thresholds.dryBelow()) return Tile.MoistureType.DRY;
+        if (h > thresholds.wetAbove()) return Tile.MoistureType.WET;
         return Tile.MoistureType.NORMAL;
     }
 
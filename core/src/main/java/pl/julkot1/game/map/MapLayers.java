@@ -0,0 +1,128 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.graphics.Color;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays storage for tile data. Every layer is a flat primitive array
+ * indexed by {@code row * cols + col}, so bulk passes walk memory linearly instead of
+ * chasing one heap object per tile.
+ */
+public class MapLayers {
+    /** Approximate number of bytes one tile occupies across all layers. */
+    public static final int BYTES_PER_TILE = 3 * Float.BYTES + 5 + Integer.BYTES;
+
+    private static final int DEFAULT_COLOR = Color.rgba8888(Color.GRAY);
+
+    private final int rows;
+    private final int cols;
+
+    final float[] height;
+    final float[] temperature;
+    final float[] moisture;
+
+    final byte[] biome;
+    final byte[] terrain;
+    final byte[] level;
+    final byte[] temperatureType;
+    final byte[] moistureType;
+
+    /** Packed RGBA8888 colors, see {@link Color#rgba8888(Color)}. */
+    final int[] color;
+
+    public MapLayers(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        int size = rows * cols;
+        height = new float[size];
+        temperature = new float[size];
+        moisture = new float[size];
+        biome = new byte[size];
+        terrain = new byte[size];
+        level = new byte[size];
+        temperatureType = new byte[size];
+        moistureType = new byte[size];
+        color = new int[size];
+        clear();
+    }
+
+    /**
+     * Resets every layer to the "not generated yet" state.
+     */
+    public void clear() {
+        Arrays.fill(height, 0f);
+        Arrays.fill(temperature, 0f);
+        Arrays.fill(moisture, 0f);
+        Arrays.fill(biome, (byte) Tile.BiomeType.UNKNOWN.ordinal());
+        Arrays.fill(terrain, (byte) Tile.TerrainType.UNKNOWN.ordinal());
+        Arrays.fill(level, (byte) Tile.TerrainLevel.UNKNOWN.ordinal());
+        Arrays.fill(temperatureType, (byte) Tile.TemperatureType.UNKNOWN.ordinal());
+        Arrays.fill(moistureType, (byte) Tile.MoistureType.UNKNOWN.ordinal());
+        Arrays.fill(color, DEFAULT_COLOR);
+    }
+
+    /**
+     * Copies a block of {@code rows} by {@code cols} tiles from ({@code sourceRow},
+     * {@code sourceCol}) of {@code source} to ({@code targetRow}, {@code targetCol}) here.
+     */
+    public void copyFrom(MapLayers source, int sourceRow, int sourceCol, int targetRow, int targetCol,
+                         int rows, int cols) {
+        for (int r = 0; r < rows; r++) {
+            int from = source.index(sourceRow + r, sourceCol);
+            int to = index(targetRow + r, targetCol);
+            System.arraycopy(source.height, from, height, to, cols);
+            System.arraycopy(source.temperature, from, temperature, to, cols);
+            System.arraycopy(source.moisture, from, moisture, to, cols);
+            System.arraycopy(source.biome, from, biome, to, cols);
+            System.arraycopy(source.terrain, from, terrain, to, cols);
+            System.arraycopy(source.level, from, level, to, cols);
+            System.arraycopy(source.temperatureType, from, temperatureType, to, cols);
+            System.arraycopy(source.moistureType, from, moistureType, to, cols);
+            System.arraycopy(source.color, from, color, to, cols);
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int size() {
+        return height.length;
+    }
+
+    public int index(int row, int col) {
+        return row * cols + col;
+    }
+
+    public float getHeight(int index) { return height[index]; }
+    public void setHeight(int index, float value) { height[index] = value; }
+
+    public float getTemperature(int index) { return temperature[index]; }
+    public void setTemperature(int index, float value) { temperature[index] = value; }
+
+    public float getMoisture(int index) { return moisture[index]; }
+    public void setMoisture(int index, float value) { moisture[index] = value; }
+
+    public int getBiome(int index) { return biome[index]; }
+    public void setBiome(int index, int ordinal) { biome[index] = (byte) ordinal; }
+
+    public int getTerrain(int index) { return terrain[index]; }
+    public void setTerrain(int index, int ordinal) { terrain[index] = (byte) ordinal; }
+
+    public int getLevel(int index) { return level[index]; }
+    public void setLevel(int index, int ordinal) { level[index] = (byte) ordinal; }
+
+    public int getTemperatureType(int index) { return temperatureType[index]; }
+    public void setTemperatureType(int index, int ordinal) { temperatureType[index] = (byte) ordinal; }
+
+    public int getMoistureType(int index) { return moistureType[index]; }
+    public void setMoistureType(int index, int ordinal) { moistureType[index] = (byte) ordinal; }
+
+    public int getColor(int index) { return color[index]; }
+    public void setColor(int index, int rgba8888) { color[index] = rgba8888; }
+}
@@ -0,0 +1,333 @@
+package pl.julkot1.game.map;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Downsampled copies of a map, mip-map style. Level {@code k} has one cell per
+ * {@code 2^k} by {@code 2^k} tiles holding the majority biome, the mean height and the
+ * majority biome's color; level 0 is the map itself and is not stored. The last level
+ * is a single cell.
+ * <p>
+ * Levels up to {@link #EXACT_LEVELS} are built straight from the tiles in one pass, in
+ * parallel bands of rows; higher levels add up the biome counts of the cells below them,
+ * so every majority is exact. After edits only the cells over the changed regions are
+ * rebuilt, see {@link HexMap#getPyramid()}.
+ * <p>
+ * On a chunked map only generated chunks are read, see {@link TileStore#isGenerated};
+ * cells without any generated tile are empty, with a transparent color, until their
+ * chunks are generated and marked changed. Its finest levels are not stored either, so
+ * the pyramid of a huge world stays small, see {@link #getFirstLevel()}.
+ */
+public final class MapPyramid {
+    /** Levels computed from the tiles; their last one keeps biome counts for the rest. */
+    static final int EXACT_LEVELS = 5;
+    /** Maps at least this large are built in parallel. */
+    static final int PARALLEL_TILES = 1 << 16;
+    /** Cells of the finest level stored for chunked maps, unless that is an exact level. */
+    static final int LAZY_MAX_CELLS = 1 << 20;
+
+    private static final int BIOMES = Tile.BiomeType.values().length;
+
+    private final int rows;
+    private final int cols;
+    private final int levels;
+    private final int exactLevels;
+    private final int firstLevel;
+    private final boolean lazy;
+    private final int[] levelRows;
+    private final int[] levelCols;
+    private final byte[][] biome;
+    private final float[][] height;
+    private final int[][] color;
+    // Biome counts, height sums and tile counts per cell, from the last exact level up
+    private final int[][] counts;
+    private final double[][] heightSums;
+    private final int[][] tiles;
+    private long version;
+
+    private MapPyramid(int rows, int cols, boolean lazy) {
+        this.rows = rows;
+        this.cols = cols;
+        this.lazy = lazy;
+        int top = 0;
+        while ((rows - 1) >> top > 0 || (cols - 1) >> top > 0) top++;
+        this.levels = top + 1;
+        this.exactLevels = Math.min(EXACT_LEVELS, top);
+        levelRows = new int[levels];
+        levelCols = new int[levels];
+        biome = new byte[levels][];
+        height = new float[levels][];
+        color = new int[levels][];
+        counts = new int[levels][];
+        heightSums = new double[levels][];
+        tiles = new int[levels][];
+        for (int k = 0; k < levels; k++) {
+            levelRows[k] = ((rows - 1) >> k) + 1;
+            levelCols[k] = ((cols - 1) >> k) + 1;
+        }
+        int first = 1;
+        while (lazy && first < exactLevels && (long) levelRows[first] * levelCols[first] > LAZY_MAX_CELLS) first++;
+        this.firstLevel = first;
+        for (int k = firstLevel; k < levels; k++) {
+            int cells = levelRows[k] * levelCols[k];
+            biome[k] = new byte[cells];
+            height[k] = new float[cells];
+            color[k] = new int[cells];
+            if (k >= exactLevels) {
+                counts[k] = new int[cells * BIOMES];
+                heightSums[k] = new double[cells];
+                tiles[k] = new int[cells];
+            }
+        }
+    }
+
+    /**
+     * Builds the pyramid of the current state of the map. Reads every tile, except on a
+     * chunked map, where only the chunks generated so far are read.
+     */
+    public static MapPyramid build(HexMap map) {
+        TileStore store = map.getStore();
+        MapPyramid pyramid = new MapPyramid(map.getRows(), map.getCols(), store instanceof ChunkedTileStore);
+        if (pyramid.levels > 1) pyramid.rebuildAll(store);
+        pyramid.version = map.getChanges().getVersion();
+        return pyramid;
+    }
+
+    /**
+     * Rebuilds the cells over the regions of {@code map} changed since this pyramid was
+     * built, or everything after a regeneration.
+     *
+     * @return Whether the pyramid could be updated; {@code false} if the map has another size.
+     */
+    boolean refresh(HexMap map) {
+        if (map.getRows() != rows || map.getCols() != cols) return false;
+        ChangeTracker changes = map.getChanges();
+        if (changes.getVersion() == version || levels == 1) {
+            version = changes.getVersion();
+            return true;
+        }
+        TileStore store = map.getStore();
+        if (changes.isFullyChangedSince(version)) {
+            rebuildAll(store);
+        } else {
+            changes.dirtyRegionsSince(version, (rowStart, colStart, rowEnd, colEnd) ->
+                rebuild(store, rowStart, rowEnd, colStart, colEnd, false));
+        }
+        version = changes.getVersion();
+        return true;
+    }
+
+    private void rebuildAll(TileStore store) {
+        if (store instanceof ChunkedTileStore chunked) {
+            // Chunks generated before a regeneration are gone, so every cell starts empty
+            for (int k = firstLevel; k < levels; k++) {
+                Arrays.fill(biome[k], (byte) 0);
+                Arrays.fill(height[k], 0);
+                Arrays.fill(color[k], 0);
+                if (counts[k] != null) {
+                    Arrays.fill(counts[k], 0);
+                    Arrays.fill(heightSums[k], 0);
+                    Arrays.fill(tiles[k], 0);
+                }
+            }
+            chunked.generatedChunks((rowStart, colStart, rowEnd, colEnd) ->
+                rebuild(store, rowStart, rowEnd, colStart, colEnd, false));
+            return;
+        }
+        boolean parallel = rows * cols >= PARALLEL_TILES && store.supportsConcurrentReads();
+        rebuild(store, 0, rows, 0, cols, parallel);
+    }
+
+    /**
+     * Rebuilds every cell over tiles {@code rowStart} to {@code rowEnd} and
+     * {@code colStart} to {@code colEnd}, exclusive.
+     */
+    private void rebuild(TileStore store, int rowStart, int rowEnd, int colStart, int colEnd, boolean parallel) {
+        int block = 1 << exactLevels;
+        int x0 = rowStart & -block;
+        int x1 = Math.min(rows, (rowEnd + block - 1) & -block);
+        int y0 = colStart & -block;
+        int y1 = Math.min(cols, (colEnd + block - 1) & -block);
+        IntStream bands = IntStream.range(0, (x1 - x0 + block - 1) / block);
+        (parallel ? bands.parallel() : bands).forEach(band ->
+            buildExact(store, x0 + band * block, Math.min(x1, x0 + (band + 1) * block), y0, y1));
+        for (int k = exactLevels + 1; k < levels; k++) {
+            combine(k, x0 >> k, ((x1 - 1) >> k) + 1, y0 >> k, ((y1 - 1) >> k) + 1);
+        }
+    }
+
+    /**
+     * Builds the exact levels over a band of tiles aligned to the last exact level's
+     * cells, keeping per-level counts for one row of cells at a time. Tiles that are not
+     * generated yet are left out; cells without any tile are emptied.
+     */
+    private void buildExact(TileStore store, int x0, int x1, int y0, int y1) {
+        int[][] bandCounts = new int[exactLevels + 1][];
+        double[][] bandHeights = new double[exactLevels + 1][];
+        int[][] bandTiles = new int[exactLevels + 1][];
+        for (int k = firstLevel; k <= exactLevels; k++) {
+            int cells = ((y1 - y0 - 1) >> k) + 1;
+            bandCounts[k] = new int[cells * BIOMES];
+            bandHeights[k] = new double[cells];
+            bandTiles[k] = new int[cells];
+        }
+        for (int x = x0; x < x1; x++) {
+            for (int y = y0; y < y1; y++) {
+                if (lazy && !store.isGenerated(x, y)) continue;
+                int b = store.getBiome(x, y);
+                float h = store.getHeight(x, y);
+                for (int k = firstLevel; k <= exactLevels; k++) {
+                    int cell = (y - y0) >> k;
+                    bandCounts[k][cell * BIOMES + b]++;
+                    bandHeights[k][cell] += h;
+                    bandTiles[k][cell]++;
+                }
+            }
+            // Close the rows of cells this tile row completes
+            for (int k = firstLevel; k <= exactLevels; k++) {
+                if (((x + 1) & ((1 << k) - 1)) != 0 && x + 1 != x1) continue;
+                int cellRow = x >> k;
+                int cellCol = y0 >> k;
+                int cells = bandTiles[k].length;
+                for (int c = 0; c < cells; c++) {
+                    int cell = cellRow * levelCols[k] + cellCol + c;
+                    if (bandTiles[k][c] == 0) {
+                        clear(k, cell);
+                    } else {
+                        int majority = majority(bandCounts[k], c * BIOMES);
+                        set(k, cell, majority, (float) (bandHeights[k][c] / bandTiles[k][c]));
+                    }
+                    if (k == exactLevels) {
+                        System.arraycopy(bandCounts[k], c * BIOMES, counts[k], cell * BIOMES, BIOMES);
+                        heightSums[k][cell] = bandHeights[k][c];
+                        tiles[k][cell] = bandTiles[k][c];
+                    }
+                }
+                Arrays.fill(bandCounts[k], 0);
+                Arrays.fill(bandHeights[k], 0);
+                Arrays.fill(bandTiles[k], 0);
+            }
+        }
+    }
+
+    /** Builds cells of level {@code k} above the exact levels from the four cells below each. */
+    private void combine(int k, int cx0, int cx1, int cy0, int cy1) {
+        int below = k - 1;
+        for (int cx = cx0; cx < cx1; cx++) {
+            for (int cy = cy0; cy < cy1; cy++) {
+                int cell = cx * levelCols[k] + cy;
+                int countOffset = cell * BIOMES;
+                Arrays.fill(counts[k], countOffset, countOffset + BIOMES, 0);
+                double heightSum = 0;
+                int tileCount = 0;
+                for (int bx = 2 * cx; bx < Math.min(levelRows[below], 2 * cx + 2); bx++) {
+                    for (int by = 2 * cy; by < Math.min(levelCols[below], 2 * cy + 2); by++) {
+                        int child = bx * levelCols[below] + by;
+                        for (int b = 0; b < BIOMES; b++) counts[k][countOffset + b] += counts[below][child * BIOMES + b];
+                        heightSum += heightSums[below][child];
+                        tileCount += tiles[below][child];
+                    }
+                }
+                heightSums[k][cell] = heightSum;
+                tiles[k][cell] = tileCount;
+                if (tileCount == 0) {
+                    clear(k, cell);
+                } else {
+                    set(k, cell, majority(counts[k], countOffset), (float) (heightSum / tileCount));
+                }
+            }
+        }
+    }
+
+    private void set(int k, int cell, int majority, float meanHeight) {
+        biome[k][cell] = (byte) majority;
+        height[k][cell] = meanHeight;
+        color[k][cell] = MapGenerator.biomeColorBits(majority);
+    }
+
+    /** Marks a cell without generated tiles. */
+    private void clear(int k, int cell) {
+        biome[k][cell] = 0;
+        height[k][cell] = 0;
+        color[k][cell] = 0;
+    }
+
+    /** Most frequent biome, the lowest ordinal on ties. */
+    private static int majority(int[] counts, int offset) {
+        int best = 0;
+        for (int b = 1; b < BIOMES; b++) {
+            if (counts[offset + b] > counts[offset + best]) best = b;
+        }
+        return best;
+    }
+
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+
+    /**
+     * Number of levels including level 0, the map itself.
+     */
+    public int getLevelCount() {
+        return levels;
+    }
+
+    public int getRows(int level) {
+        return levelRows[level];
+    }
+
+    public int getCols(int level) {
+        return levelCols[level];
+    }
+
+    /**
+     * Finest level stored. Level 0 is the map itself; on chunked maps the levels in
+     * between are skipped too, since reading them would mean generating every chunk or
+     * storing a large part of the world.
+     */
+    public int getFirstLevel() {
+        return firstLevel;
+    }
+
+    /**
+     * The finest level whose cells fit {@code maxSize} in both directions. On chunked maps
+     * this is never finer than {@link #getFirstLevel()}, so it never reads the map itself.
+     */
+    public int levelFor(int maxSize) {
+        int level = lazy ? Math.min(firstLevel, levels - 1) : 0;
+        while (level + 1 < levels && Math.max(levelRows[level], levelCols[level]) > maxSize) level++;
+        return level;
+    }
+
+    /**
+     * Majority biome ordinal of a cell of a stored level.
+     */
+    public int getBiome(int level, int x, int y) {
+        return biome[level][x * levelCols[level] + y];
+    }
+
+    public Tile.BiomeType getBiomeType(int level, int x, int y) {
+        return Tile.BiomeType.values()[getBiome(level, x, y)];
+    }
+
+    /**
+     * Mean tile height of a cell of a stored level.
+     */
+    public float getMeanHeight(int level, int x, int y) {
+        return height[level][x * levelCols[level] + y];
+    }
+
+    /**
+     * Packed RGBA8888 color of the majority biome of a cell of a stored level.
+     */
+    public int getColorBits(int level, int x, int y) {
+        return color[level][x * levelCols[level] + y];
+    }
+
+    /**
+     * Map change version the pyramid reflects.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -6,24 +6,43 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.PerspectiveCamera;
 import com.badlogic.gdx.graphics.g3d.Environment;
+import com.badlogic.gdx.graphics.g3d.Model;
 import com.badlogic.gdx.graphics.g3d.ModelBatch;
 import com.badlogic.gdx.graphics.g3d.ModelInstance;
 import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.graphics.g3d.environment.DirectionalLight;
 import com.badlogic.gdx.math.Vector3;
-import com.badlogic.gdx.math.collision.BoundingBox;
 import com.badlogic.gdx.math.collision.Ray;
 import pl.julkot1.game.gui.Gui;
 
 public class MapRender {
+    private static final String TAG = "MapRender";
     private static final float renderRadius = 44f;
+    /** Time per frame spent creating tile instances; tiles beyond it appear on later frames. */
+    public static final long INSTANCE_BUDGET_NANOS = 4_000_000;
+
+    private static final Color AMBIENT_LIGHT = new Color(0.8f, 0.8f, 0.8f, 1f);
+    // A sun-like directional light
+    private static final Color SUN_COLOR = new Color(1f, 1f, 0.95f, 1f);
+    private static final Vector3 SUN_DIRECTION = new Vector3(-0.7f, -1f, -0.5f).nor();
 
     private static PerspectiveCamera camera;
     private static Environment environment;
     private static ModelBatch modelBatch;
     private static Vector3 mapCenter;
-    private static int mapWidth, mapHeight;
-    private static float hexRadius, hexHeight;
+    private static HexLayout layout;
+    private static TilePicker picker;
+    private static float hexHeight;
+    private static Model tileModel;
+
+    // Draws all tiles in one call where GL30 is available, null otherwise
+    private static InstancedTileRenderer instancedRenderer;
+    private static final TileInstanceBuffer instances = new TileInstanceBuffer();
+    private static boolean instancing = true;
+
+    // Map and change version the tile instances were last synced to
+    private static HexMap syncedMap;
+    private static long syncedVersion = -1;
 
     private static int lastMouseX;
     private static boolean dragging = false;
@@ -39,10 +58,9 @@ public class MapRender {
     public static void setCameraAngle(float angle) { cameraAngle = angle; }
     public static void setCameraDistance(float dist) { cameraDistance = dist; }
 
-    public static void initCameraAndEnvironment(int width, int height, float hexRad, float hexH, Vector3 center) {
-        mapWidth = width;
-        mapHeight = height;
-        hexRadius = hexRad;
+    public static void initCameraAndEnvironment(HexLayout hexLayout, float hexH, Vector3 center) {
+        layout = hexLayout;
+        picker = new TilePicker(hexLayout);
         hexHeight = hexH;
         mapCenter = new Vector3(center);
 
@@ -57,9 +75,45 @@ public class MapRender {
 
         environment = new Environment();
         environment.set(new ColorAttribute(
-                ColorAttribute.AmbientLight, 0.8f, 0.8f, 0.8f, 1f));
-        // Add a sun-like directional light
-        environment.add(new DirectionalLight().set(1f, 1f, 0.95f, -0.7f, -1f, -0.5f));
+                ColorAttribute.AmbientLight, AMBIENT_LIGHT.r, AMBIENT_LIGHT.g, AMBIENT_LIGHT.b, AMBIENT_LIGHT.a));
+        environment.add(new DirectionalLight().set(SUN_COLOR.r, SUN_COLOR.g, SUN_COLOR.b,
+            SUN_DIRECTION.x, SUN_DIRECTION.y, SUN_DIRECTION.z));
+    }
+
+    /**
+     * Sets the hex column model used for tiles. Where GL30 is available, all tiles are
+     * drawn as instances of its mesh in one call, see {@link InstancedTileRenderer}.
+     * Otherwise each tile gets a {@link ModelInstance}, created lazily the first time it
+     * becomes visible, so only tiles near the camera ever get one.
+     */
+    public static void setTileModel(Model model) {
+        tileModel = model;
+        if (instancedRenderer != null) instancedRenderer.dispose();
+        instancedRenderer = null;
+        if (model != null && InstancedTileRenderer.isSupported()) {
+            try {
+                instancedRenderer = new InstancedTileRenderer(model, hexHeight);
+            } catch (RuntimeException e) {
+                Gdx.app.error(TAG, "Instanced rendering unavailable, drawing tiles one by one", e);
+            }
+        }
+    }
+
+    /**
+     * Turns instanced drawing of tiles on or off, e.g. to compare with drawing them one
+     * by one. Has no effect where instancing is unavailable.
+     */
+    public static void setInstancing(boolean enabled) {
+        instancing = enabled;
+    }
+
+    public static boolean isInstancing() {
+        return instancing && instancedRenderer != null;
+    }
+
+    public static void dispose() {
+        if (instancedRenderer != null) instancedRenderer.dispose();
+        instancedRenderer = null;
     }
 
     public static PerspectiveCamera getCamera() {
@@ -70,6 +124,10 @@ public class MapRender {
         return environment;
     }
 
+    public static HexLayout getLayout() {
+        return layout;
+    }
+
     public static ModelBatch getModelBatch() {
         return modelBatch;
     }
@@ -91,32 +149,36 @@ public class MapRender {
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
     }
 
-    public static void render(HexMap hexMap, Gui gui, float hexRadius, Vector3 cameraOffset) {
+    public static void render(HexMap hexMap, Gui gui, Vector3 cameraOffset) {
+        if (isInstancing()) {
+            renderInstanced(hexMap);
+            return;
+        }
         // Optionally update camera here if needed (already done in updateCamera)
         Vector3 camPos = camera.position;
-        float hexWidth = hexRadius * 2f;
-        float hexH = (float)Math.sqrt(3) * hexRadius;
-        int camTileX = Math.round(camPos.x / (hexRadius * 1.5f));
+        float hexWidth = layout.getRadius() * 2f;
+        float hexH = layout.getRowSpacing();
+        int camTileX = Math.round(camPos.x / layout.getColumnSpacing());
         int camTileY = Math.round(camPos.z / hexH);
-        int tileRenderRadius = Math.max(8, (int)(renderRadius / (hexRadius * 1.5f)) + 2);
+        int tileRenderRadius = Math.max(8, (int)(renderRadius / layout.getColumnSpacing()) + 2);
 
         int minX = Math.max(0, camTileX - tileRenderRadius);
-        int maxX = Math.min(mapWidth, camTileX + tileRenderRadius);
+        int maxX = Math.min(layout.getWidth(), camTileX + tileRenderRadius);
         int minY = Math.max(0, camTileY - tileRenderRadius);
-        int maxY = Math.min(mapHeight, camTileY + tileRenderRadius);
+        int maxY = Math.min(layout.getHeight(), camTileY + tileRenderRadius);
 
+        long deadline = System.nanoTime() + INSTANCE_BUDGET_NANOS;
         modelBatch.begin(camera);
         for (int x = minX; x < maxX; x++) {
-            float px = x * hexRadius * 1.5f;
-            float yOffset = (x % 2) * hexH / 2f;
+            float px = layout.worldX(x);
             for (int y = minY; y < maxY; y++) {
-                float py = y * hexH + yOffset;
+                float py = layout.worldZ(x, y);
                 if (Math.abs(px - camPos.x) > renderRadius + hexWidth || Math.abs(py - camPos.z) > renderRadius + hexH)
                     continue;
                 float dist = camPos.dst(px, 0, py);
                 if (dist < renderRadius) {
                     Tile tile = hexMap.getTile(x, y);
-                    ModelInstance instance = tile.getModelInstance();
+                    ModelInstance instance = tileInstance(tile, px, py, deadline);
                     if (instance != null) {
                         modelBatch.render(instance, environment);
                     }
@@ -130,6 +192,82 @@ public class MapRender {
         modelBatch.end();
     }
 
+    /**
+     * Draws the tiles in one instanced call, rebuilding their instance data from the map
+     * every frame, then the cubes placed on them through the model batch.
+     */
+    private static void renderInstanced(HexMap hexMap) {
+        Vector3 camPos = camera.position;
+        instances.build(hexMap, layout, camPos.x, camPos.y, camPos.z, renderRadius, hoveredX, hoveredY);
+        instancedRenderer.render(camera, instances, AMBIENT_LIGHT, SUN_COLOR, SUN_DIRECTION);
+
+        TileStore store = hexMap.getStore();
+        int cols = hexMap.getCols();
+        modelBatch.begin(camera);
+        for (int i = 0; i < instances.size(); i++) {
+            int tileIndex = instances.getTile(i);
+            Tile tile = store.getView(tileIndex / cols, tileIndex % cols);
+            if (tile != null && tile.getCubeInstance() != null) {
+                modelBatch.render(tile.getCubeInstance(), environment);
+            }
+        }
+        modelBatch.end();
+    }
+
+    /**
+     * Brings tile instances up to date with the map. A full change such as a regeneration,
+     * or a swap to another map, drops all instances so they are rebuilt lazily under
+     * {@link #INSTANCE_BUDGET_NANOS} per frame; smaller edits only refresh the instances of
+     * the tiles that changed.
+     */
+    public static void syncTiles(HexMap hexMap) {
+        ChangeTracker changes = hexMap.getChanges();
+        if (hexMap != syncedMap || changes.isFullyChangedSince(syncedVersion)) {
+            hexMap.clearTiles();
+            hoveredTile = null;
+        } else if (changes.getVersion() != syncedVersion) {
+            syncedMap = hexMap;
+            if (!changes.changesSince(syncedVersion, (row, col, layers) -> refreshTile(row, col))) {
+                changes.dirtyRegionsSince(syncedVersion, (rowStart, colStart, rowEnd, colEnd) -> {
+                    for (int row = rowStart; row < rowEnd; row++) {
+                        for (int col = colStart; col < colEnd; col++) {
+                            refreshTile(row, col);
+                        }
+                    }
+                });
+            }
+        }
+        syncedMap = hexMap;
+        syncedVersion = changes.getVersion();
+    }
+
+    private static void refreshTile(int x, int y) {
+        Tile tile = syncedMap.getStore().getView(x, y);
+        if (tile == null || tile.getModelInstance() == null) return;
+        float px = layout.worldX(x);
+        float py = layout.worldZ(x, y);
+        ModelInstance instance = tile.getModelInstance();
+        instance.transform.setToTranslation(px, tile.getHeight() / 2f, py);
+        instance.transform.scale(1f, tile.getHeight() / hexHeight, 1f);
+        instance.materials.get(0).set(ColorAttribute.createDiffuse(tile.getColor()));
+    }
+
+    /**
+     * The tile's instance, created if missing and the frame's {@code deadline} has not
+     * passed yet; null otherwise.
+     */
+    private static ModelInstance tileInstance(Tile tile, float px, float py, long deadline) {
+        ModelInstance instance = tile.getModelInstance();
+        if (instance == null && tileModel != null && System.nanoTime() < deadline) {
+            tile.setModel(tileModel);
+            instance = tile.getModelInstance();
+            instance.transform.setToTranslation(px, tile.getHeight() / 2f, py);
+            instance.transform.scale(1f, tile.getHeight() / hexHeight, 1f);
+            instance.materials.get(0).set(ColorAttribute.createDiffuse(tile.getColor()));
+        }
+        return instance;
+    }
+
     public static void handleCameraInput(Vector3 cameraOffset, float delta) {
         float panSpeed = 10f * delta;
         float zoomSpeed = 10f * delta;
@@ -179,40 +317,28 @@ public class MapRender {
         }
     }
 
-    public static void updateHoveredTile(Gui gui, HexMap hexMap, float HEX_RADIUS) {
+    public static void updateHoveredTile(Gui gui, HexMap hexMap) {
         hoveredX = -1;
         hoveredY = -1;
         if (gui.getStage().hit(Gdx.input.getX(), Gdx.graphics.getHeight() - Gdx.input.getY(), true) != null) {
             return;
         }
         Ray ray = camera.getPickRay(Gdx.input.getX(), Gdx.input.getY());
-        final float[] minDist = {Float.MAX_VALUE};
-        hexMap.iterate((x, y, tile) -> {
-            float px = x * HEX_RADIUS * 1.5f;
-            float py = y * HEX_RADIUS * (float)Math.sqrt(3) + (x % 2) * HEX_RADIUS * (float)Math.sqrt(3) / 2f;
-            float height = tile.getHeight();
-
-            BoundingBox bbox = new BoundingBox(
-                new Vector3(px - HEX_RADIUS, 0, py - HEX_RADIUS),
-                new Vector3(px + HEX_RADIUS, height, py + HEX_RADIUS)
-            );
-
-            if (com.badlogic.gdx.math.Intersector.intersectRayBoundsFast(ray, bbox)) {
-                float dist = ray.origin.dst(px, 0, py);
-                if (dist < minDist[0]) {
-                    if(hoveredTile != null) {
-                        hoveredTile.getModelInstance().materials.get(0).set(ColorAttribute.createDiffuse(hoveredTile.getColor()));
-                    }
-                    minDist[0] = dist;
-                    hoveredX = x;
-                    hoveredY = y;
-                    Tile t = hexMap.getTile(x, y);
-                    ColorAttribute orig = (ColorAttribute) t.getModelInstance().materials.get(0).get(ColorAttribute.Diffuse);
-                    Color hoverColor = new Color(orig.color).lerp(Color.RED, 0.5f);
-                    t.getModelInstance().materials.get(0).set(ColorAttribute.createDiffuse(hoverColor));
-                    hoveredTile = t;
-                }
-            }
-        });
+        if (!picker.pick(hexMap, ray, true)) return;
+        hoveredX = picker.getX();
+        hoveredY = picker.getY();
+        if (hoveredTile != null && hoveredTile.getModelInstance() != null) {
+            hoveredTile.getModelInstance().materials.get(0).set(ColorAttribute.createDiffuse(hoveredTile.getColor()));
+        }
+        Tile t = hexMap.getTile(hoveredX, hoveredY);
+        // Not instantiated yet while a new map is being built up over several frames
+        if (t.getModelInstance() == null) {
+            hoveredTile = null;
+            return;
+        }
+        ColorAttribute orig = (ColorAttribute) t.getModelInstance().materials.get(0).get(ColorAttribute.Diffuse);
+        Color hoverColor = new Color(orig.color).lerp(Color.RED, 0.5f);
+        t.getModelInstance().materials.get(0).set(ColorAttribute.createDiffuse(hoverColor));
+        hoveredTile = t;
     }
 }
@@ -0,0 +1,296 @@
+package pl.julkot1.game.map;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Storage whose layers live outside the Java heap in a memory-mapped file. Opening a
+ * map only maps the file, pages are loaded by the OS on first touch, so maps larger
+ * than the heap open instantly and do not add to GC work.
+ * <p>
+ * File layout (little endian): a {@value #HEADER_SIZE} byte header followed by the
+ * height, temperature, moisture and color layers ({@code 4 * rows * cols} bytes each)
+ * and the biome, terrain, level, temperature type and moisture type layers
+ * ({@code rows * cols} bytes each). Each layer is mapped in segments because a single
+ * mapping is limited to 2 GB.
+ */
+public class MappedTileStore implements TileStore, Closeable {
+    public static final int MAGIC = 0x4845584C; // "HEXL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_TILES = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_TILES - 1;
+
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private final int rows;
+    private final int cols;
+
+    private final FloatBuffer[] height;
+    private final FloatBuffer[] temperature;
+    private final FloatBuffer[] moisture;
+    private final IntBuffer[] color;
+    private final ByteBuffer[] biome;
+    private final ByteBuffer[] terrain;
+    private final ByteBuffer[] level;
+    private final ByteBuffer[] temperatureType;
+    private final ByteBuffer[] moistureType;
+
+    /** Lazily created tile views, allocated one row at a time. */
+    private final Tile[][] views;
+
+    private MappedTileStore(FileChannel channel, int rows, int cols, FileChannel.MapMode mode) throws IOException {
+        this.channel = channel;
+        this.rows = rows;
+        this.cols = cols;
+        this.views = new Tile[rows][];
+
+        long tiles = (long) rows * cols;
+        long offset = HEADER_SIZE;
+        height = floats(mapLayer(mode, offset, tiles, Float.BYTES));
+        offset += tiles * Float.BYTES;
+        temperature = floats(mapLayer(mode, offset, tiles, Float.BYTES));
+        offset += tiles * Float.BYTES;
+        moisture = floats(mapLayer(mode, offset, tiles, Float.BYTES));
+        offset += tiles * Float.BYTES;
+        color = ints(mapLayer(mode, offset, tiles, Integer.BYTES));
+        offset += tiles * Integer.BYTES;
+        biome = mapLayer(mode, offset, tiles, 1);
+        offset += tiles;
+        terrain = mapLayer(mode, offset, tiles, 1);
+        offset += tiles;
+        level = mapLayer(mode, offset, tiles, 1);
+        offset += tiles;
+        temperatureType = mapLayer(mode, offset, tiles, 1);
+        offset += tiles;
+        moistureType = mapLayer(mode, offset, tiles, 1);
+    }
+
+    /**
+     * Creates (or truncates) a map file of the given size. All layers start zeroed.
+     */
+    public static MappedTileStore create(Path file, int rows, int cols) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).rewind();
+            channel.write(header, 0);
+            return new MappedTileStore(channel, rows, cols, FileChannel.MapMode.READ_WRITE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps an existing map file.
+     *
+     * @param writable Whether setters are allowed; read-only maps throw on write.
+     */
+    public static MappedTileStore open(Path file, boolean writable) throws IOException {
+        FileChannel channel = writable
+            ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("Not a mapped hex map file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported mapped hex map version " + version + " in " + file);
+            }
+            int rows = header.getInt();
+            int cols = header.getInt();
+            long expected = HEADER_SIZE + (long) rows * cols * MapLayers.BYTES_PER_TILE;
+            if (rows <= 0 || cols <= 0 || channel.size() < expected) {
+                throw new IOException("Truncated mapped hex map file: " + file);
+            }
+            return new MappedTileStore(channel, rows, cols,
+                writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer[] mapLayer(FileChannel.MapMode mode, long offset, long tiles, int bytesPerTile) throws IOException {
+        int segments = (int) ((tiles + SEGMENT_TILES - 1) >>> SEGMENT_SHIFT);
+        ByteBuffer[] buffers = new ByteBuffer[segments];
+        for (int i = 0; i < segments; i++) {
+            long segmentTiles = Math.min(SEGMENT_TILES, tiles - ((long) i << SEGMENT_SHIFT));
+            long position = offset + ((long) i << SEGMENT_SHIFT) * bytesPerTile;
+            MappedByteBuffer buffer = channel.map(mode, position, segmentTiles * bytesPerTile);
+            mappings.add(buffer);
+            buffers[i] = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffers;
+    }
+
+    private static FloatBuffer[] floats(ByteBuffer[] buffers) {
+        FloatBuffer[] result = new FloatBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) result[i] = buffers[i].asFloatBuffer();
+        return result;
+    }
+
+    private static IntBuffer[] ints(ByteBuffer[] buffers) {
+        IntBuffer[] result = new IntBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) result[i] = buffers[i].asIntBuffer();
+        return result;
+    }
+
+    /**
+     * Writes dirty pages back to the file.
+     */
+    public void force() {
+        for (MappedByteBuffer mapping : mappings) {
+            if (!mapping.isReadOnly()) mapping.force();
+        }
+        try {
+            channel.force(false);
+        } catch (IOException ignored) {
+            // Pages are still written back by the OS when the mapping is released
+        }
+    }
+
+    /**
+     * Closes the file channel. The mappings stay valid until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public int getRows() { return rows; }
+
+    @Override
+    public int getCols() { return cols; }
+
+    @Override
+    public int getChunkSize() { return Math.max(rows, cols); }
+
+    private long index(int row, int col) {
+        return (long) row * cols + col;
+    }
+
+    private static int segment(long index) {
+        return (int) (index >>> SEGMENT_SHIFT);
+    }
+
+    private static int offset(long index) {
+        return (int) (index & SEGMENT_MASK);
+    }
+
+    @Override
+    public float getHeight(int row, int col) { long i = index(row, col); return height[segment(i)].get(offset(i)); }
+    @Override
+    public void setHeight(int row, int col, float value) { long i = index(row, col); height[segment(i)].put(offset(i), value); }
+
+    @Override
+    public float getTemperature(int row, int col) { long i = index(row, col); return temperature[segment(i)].get(offset(i)); }
+    @Override
+    public void setTemperature(int row, int col, float value) { long i = index(row, col); temperature[segment(i)].put(offset(i), value); }
+
+    @Override
+    public float getMoisture(int row, int col) { long i = index(row, col); return moisture[segment(i)].get(offset(i)); }
+    @Override
+    public void setMoisture(int row, int col, float value) { long i = index(row, col); moisture[segment(i)].put(offset(i), value); }
+
+    @Override
+    public int getBiome(int row, int col) { long i = index(row, col); return biome[segment(i)].get(offset(i)); }
+    @Override
+    public void setBiome(int row, int col, int ordinal) { long i = index(row, col); biome[segment(i)].put(offset(i), (byte) ordinal); }
+
+    @Override
+    public int getTerrain(int row, int col) { long i = index(row, col); return terrain[segment(i)].get(offset(i)); }
+    @Override
+    public void setTerrain(int row, int col, int ordinal) { long i = index(row, col); terrain[segment(i)].put(offset(i), (byte) ordinal); }
+
+    @Override
+    public int getLevel(int row, int col) { long i = index(row, col); return level[segment(i)].get(offset(i)); }
+    @Override
+    public void setLevel(int row, int col, int ordinal) { long i = index(row, col); level[segment(i)].put(offset(i), (byte) ordinal); }
+
+    @Override
+    public int getTemperatureType(int row, int col) { long i = index(row, col); return temperatureType[segment(i)].get(offset(i)); }
+    @Override
+    public void setTemperatureType(int row, int col, int ordinal) { long i = index(row, col); temperatureType[segment(i)].put(offset(i), (byte) ordinal); }
+
+    @Override
+    public int getMoistureType(int row, int col) { long i = index(row, col); return moistureType[segment(i)].get(offset(i)); }
+    @Override
+    public void setMoistureType(int row, int col, int ordinal) { long i = index(row, col); moistureType[segment(i)].put(offset(i), (byte) ordinal); }
+
+    @Override
+    public int getColor(int row, int col) { long i = index(row, col); return color[segment(i)].get(offset(i)); }
+    @Override
+    public void setColor(int row, int col, int rgba8888) { long i = index(row, col); color[segment(i)].put(offset(i), rgba8888); }
+
+    /**
+     * Bulk copy, one row at a time, straight into the mapped buffers.
+     */
+    @Override
+    public void write(MapLayers block, int rowOffset, int colOffset) {
+        int blockCols = block.getCols();
+        for (int r = 0; r < block.getRows(); r++) {
+            int from = r * blockCols;
+            long to = index(rowOffset + r, colOffset);
+            int done = 0;
+            while (done < blockCols) {
+                long i = to + done;
+                int seg = segment(i);
+                int off = offset(i);
+                int len = Math.min(blockCols - done, SEGMENT_TILES - off);
+                int src = from + done;
+                height[seg].put(off, block.height, src, len);
+                temperature[seg].put(off, block.temperature, src, len);
+                moisture[seg].put(off, block.moisture, src, len);
+                color[seg].put(off, block.color, src, len);
+                biome[seg].put(off, block.biome, src, len);
+                terrain[seg].put(off, block.terrain, src, len);
+                level[seg].put(off, block.level, src, len);
+                temperatureType[seg].put(off, block.temperatureType, src, len);
+                moistureType[seg].put(off, block.moistureType, src, len);
+                done += len;
+            }
+        }
+    }
+
+    @Override
+    public Tile getView(int row, int col) {
+        Tile[] rowViews = views[row];
+        return rowViews == null ? null : rowViews[col];
+    }
+
+    @Override
+    public void setView(int row, int col, Tile tile) {
+        Tile[] rowViews = views[row];
+        if (rowViews == null) {
+            rowViews = new Tile[cols];
+            views[row] = rowViews;
+        }
+        rowViews[col] = tile;
+    }
+
+    @Override
+    public void clearViews() {
+        Arrays.fill(views, null);
+    }
+}
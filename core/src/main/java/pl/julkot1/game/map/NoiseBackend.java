@@ -0,0 +1,69 @@
+package pl.julkot1.game.map;
+
+/**
+ * Source of the five normalized generator noises, evaluated a whole run of tiles along
+ * a row at a time so implementations can batch the work, e.g. with SIMD. Every value is
+ * in [0, 1] and must stay within {@link #TOLERANCE} of the Joise modules of
+ * {@link MapGenerator.NoiseModules}, the reference backend, which
+ * {@link MapGenerator#setNoiseBackend} checks with {@link #maxDeviation}.
+ */
+public interface NoiseBackend {
+    /** Largest allowed absolute difference from the reference backend per sample. */
+    double TOLERANCE = 1e-5;
+
+    interface Factory {
+        NoiseBackend create(int seed);
+    }
+
+    /**
+     * Samples the tiles {@code (row, colStart)} to {@code (row, colStart + count - 1)}
+     * into the first {@code count} entries of {@code out}.
+     */
+    void sampleRow(int row, int colStart, int count, NoiseRow out);
+
+    /**
+     * Samples every {@code step}-th tile of a row, starting at {@code (row, colStart)},
+     * into the first {@code count} entries of {@code out}. The default samples tile by tile.
+     */
+    default void sampleStrided(int row, int colStart, int step, int count, NoiseRow out) {
+        NoiseRow one = new NoiseRow(1);
+        for (int i = 0; i < count; i++) {
+            sampleRow(row, colStart + i * step, 1, one);
+            out.continent[i] = one.continent[0];
+            out.island[i] = one.island[0];
+            out.base[i] = one.base[0];
+            out.humidity[i] = one.humidity[0];
+            out.temperature[i] = one.temperature[0];
+        }
+    }
+
+    /**
+     * The backend to sample on the calling thread. Backends that are not thread-safe
+     * return a per-thread copy; the default is for thread-safe ones.
+     */
+    default NoiseBackend local() {
+        return this;
+    }
+
+    /**
+     * Largest absolute difference between two backends over the tiles of a
+     * {@code rows} by {@code cols} map.
+     */
+    static double maxDeviation(NoiseBackend reference, NoiseBackend candidate, int rows, int cols) {
+        NoiseRow expected = new NoiseRow(cols);
+        NoiseRow actual = new NoiseRow(cols);
+        double max = 0;
+        for (int row = 0; row < rows; row++) {
+            reference.sampleRow(row, 0, cols, expected);
+            candidate.sampleRow(row, 0, cols, actual);
+            for (int i = 0; i < cols; i++) {
+                max = Math.max(max, Math.abs(expected.continent[i] - actual.continent[i]));
+                max = Math.max(max, Math.abs(expected.island[i] - actual.island[i]));
+                max = Math.max(max, Math.abs(expected.base[i] - actual.base[i]));
+                max = Math.max(max, Math.abs(expected.humidity[i] - actual.humidity[i]));
+                max = Math.max(max, Math.abs(expected.temperature[i] - actual.temperature[i]));
+            }
+        }
+        return max;
+    }
+}
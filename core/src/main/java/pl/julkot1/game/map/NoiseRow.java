@@ -0,0 +1,24 @@
+package pl.julkot1.game.map;
+
+/**
+ * Reusable buffers for one run of noise samples, see {@link NoiseBackend#sampleRow}.
+ */
+public final class NoiseRow {
+    public final double[] continent;
+    public final double[] island;
+    public final double[] base;
+    public final double[] humidity;
+    public final double[] temperature;
+
+    public NoiseRow(int capacity) {
+        continent = new double[capacity];
+        island = new double[capacity];
+        base = new double[capacity];
+        humidity = new double[capacity];
+        temperature = new double[capacity];
+    }
+
+    public int capacity() {
+        return continent.length;
+    }
+}
@@ -0,0 +1,373 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.Gdx;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a map chunk by chunk on background workers, nearest to a focus tile first,
+ * so the area around the camera shows up within a frame or two while the rest fills in.
+ * <p>
+ * Starting resets the map to the "not generated yet" state. Workers generate chunks
+ * into private buffers, always picking the pending chunk closest to the current focus,
+ * and {@link #update()} copies finished chunks into the map on the render thread, marking
+ * their regions changed so renderers and the minimap refresh just those tiles. Rivers
+ * and lakes need the whole map, so the workers also assemble the chunks into a private
+ * copy; the worker finishing the last chunk runs the hydrology, terrain and biome stages
+ * on it again, marks lakes and stores it in the cache, after which {@link #update()}
+ * copies the final tiles over chunk by chunk. The result is the same as
+ * {@link MapGenerator#generateNoiseMap(HexMap)}; maps without flat layers get no rivers.
+ */
+public class ProgressiveGenerator {
+    public static final int CHUNK_SIZE = 32;
+    /** Time {@link #update()} may spend copying chunks per frame. */
+    private static final long PUBLISH_BUDGET_NANOS = 3_000_000;
+    private static final String TAG = "ProgressiveGenerator";
+
+    private final ExecutorService workers;
+    private final int threads;
+    private Job job;
+
+    public ProgressiveGenerator() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param threads Number of background workers.
+     */
+    public ProgressiveGenerator(int threads) {
+        this.threads = threads;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "map-generator-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts generating {@code map} for the current {@link MapGenerator#SEED} and
+     * {@link MapGenerator#getThresholds() thresholds}, cancelling
+     * any generation still running. A map found in {@code cache} (which may be null) is
+     * loaded at once; chunked maps, which generate lazily anyway, are handed to
+     * {@link MapGenerator#generateNoiseMap(HexMap)}.
+     */
+    public void start(HexMap map, GenerationCache cache, int focusX, int focusY) {
+        cancel();
+        if (map.getStore() instanceof ChunkedTileStore) {
+            MapGenerator.generateNoiseMap(map);
+            return;
+        }
+        MapGenerator.Thresholds thresholds = MapGenerator.getThresholds();
+        MapGenerator.Params params = MapGenerator.Params.of(MapGenerator.SEED, thresholds);
+        if (cache != null) {
+            long start = System.nanoTime();
+            if (cache.load(map, params)) {
+                Gdx.app.debug(TAG, "Loaded " + map.getRows() + "x" + map.getCols() + " map from cache in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+                return;
+            }
+        }
+        clear(map);
+        job = new Job(map, cache, params, thresholds);
+        job.setFocus(focusX, focusY);
+        for (int i = 0; i < threads; i++) {
+            Job started = job;
+            workers.execute(() -> started.work());
+        }
+    }
+
+    /**
+     * Tile that pending chunks are prioritized around, e.g. the one the camera looks at.
+     */
+    public void setFocus(int x, int y) {
+        if (job != null) job.setFocus(x, y);
+    }
+
+    /**
+     * Copies finished chunks into the map for at most a few milliseconds. Call once per
+     * frame on the render thread, before the map is synced for rendering. A generation
+     * that failed on a worker, which logs the error, ends here with the chunks copied so far.
+     *
+     * @return Whether a generation is still running.
+     */
+    public boolean update() {
+        if (job == null) return false;
+        if (job.failed) {
+            // Chunks already copied stay, the rest of the map remains ungenerated
+            job.cancelled = true;
+            job = null;
+            return false;
+        }
+        if (job.publish()) {
+            job = null;
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isRunning() {
+        return job != null;
+    }
+
+    /**
+     * Fraction of the running generation copied into the map, 1 if none runs. Every chunk
+     * is copied twice: as generated, then with rivers and lakes.
+     */
+    public float getProgress() {
+        return job == null ? 1f : (job.published + job.finalPublished) / (2f * job.chunkCount);
+    }
+
+    /**
+     * Stops the running generation. Chunks already copied stay in the map.
+     */
+    public void cancel() {
+        if (job != null) {
+            job.cancelled = true;
+            job = null;
+        }
+    }
+
+    public void dispose() {
+        cancel();
+        workers.shutdownNow();
+    }
+
+    /** Resets every tile to the "not generated yet" state, see {@link MapLayers#clear()}. */
+    private static void clear(HexMap map) {
+        MapLayers layers = map.getLayers();
+        if (layers != null) {
+            layers.clear();
+        } else {
+            MapLayers empty = new MapLayers(Math.min(CHUNK_SIZE, map.getRows()), map.getCols());
+            for (int row = 0; row < map.getRows(); row += empty.getRows()) {
+                int rows = Math.min(empty.getRows(), map.getRows() - row);
+                if (rows != empty.getRows()) empty = new MapLayers(rows, map.getCols());
+                map.getStore().write(empty, row, 0);
+            }
+        }
+        map.setHydrology(null);
+        map.getChanges().markAll();
+    }
+
+    private static final class Job {
+        final HexMap map;
+        final GenerationCache cache;
+        final MapGenerator.Params params;
+        final MapGenerator.Thresholds thresholds;
+        final int chunkRows;
+        final int chunkCols;
+        final int chunkCount;
+        final long startNanos = System.nanoTime();
+        // Private copy the chunks are assembled into and hydrology runs on, off the render thread
+        final HexMap result;
+        // Full-map fields hydrology is computed from once all chunks are in, null without flat layers
+        final Map<String, double[]> fields;
+        // Chunk offsets from the focus, nearest first, packed as row * (2 * chunkCols - 1) + col
+        final int[] order;
+        final boolean[] taken;
+        final AtomicInteger generated = new AtomicInteger();
+        final ConcurrentLinkedQueue<Chunk> finished = new ConcurrentLinkedQueue<>();
+        volatile boolean cancelled;
+        volatile boolean failed;
+        volatile boolean completed;
+        volatile int focusChunkRow;
+        volatile int focusChunkCol;
+        // Guarded by this, see next()
+        int orderRow = -1;
+        int orderCol = -1;
+        int cursor;
+        int takenCount;
+        // Render thread only
+        int published;
+        int finalPublished;
+
+        Job(HexMap map, GenerationCache cache, MapGenerator.Params params, MapGenerator.Thresholds thresholds) {
+            this.map = map;
+            this.cache = cache;
+            this.params = params;
+            this.thresholds = thresholds;
+            this.chunkRows = (map.getRows() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            this.chunkCols = (map.getCols() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            this.chunkCount = chunkRows * chunkCols;
+            this.taken = new boolean[chunkCount];
+            this.order = nearestFirst(chunkRows, chunkCols);
+            this.result = new HexMap(map.getRows(), map.getCols());
+            if (map.getLayers() != null) {
+                int tiles = map.getRows() * map.getCols();
+                fields = new HashMap<>();
+                fields.put(GeneratorPipeline.ELEVATION, new double[tiles]);
+                fields.put(GeneratorPipeline.HUMIDITY, new double[tiles]);
+                fields.put(GeneratorPipeline.TEMPERATURE, new double[tiles]);
+            } else {
+                fields = null;
+            }
+        }
+
+        /** Every offset a chunk can have from the focus, counting-sorted by squared distance. */
+        static int[] nearestFirst(int chunkRows, int chunkCols) {
+            int width = 2 * chunkCols - 1;
+            int[] order = new int[(2 * chunkRows - 1) * width];
+            int[] counts = new int[(chunkRows - 1) * (chunkRows - 1) + (chunkCols - 1) * (chunkCols - 1) + 2];
+            for (int i = 0; i < order.length; i++) {
+                counts[distance(i, width, chunkRows, chunkCols) + 1]++;
+            }
+            for (int d = 1; d < counts.length; d++) counts[d] += counts[d - 1];
+            for (int i = 0; i < order.length; i++) {
+                order[counts[distance(i, width, chunkRows, chunkCols)]++] = i;
+            }
+            return order;
+        }
+
+        static int distance(int offset, int width, int chunkRows, int chunkCols) {
+            int dr = offset / width - (chunkRows - 1);
+            int dc = offset % width - (chunkCols - 1);
+            return dr * dr + dc * dc;
+        }
+
+        void setFocus(int x, int y) {
+            focusChunkRow = Math.max(0, Math.min(chunkRows - 1, x / CHUNK_SIZE));
+            focusChunkCol = Math.max(0, Math.min(chunkCols - 1, y / CHUNK_SIZE));
+        }
+
+        /** Worker loop: generates the nearest pending chunk until none is left. */
+        void work() {
+            try {
+                generateChunks();
+            } catch (RuntimeException e) {
+                Gdx.app.error(TAG, "Progressive generation failed", e);
+                failed = true;
+                cancelled = true;
+            }
+        }
+
+        private void generateChunks() {
+            NoiseBackend noise = MapGenerator.createNoise(params.seed()).local();
+            MapGenerator.BiomeResolver biomeResolver = new MapGenerator.SimpleBiomeResolver();
+            int index;
+            while (!cancelled && (index = next()) >= 0) {
+                int rowOffset = (index / chunkCols) * CHUNK_SIZE;
+                int colOffset = (index % chunkCols) * CHUNK_SIZE;
+                MapLayers layers = new MapLayers(
+                    Math.min(CHUNK_SIZE, map.getRows() - rowOffset),
+                    Math.min(CHUNK_SIZE, map.getCols() - colOffset));
+                Map<String, double[]> chunkFields = new HashMap<>();
+                GeneratorPipeline.fill(noise, biomeResolver, layers, rowOffset, colOffset, chunkFields, thresholds);
+                if (fields != null) {
+                    for (Map.Entry<String, double[]> field : fields.entrySet()) {
+                        copy(chunkFields.get(field.getKey()), layers, field.getValue(), rowOffset, colOffset);
+                    }
+                }
+                // Chunks never overlap, so workers write the result without locking
+                result.getLayers().copyFrom(layers, 0, 0, rowOffset, colOffset, layers.getRows(), layers.getCols());
+                finished.add(new Chunk(layers, rowOffset, colOffset));
+                if (generated.incrementAndGet() == chunkCount) complete();
+            }
+        }
+
+        /** Copies a chunk's field into the full-map field. */
+        void copy(double[] chunk, MapLayers layers, double[] full, int rowOffset, int colOffset) {
+            int cols = map.getCols();
+            for (int row = 0; row < layers.getRows(); row++) {
+                System.arraycopy(chunk, row * layers.getCols(), full, (rowOffset + row) * cols + colOffset,
+                    layers.getCols());
+            }
+        }
+
+        /**
+         * Takes the pending chunk closest to the focus, or returns -1 if none is left. The
+         * cursor only passes offsets that are taken or off the map, so it restarts only when
+         * the focus moves.
+         */
+        synchronized int next() {
+            if (takenCount == chunkCount) return -1;
+            int focusRow = focusChunkRow;
+            int focusCol = focusChunkCol;
+            if (focusRow != orderRow || focusCol != orderCol) {
+                orderRow = focusRow;
+                orderCol = focusCol;
+                cursor = 0;
+            }
+            int width = 2 * chunkCols - 1;
+            while (cursor < order.length) {
+                int offset = order[cursor++];
+                int row = focusRow + offset / width - (chunkRows - 1);
+                int col = focusCol + offset % width - (chunkCols - 1);
+                if (row < 0 || row >= chunkRows || col < 0 || col >= chunkCols) continue;
+                int index = row * chunkCols + col;
+                if (taken[index]) continue;
+                taken[index] = true;
+                takenCount++;
+                return index;
+            }
+            return -1;
+        }
+
+        /** Runs on the worker that generated the last chunk: whole-map stages and the cache. */
+        void complete() {
+            if (cancelled) return;
+            long chunksDone = System.nanoTime();
+            if (fields != null) {
+                GeneratorPipeline.hydrate(result, new MapGenerator.SimpleBiomeResolver(), fields, thresholds);
+                fields.clear();
+            }
+            long hydrated = System.nanoTime();
+            result.getComponents().markLakes(result, MapGenerator.LAKE_MAX_TILES);
+            Gdx.app.debug(TAG, "Generated " + map.getRows() + "x" + map.getCols() + " map progressively in "
+                + chunkCount + " chunks: " + (chunksDone - startNanos) / 1_000_000 + " ms, hydrology "
+                + (hydrated - chunksDone) / 1_000_000 + " ms, lakes "
+                + (System.nanoTime() - hydrated) / 1_000_000 + " ms");
+            if (cache != null) cache.store(result, params);
+            completed = true;
+        }
+
+        /**
+         * Copies finished chunks into the map until the frame budget is spent, at least one
+         * per call: first the chunks as generated, then, once the whole-map stages are done,
+         * the final tiles chunk by chunk.
+         *
+         * @return Whether the map holds the final result.
+         */
+        boolean publish() {
+            long deadline = System.nanoTime() + PUBLISH_BUDGET_NANOS;
+            Chunk chunk;
+            while ((chunk = finished.poll()) != null) {
+                map.getStore().write(chunk.layers, chunk.rowOffset, chunk.colOffset);
+                markChanged(chunk.rowOffset, chunk.colOffset, chunk.layers.getRows(), chunk.layers.getCols());
+                published++;
+                if (System.nanoTime() >= deadline) return false;
+            }
+            if (published < chunkCount || !completed) return false;
+            while (finalPublished < chunkCount) {
+                int rowOffset = (finalPublished / chunkCols) * CHUNK_SIZE;
+                int colOffset = (finalPublished % chunkCols) * CHUNK_SIZE;
+                int rows = Math.min(CHUNK_SIZE, map.getRows() - rowOffset);
+                int cols = Math.min(CHUNK_SIZE, map.getCols() - colOffset);
+                if (map.getLayers() != null) {
+                    map.getLayers().copyFrom(result.getLayers(), rowOffset, colOffset, rowOffset, colOffset, rows, cols);
+                } else {
+                    MapLayers block = new MapLayers(rows, cols);
+                    block.copyFrom(result.getLayers(), rowOffset, colOffset, 0, 0, rows, cols);
+                    map.getStore().write(block, rowOffset, colOffset);
+                }
+                markChanged(rowOffset, colOffset, rows, cols);
+                finalPublished++;
+                if (finalPublished < chunkCount && System.nanoTime() >= deadline) return false;
+            }
+            map.setHydrology(result.getHydrology());
+            return true;
+        }
+
+        void markChanged(int rowOffset, int colOffset, int rows, int cols) {
+            map.getChanges().markRegion(rowOffset, colOffset, rowOffset + rows, colOffset + cols);
+        }
+    }
+
+    private record Chunk(MapLayers layers, int rowOffset, int colOffset) {
+    }
+}
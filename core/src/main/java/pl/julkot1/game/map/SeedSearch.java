@@ -0,0 +1,428 @@
+package pl.julkot1.game.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches a range of seeds for maps meeting {@link Constraints}. Every candidate is
+ * first generated on a coarse grid, every {@link #getCoarseStep() coarse step}-th tile in
+ * both directions, and rejected if it misses a constraint by more than the coarse
+ * tolerance. Only the survivors are generated at full size, reusing the calibrated
+ * noise, and checked exactly.
+ * <p>
+ * Candidates are spread over a pool of workers; accepted seeds are streamed to a
+ * {@link Listener} together with the current ranking, best {@link Evaluation#margin()}
+ * first.
+ */
+public class SeedSearch {
+    public static final int DEFAULT_COARSE_STEP = 4;
+    public static final float DEFAULT_COARSE_TOLERANCE = 0.25f;
+
+    private static final int WATER = Tile.TerrainType.WATER.ordinal();
+    private static final int BIOMES = Tile.BiomeType.values().length;
+
+    private final int rows;
+    private final int cols;
+    private final Constraints constraints;
+    private final int coarseStep;
+    private final float coarseTolerance;
+
+    public SeedSearch(int rows, int cols, Constraints constraints) {
+        this(rows, cols, constraints, DEFAULT_COARSE_STEP, DEFAULT_COARSE_TOLERANCE);
+    }
+
+    /**
+     * @param coarseStep Tiles between coarse samples; 1 disables the coarse pass.
+     * @param coarseTolerance How far below zero a coarse {@link Evaluation#margin()} may
+     *                        be before the seed is rejected without full generation.
+     */
+    public SeedSearch(int rows, int cols, Constraints constraints, int coarseStep, float coarseTolerance) {
+        if (coarseStep < 1) throw new IllegalArgumentException("Coarse step must be positive: " + coarseStep);
+        this.rows = rows;
+        this.cols = cols;
+        this.constraints = constraints;
+        this.coarseStep = coarseStep;
+        this.coarseTolerance = coarseTolerance;
+    }
+
+    /**
+     * Requirements on a map. Tile counts and distances are in full-size tiles.
+     *
+     * @param continents Number of landmasses the continent constraints apply to, the
+     *                   largest ones.
+     * @param minContinentTiles Smallest size of each of those landmasses.
+     * @param minContinentDistance Fewest hex steps between the closest tiles of any two
+     *                             of those landmasses.
+     * @param minBiomeFractions Smallest fraction of all tiles per biome.
+     */
+    public record Constraints(float minLandFraction, float maxLandFraction, int continents, int minContinentTiles,
+                              int minContinentDistance, Map<Tile.BiomeType, Float> minBiomeFractions) {
+        public Constraints {
+            if (continents < 1) throw new IllegalArgumentException("Need at least one continent: " + continents);
+            if (minLandFraction < 0 || minLandFraction > maxLandFraction || maxLandFraction > 1) {
+                throw new IllegalArgumentException("Bad land fraction range: " + minLandFraction + ".." + maxLandFraction);
+            }
+            minBiomeFractions = Collections.unmodifiableMap(minBiomeFractions.isEmpty()
+                ? new EnumMap<>(Tile.BiomeType.class) : new EnumMap<>(minBiomeFractions));
+        }
+
+        /** Accepts every map. */
+        public static Constraints any() {
+            return new Constraints(0, 1, 1, 0, 0, Map.of());
+        }
+
+        public Constraints withLandFraction(float min, float max) {
+            return new Constraints(min, max, continents, minContinentTiles, minContinentDistance, minBiomeFractions);
+        }
+
+        public Constraints withContinents(int count, int minTiles) {
+            return new Constraints(minLandFraction, maxLandFraction, count, minTiles, minContinentDistance,
+                minBiomeFractions);
+        }
+
+        public Constraints withContinentDistance(int minDistance) {
+            return new Constraints(minLandFraction, maxLandFraction, continents, minContinentTiles, minDistance,
+                minBiomeFractions);
+        }
+
+        public Constraints withMinBiome(Tile.BiomeType biome, float fraction) {
+            Map<Tile.BiomeType, Float> biomes = new EnumMap<>(Tile.BiomeType.class);
+            biomes.putAll(minBiomeFractions);
+            biomes.put(biome, fraction);
+            return new Constraints(minLandFraction, maxLandFraction, continents, minContinentTiles,
+                minContinentDistance, biomes);
+        }
+
+        /**
+         * Smallest relative slack over all active constraints: positive when every one is
+         * met, e.g. 0.2 when the tightest one is exceeded by 20 %, negative otherwise.
+         */
+        double margin(double landFraction, int[] continentTiles, int continentDistance, float[] biomeFractions) {
+            double margin = Double.POSITIVE_INFINITY;
+            if (minLandFraction > 0) margin = Math.min(margin, slack(landFraction, minLandFraction));
+            if (maxLandFraction < 1) {
+                margin = Math.min(margin, maxLandFraction > 0
+                    ? (maxLandFraction - landFraction) / maxLandFraction : -landFraction);
+            }
+            if (minContinentTiles > 0) {
+                int smallest = continentTiles.length < continents ? 0 : continentTiles[continents - 1];
+                margin = Math.min(margin, slack(smallest, minContinentTiles));
+            }
+            if (minContinentDistance > 0 && continents > 1) {
+                margin = Math.min(margin, slack(Math.max(0, continentDistance), minContinentDistance));
+            }
+            for (Map.Entry<Tile.BiomeType, Float> biome : minBiomeFractions.entrySet()) {
+                margin = Math.min(margin, slack(biomeFractions[biome.getKey().ordinal()], biome.getValue()));
+            }
+            return margin == Double.POSITIVE_INFINITY ? 0 : margin;
+        }
+
+        private static double slack(double value, double min) {
+            return min <= 0 ? Double.POSITIVE_INFINITY : (value - min) / min;
+        }
+    }
+
+    /**
+     * Measured properties of one map, scaled to full-size tiles if it was coarse.
+     *
+     * @param continentTiles Sizes of the largest landmasses, at most
+     *                       {@link Constraints#continents()} of them, largest first.
+     * @param continentDistance Hex steps between the closest two of those landmasses, or
+     *                          -1 if there are fewer than two.
+     * @param biomeFractions Fraction of all tiles per biome ordinal.
+     */
+    public record Evaluation(int seed, boolean coarse, double landFraction, int[] continentTiles,
+                             int continentDistance, float[] biomeFractions, double margin) {
+        public boolean accepted() {
+            return margin >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return "seed " + seed + (coarse ? " (coarse)" : "") + String.format(": margin %.3f, land %.1f %%",
+                margin, landFraction * 100) + ", continents " + Arrays.toString(continentTiles)
+                + (continentDistance >= 0 ? ", distance " + continentDistance : "");
+        }
+    }
+
+    /** Receives results from the workers, one call at a time. */
+    public interface Listener {
+        /**
+         * @param ranking Accepted seeds so far, best first.
+         */
+        void accepted(Evaluation evaluation, List<Evaluation> ranking);
+
+        /** Called once after the last candidate, or once cancelled or failed. */
+        default void finished(Search search) {
+        }
+    }
+
+    /**
+     * Starts searching seeds {@code firstSeed} to {@code firstSeed + candidates - 1} on
+     * {@code threads} background workers.
+     */
+    public Search start(int firstSeed, int candidates, int threads, Listener listener) {
+        Search search = new Search(firstSeed, candidates, threads, listener);
+        search.start();
+        return search;
+    }
+
+    /**
+     * Evaluates a single seed: coarse first, then, unless rejected, at full size.
+     *
+     * @return The full evaluation, or the coarse one if the seed was rejected early.
+     */
+    public Evaluation evaluate(int seed) {
+        NoiseBackend noise = MapGenerator.createNoise(seed);
+        MapGenerator.BiomeResolver biomeResolver = new MapGenerator.SimpleBiomeResolver();
+        if (coarseStep > 1) {
+            HexMap coarse = new HexMap((rows + coarseStep - 1) / coarseStep, (cols + coarseStep - 1) / coarseStep);
+            GeneratorPipeline.sampled(noise, coarseStep, biomeResolver).run(coarse);
+            Evaluation evaluation = measure(coarse, seed, coarseStep);
+            if (evaluation.margin() < -coarseTolerance) return evaluation;
+        }
+        HexMap map = new HexMap(rows, cols);
+        GeneratorPipeline.forNoise(noise, biomeResolver).run(map);
+        return measure(map, seed, 1);
+    }
+
+    /**
+     * Measures a map sampled every {@code step} tiles of a full-size one.
+     */
+    Evaluation measure(HexMap map, int seed, int step) {
+        int tiles = map.getRows() * map.getCols();
+        double tileScale = (double) rows * cols / tiles;
+        TileStore store = map.getStore();
+
+        int land = 0;
+        int[] biomeCounts = new int[BIOMES];
+        for (int x = 0; x < map.getRows(); x++) {
+            for (int y = 0; y < map.getCols(); y++) {
+                if (store.getTerrain(x, y) != WATER) land++;
+                biomeCounts[store.getBiome(x, y)]++;
+            }
+        }
+        float[] biomeFractions = new float[BIOMES];
+        for (int i = 0; i < BIOMES; i++) biomeFractions[i] = biomeCounts[i] / (float) tiles;
+
+        // Largest landmasses first
+        MapComponents components = map.getComponents();
+        Integer[] landmasses = new Integer[components.getCount()];
+        int landmassCount = 0;
+        for (int id = 0; id < components.getCount(); id++) {
+            if (!components.isWater(id)) landmasses[landmassCount++] = id;
+        }
+        Arrays.sort(landmasses, 0, landmassCount, (a, b) -> components.getSize(b) - components.getSize(a));
+        int continents = Math.min(constraints.continents(), landmassCount);
+        int[] continentIds = new int[continents];
+        int[] continentTiles = new int[continents];
+        for (int i = 0; i < continents; i++) {
+            continentIds[i] = landmasses[i];
+            continentTiles[i] = (int) Math.round(components.getSize(landmasses[i]) * tileScale);
+        }
+        int distance = continents < 2 ? -1 : closestDistance(components, continentIds) * step;
+
+        double landFraction = land / (double) tiles;
+        return new Evaluation(seed, step > 1, landFraction, continentTiles, distance, biomeFractions,
+            constraints.margin(landFraction, continentTiles, distance, biomeFractions));
+    }
+
+    /**
+     * Hex steps between the closest tiles of any two of the given components: a
+     * breadth-first search grows all of them at once, and wherever two fronts meet their
+     * distances add up to a path between them.
+     */
+    private static int closestDistance(MapComponents components, int[] ids) {
+        int rows = components.getRows();
+        int cols = components.getCols();
+        int[] tileIds = components.getIds();
+        int[] owner = new int[tileIds.length];
+        int[] distance = new int[tileIds.length];
+        int[] queue = new int[tileIds.length];
+        int head = 0;
+        int tail = 0;
+        Arrays.fill(owner, -1);
+        for (int i = 0; i < tileIds.length; i++) {
+            for (int k = 0; k < ids.length; k++) {
+                if (tileIds[i] == ids[k]) {
+                    owner[i] = k;
+                    queue[tail++] = i;
+                    break;
+                }
+            }
+        }
+        int best = Integer.MAX_VALUE;
+        while (head < tail) {
+            int node = queue[head++];
+            // Fronts further out cannot produce a shorter path
+            if (2 * distance[node] >= best) break;
+            int x = node / cols;
+            int y = node - x * cols;
+            for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                int nx = HexLayout.neighborX(x, d);
+                int ny = HexLayout.neighborY(x, y, d);
+                if (nx < 0 || ny < 0 || nx >= rows || ny >= cols) continue;
+                int next = nx * cols + ny;
+                if (owner[next] < 0) {
+                    owner[next] = owner[node];
+                    distance[next] = distance[node] + 1;
+                    queue[tail++] = next;
+                } else if (owner[next] != owner[node]) {
+                    best = Math.min(best, distance[node] + distance[next] + 1);
+                }
+            }
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+
+    public Constraints getConstraints() {
+        return constraints;
+    }
+
+    public int getCoarseStep() {
+        return coarseStep;
+    }
+
+    /** A running search. */
+    public final class Search {
+        private final int firstSeed;
+        private final int candidates;
+        private final int threads;
+        private final Listener listener;
+        private final AtomicInteger nextCandidate = new AtomicInteger();
+        private final CountDownLatch done;
+        private final AtomicInteger running;
+        private final List<Evaluation> ranking = new ArrayList<>();
+        private final long startNanos = System.nanoTime();
+        private volatile boolean cancelled;
+        private RuntimeException failure;
+        private ExecutorService workers;
+        private int evaluated;
+        private int rejectedCoarse;
+        private int generated;
+
+        private Search(int firstSeed, int candidates, int threads, Listener listener) {
+            this.firstSeed = firstSeed;
+            this.candidates = candidates;
+            this.threads = threads;
+            this.listener = listener;
+            this.done = new CountDownLatch(threads);
+            this.running = new AtomicInteger(threads);
+        }
+
+        private void start() {
+            AtomicInteger counter = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "seed-search-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (int i = 0; i < threads; i++) workers.execute(this::work);
+            workers.shutdown();
+        }
+
+        private void work() {
+            try {
+                int index;
+                while (!cancelled && (index = nextCandidate.getAndIncrement()) < candidates) {
+                    int seed = firstSeed + index;
+                    try {
+                        record(evaluate(seed));
+                    } catch (RuntimeException e) {
+                        fail(seed, e);
+                    }
+                }
+            } finally {
+                boolean last = running.decrementAndGet() == 0;
+                done.countDown();
+                if (last) {
+                    synchronized (this) {
+                        listener.finished(this);
+                    }
+                }
+            }
+        }
+
+        private synchronized void record(Evaluation evaluation) {
+            evaluated++;
+            if (evaluation.coarse()) rejectedCoarse++;
+            else generated++;
+            if (!evaluation.accepted()) return;
+            int at = 0;
+            while (at < ranking.size() && ranking.get(at).margin() >= evaluation.margin()) at++;
+            ranking.add(at, evaluation);
+            listener.accepted(evaluation, List.copyOf(ranking));
+        }
+
+        /** A failing seed is a generator bug, so it stops the search instead of being skipped. */
+        private synchronized void fail(int seed, RuntimeException e) {
+            if (failure == null) failure = new IllegalStateException("Seed search failed on seed " + seed, e);
+            cancelled = true;
+        }
+
+        /**
+         * Stops handing out candidates; seeds being evaluated still finish.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Blocks until every worker has stopped.
+         *
+         * @throws IllegalStateException If evaluating a seed failed, see {@link #getFailure()}.
+         */
+        public void await() throws InterruptedException {
+            done.await();
+            RuntimeException failure = getFailure();
+            if (failure != null) throw failure;
+        }
+
+        /** Why the search stopped early, or null if no seed failed. */
+        public synchronized RuntimeException getFailure() {
+            return failure;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /** Accepted seeds so far, best first. */
+        public synchronized List<Evaluation> getRanking() {
+            return List.copyOf(ranking);
+        }
+
+        public synchronized int getEvaluated() {
+            return evaluated;
+        }
+
+        /** Candidates rejected by the coarse pass alone. */
+        public synchronized int getRejectedCoarse() {
+            return rejectedCoarse;
+        }
+
+        /** Candidates generated at full size. */
+        public synchronized int getGenerated() {
+            return generated;
+        }
+
+        public int getCandidates() {
+            return candidates;
+        }
+
+        public long getElapsedNanos() {
+            return System.nanoTime() - startNanos;
+        }
+    }
+}
@@ -31,20 +31,15 @@ public class Tile {
 
 
 
-    private Color color;
+    private final HexMap map;
+    private final int row;
+    private final int col;
+    /** Reused for {@link #getColor()} so reading the color does not allocate. */
+    private final Color color = new Color();
+
     private boolean clicked;
     private float light; // 0 = no extra light, 1 = full extra light
-
-    private TerrainType terrainType;
-    private TemperatureType temperatureType;
-    private MoistureType moistureType;
-    private BiomeType biomeType;
-    private TerrainLevel terrainLevel;
-
-    private float temperature;
-    private float moisture;
     private float plantVariety;
-    private float height;
 
     private Model model;
     private ModelInstance modelInstance;
@@ -52,26 +47,30 @@ public class Tile {
     private Model cubeModel;
     private ModelInstance cubeInstance;
 
-    public Tile(Color color) {
-        this.color = color;
+    /**
+     * Creates a view of a single tile. Terrain data is read from and written to the
+     * map layers; only render and interaction state is kept in the view itself.
+     */
+    Tile(HexMap map, int row, int col) {
+        this.map = map;
+        this.row = row;
+        this.col = col;
         this.clicked = false;
         this.light = 0f;
-        this.terrainType = TerrainType.UNKNOWN;
-        this.temperatureType = TemperatureType.UNKNOWN;
-        this.moistureType = MoistureType.UNKNOWN;
-        this.biomeType = BiomeType.UNKNOWN;
-        this.temperature = 0f;
-        this.moisture = 0f;
         this.plantVariety = 0f;
-        this.height = 0f;
     }
 
+    public int getRow() { return row; }
+    public int getCol() { return col; }
 
-    public void setTerrainLevel(TerrainLevel terrainLevel) {this.terrainLevel = terrainLevel;}
-    public TerrainLevel getTerrainLevel() {return terrainLevel;}
+    public void setTerrainLevel(TerrainLevel terrainLevel) { map.setTerrainLevel(row, col, terrainLevel); }
+    public TerrainLevel getTerrainLevel() { return map.getTerrainLevel(row, col); }
 
-    public Color getColor() { return color; }
-    public void setColor(Color color) { this.color = color; }
+    public Color getColor() {
+        Color.rgba8888ToColor(color, map.getColorBits(row, col));
+        return color;
+    }
+    public void setColor(Color color) { map.setColor(row, col, color); }
 
     public boolean isClicked() { return clicked; }
     public void setClicked(boolean clicked) { this.clicked = clicked; }
@@ -79,30 +78,37 @@ public class Tile {
     public float getLight() { return light; }
     public void setLight(float light) { this.light = light; }
 
-    public TerrainType getTerrainType() { return terrainType; }
-    public void setTerrainType(TerrainType terrainType) { this.terrainType = terrainType; }
+    public TerrainType getTerrainType() { return map.getTerrainType(row, col); }
+    public void setTerrainType(TerrainType terrainType) { map.setTerrainType(row, col, terrainType); }
 
-    public TemperatureType getTemperatureType() { return temperatureType; }
-    public void setTemperatureType(TemperatureType temperatureType) { this.temperatureType = temperatureType; }
+    public TemperatureType getTemperatureType() { return map.getTemperatureType(row, col); }
+    public void setTemperatureType(TemperatureType temperatureType) { map.setTemperatureType(row, col, temperatureType); }
 
-    public MoistureType getMoistureType() { return moistureType; }
-    public void setMoistureType(MoistureType moistureType) { this.moistureType = moistureType; }
+    public MoistureType getMoistureType() { return map.getMoistureType(row, col); }
+    public void setMoistureType(MoistureType moistureType) { map.setMoistureType(row, col, moistureType); }
 
-    public BiomeType getBiomeType() { return biomeType; }
-    public void setBiomeType(BiomeType biomeType) { this.biomeType = biomeType; }
+    public BiomeType getBiomeType() { return map.getBiomeType(row, col); }
+    public void setBiomeType(BiomeType biomeType) { map.setBiomeType(row, col, biomeType); }
 
-    public float getTemperature() { return temperature; }
-    public void setTemperature(float temperature) { this.temperature = temperature; }
+    public float getTemperature() { return map.getTemperature(row, col); }
+    public void setTemperature(float temperature) { map.setTemperature(row, col, temperature); }
 
-    public float getMoisture() { return moisture; }
-    public void setMoisture(float moisture) { this.moisture = moisture; }
+    public float getMoisture() { return map.getMoisture(row, col); }
+    public void setMoisture(float moisture) { map.setMoisture(row, col, moisture); }
 
     public float getPlantVariety() { return plantVariety; }
     public void setPlantVariety(float plantVariety) { this.plantVariety = plantVariety; }
 
-    public float getHeight() { return height; }
+    public float getHeight() { return map.getHeight(row, col); }
     public void setHeight() {
-        this.height = switch (terrainLevel) {
+        map.setHeight(row, col, heightOf(getTerrainLevel()));
+    }
+
+    /**
+     * Render height of a column standing on the given terrain level.
+     */
+    public static float heightOf(TerrainLevel terrainLevel) {
+        return switch (terrainLevel) {
             case LEVEL_0 -> 0.5f;
             case LEVEL_1 -> 0.75f;
             case LEVEL_2 -> 1.0f;
@@ -135,11 +141,7 @@ public class Tile {
 
     public void setCubeModel(Model cubeModel) {
         this.cubeModel = cubeModel;
-        if (cubeModel != null) {
-            this.cubeInstance = new ModelInstance(cubeModel);
-        } else {
-            this.cubeInstance = null;
-        }
+        setCubeInstance(cubeModel != null ? new ModelInstance(cubeModel) : null);
     }
 
     public Model getCubeModel() {
@@ -150,7 +152,13 @@ public class Tile {
         return cubeInstance;
     }
 
+    /**
+     * Sets the cube placed on this tile. The view is pinned in the map's storage while it
+     * holds a cube, so chunked maps do not drop it.
+     */
     public void setCubeInstance(ModelInstance instance) {
+        boolean hadCube = cubeInstance != null;
         this.cubeInstance = instance;
+        if (hadCube != (instance != null)) map.getStore().pinView(row, col, instance != null);
     }
 }
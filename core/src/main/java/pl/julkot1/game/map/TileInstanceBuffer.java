@@ -0,0 +1,111 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.utils.NumberUtils;
+
+import java.util.Arrays;
+
+/**
+ * Per-instance data of the tiles around the camera for instanced rendering, see
+ * {@link InstancedTileRenderer}. Each instance is {@link #FLOATS_PER_INSTANCE} floats:
+ * the world x and z of the column's center, its height, and its color packed the way
+ * libGDX packs vertex colors. Built from the map alone with no GL calls, so it can be
+ * filled and checked without a GL context.
+ */
+public final class TileInstanceBuffer {
+    public static final int FLOATS_PER_INSTANCE = 4;
+
+    private float[] data = new float[1024 * FLOATS_PER_INSTANCE];
+    private int[] tiles = new int[1024];
+    private int count;
+
+    /**
+     * Replaces the contents with every tile whose center at ground level lies within
+     * {@code radius} of the camera, the same tiles {@link MapRender} draws one by one.
+     *
+     * @param highlightX Row of a tile drawn half blended with red, e.g. the hovered one, or -1.
+     */
+    public void build(HexMap map, HexLayout layout, float cameraX, float cameraY, float cameraZ, float radius,
+                      int highlightX, int highlightY) {
+        count = 0;
+        float hexWidth = layout.getRadius() * 2f;
+        float hexH = layout.getRowSpacing();
+        int camTileX = Math.round(cameraX / layout.getColumnSpacing());
+        int camTileY = Math.round(cameraZ / hexH);
+        int tileRenderRadius = Math.max(8, (int) (radius / layout.getColumnSpacing()) + 2);
+
+        int minX = Math.max(0, camTileX - tileRenderRadius);
+        int maxX = Math.min(Math.min(layout.getWidth(), map.getRows()), camTileX + tileRenderRadius);
+        int minY = Math.max(0, camTileY - tileRenderRadius);
+        int maxY = Math.min(Math.min(layout.getHeight(), map.getCols()), camTileY + tileRenderRadius);
+        for (int x = minX; x < maxX; x++) {
+            float px = layout.worldX(x);
+            if (Math.abs(px - cameraX) > radius + hexWidth) continue;
+            for (int y = minY; y < maxY; y++) {
+                float pz = layout.worldZ(x, y);
+                if (Math.abs(pz - cameraZ) > radius + hexH) continue;
+                float dx = px - cameraX;
+                float dz = pz - cameraZ;
+                if (dx * dx + cameraY * cameraY + dz * dz >= radius * radius) continue;
+                int color = map.getColorBits(x, y);
+                add(x * map.getCols() + y, px, pz, map.getHeight(x, y),
+                    x == highlightX && y == highlightY ? highlight(color) : color);
+            }
+        }
+    }
+
+    /**
+     * Appends one instance.
+     *
+     * @param tile  Index of the tile, {@code row * cols + col}.
+     * @param color Packed RGBA8888 color.
+     */
+    public void add(int tile, float x, float z, float height, int color) {
+        if (count == tiles.length) {
+            tiles = Arrays.copyOf(tiles, count * 2);
+            data = Arrays.copyOf(data, count * 2 * FLOATS_PER_INSTANCE);
+        }
+        int offset = count * FLOATS_PER_INSTANCE;
+        data[offset] = x;
+        data[offset + 1] = z;
+        data[offset + 2] = height;
+        // RGBA8888 to the ABGR byte order of packed vertex colors
+        data[offset + 3] = NumberUtils.intToFloatColor(Integer.reverseBytes(color));
+        tiles[count++] = tile;
+    }
+
+    /**
+     * RGBA8888 color half way to opaque red, like the hover highlight of tile instances.
+     */
+    static int highlight(int color) {
+        int r = color >>> 24;
+        int g = (color >>> 16) & 0xff;
+        int b = (color >>> 8) & 0xff;
+        return (r + 255) / 2 << 24 | g / 2 << 16 | b / 2 << 8 | 0xff;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Number of instances.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Instance data, {@link #FLOATS_PER_INSTANCE} floats for each of the first
+     * {@link #size()} instances. Do not modify.
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * Tile index, {@code row * cols + col}, of an instance.
+     */
+    public int getTile(int instance) {
+        return tiles[instance];
+    }
+}
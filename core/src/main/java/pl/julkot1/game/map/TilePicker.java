@@ -0,0 +1,99 @@
+package pl.julkot1.game.map;
+
+import com.badlogic.gdx.math.GridPoint2;
+import com.badlogic.gdx.math.Intersector;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.math.collision.Ray;
+
+/**
+ * Finds the tile column hit by a pick ray. Only the tiles under the part of the ray
+ * between the tallest column top and the ground are tested, found with a
+ * {@link HexQueries#line} query, instead of every tile of the map.
+ * <p>
+ * Reusable; keep one instance per caller.
+ */
+public class TilePicker implements HexQueries.TileVisitor {
+    /** Tiles around the projected ray that are tested, covering the column bounds. */
+    private static final int PICK_RANGE = 2;
+    private static final float MAX_TILE_HEIGHT = Tile.heightOf(Tile.TerrainLevel.LEVEL_4);
+
+    private final HexLayout layout;
+    private final BoundingBox bounds = new BoundingBox();
+    private final Vector3 min = new Vector3();
+    private final Vector3 max = new Vector3();
+    private final GridPoint2 top = new GridPoint2();
+    private final GridPoint2 ground = new GridPoint2();
+    private final HexQueries.TileVisitor candidate = this::test;
+
+    private HexMap map;
+    private Ray ray;
+    private boolean requireInstance;
+    private float minDist;
+    private int pickedX, pickedY;
+
+    public TilePicker(HexLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * @param requireInstance Only consider tiles that currently have a model instance.
+     * @return Whether a tile was hit; read it with {@link #getX()} and {@link #getY()}.
+     */
+    public boolean pick(HexMap map, Ray ray, boolean requireInstance) {
+        this.map = map;
+        this.ray = ray;
+        this.requireInstance = requireInstance;
+        minDist = Float.MAX_VALUE;
+        pickedX = -1;
+        pickedY = -1;
+        if (ray.direction.y < 0f) {
+            project(MAX_TILE_HEIGHT, top);
+            project(0f, ground);
+            HexQueries.line(layout, top.x, top.y, ground.x, ground.y, this);
+        }
+        this.map = null;
+        this.ray = null;
+        return pickedX != -1;
+    }
+
+    public int getX() {
+        return pickedX;
+    }
+
+    public int getY() {
+        return pickedY;
+    }
+
+    private void project(float height, GridPoint2 out) {
+        float t = Math.max(0f, (height - ray.origin.y) / ray.direction.y);
+        layout.worldToTile(ray.origin.x + ray.direction.x * t, ray.origin.z + ray.direction.z * t, out);
+    }
+
+    @Override
+    public void visit(int x, int y) {
+        HexQueries.range(layout, x, y, PICK_RANGE, candidate);
+    }
+
+    private void test(int x, int y) {
+        float px = layout.worldX(x);
+        float py = layout.worldZ(x, y);
+        float radius = layout.getRadius();
+        bounds.set(
+            min.set(px - radius, 0, py - radius),
+            max.set(px + radius, map.getHeight(x, y), py + radius)
+        );
+        if (!Intersector.intersectRayBoundsFast(ray, bounds)) return;
+        float dist = ray.origin.dst(px, 0, py);
+        if (dist < minDist && (!requireInstance || hasInstance(x, y))) {
+            minDist = dist;
+            pickedX = x;
+            pickedY = y;
+        }
+    }
+
+    private boolean hasInstance(int x, int y) {
+        Tile tile = map.getStore().getView(x, y);
+        return tile != null && tile.getModelInstance() != null;
+    }
+}
@@ -0,0 +1,87 @@
+package pl.julkot1.game.map;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Layer indices of the tiles in a band of rows, see {@link HexMap#tileIndices()}.
+ * Tiles are walked chunk by chunk like {@link HexMap#iterate}; on dense stores a chunk
+ * spans the whole map, so the order is row-major. Splits in halves of the band unless
+ * the store does not allow concurrent reads.
+ */
+class TileSpliterator implements Spliterator.OfInt {
+    private final int cols;
+    private final int chunkSize;
+    private final boolean splittable;
+    private int rowStart;
+    private final int rowEnd;
+    // Position of the next tile
+    private int colStart;
+    private int row;
+    private int col;
+
+    TileSpliterator(HexMap map, int rowStart, int rowEnd) {
+        this(map.getCols(), map.getStore().getChunkSize(), map.getStore().supportsConcurrentReads(), rowStart, rowEnd);
+    }
+
+    private TileSpliterator(int cols, int chunkSize, boolean splittable, int rowStart, int rowEnd) {
+        this.cols = cols;
+        this.chunkSize = chunkSize;
+        this.splittable = splittable;
+        this.rowStart = rowStart;
+        this.rowEnd = rowEnd;
+        this.row = rowStart;
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+        if (row >= rowEnd) return false;
+        action.accept(row * cols + col);
+        int chunkRowEnd = Math.min(rowEnd, (rowStart / chunkSize + 1) * chunkSize);
+        int colEnd = Math.min(cols, colStart + chunkSize);
+        if (++col < colEnd) return true;
+        col = colStart;
+        if (++row < chunkRowEnd) return true;
+        // Next chunk in this chunk row, or the first chunk of the next chunk row
+        colStart += chunkSize;
+        if (colStart < cols) {
+            row = rowStart;
+        } else {
+            rowStart = chunkRowEnd;
+            colStart = 0;
+            row = rowStart;
+        }
+        col = colStart;
+        return true;
+    }
+
+    @Override
+    public Spliterator.OfInt trySplit() {
+        // Only split before anything of the band was consumed
+        if (!splittable || row != rowStart || col != 0 || colStart != 0) return null;
+        int mid = (rowStart + rowEnd) >>> 1;
+        if (mid == rowStart) return null;
+        TileSpliterator prefix = new TileSpliterator(cols, chunkSize, true, rowStart, mid);
+        rowStart = mid;
+        row = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return (long) (rowEnd - rowStart) * cols - consumedInBand();
+    }
+
+    private long consumedInBand() {
+        // Tiles already visited in the current chunk row
+        int chunkRowEnd = Math.min(rowEnd, (rowStart / chunkSize + 1) * chunkSize);
+        return (long) (chunkRowEnd - rowStart) * colStart
+            + (long) (row - rowStart) * (Math.min(cols, colStart + chunkSize) - colStart)
+            + (col - colStart);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,100 @@
+package pl.julkot1.game.map;
+
+/**
+ * Backing storage for the layers of a {@link HexMap}. Enum layers are stored as ordinals,
+ * colors as packed RGBA8888. Implementations are not thread-safe unless stated otherwise.
+ */
+public interface TileStore {
+    int getRows();
+    int getCols();
+
+    /**
+     * Side length of the square blocks the store is organised in. Traversals that walk
+     * block by block touch every block exactly once.
+     */
+    int getChunkSize();
+
+    /**
+     * Whether several threads may read layers at the same time while nobody writes.
+     * Stores that mutate internal state on reads, such as a chunk cache, return false.
+     */
+    default boolean supportsConcurrentReads() {
+        return true;
+    }
+
+    /**
+     * Whether the tile's contents exist yet. Lazily generating stores return false for
+     * tiles that were never touched since the map was last generated; summaries of the
+     * whole map, like the minimap's, skip those instead of generating everything.
+     */
+    default boolean isGenerated(int row, int col) {
+        return true;
+    }
+
+    float getHeight(int row, int col);
+    void setHeight(int row, int col, float value);
+
+    float getTemperature(int row, int col);
+    void setTemperature(int row, int col, float value);
+
+    float getMoisture(int row, int col);
+    void setMoisture(int row, int col, float value);
+
+    int getBiome(int row, int col);
+    void setBiome(int row, int col, int ordinal);
+
+    int getTerrain(int row, int col);
+    void setTerrain(int row, int col, int ordinal);
+
+    int getLevel(int row, int col);
+    void setLevel(int row, int col, int ordinal);
+
+    int getTemperatureType(int row, int col);
+    void setTemperatureType(int row, int col, int ordinal);
+
+    int getMoistureType(int row, int col);
+    void setMoistureType(int row, int col, int ordinal);
+
+    int getColor(int row, int col);
+    void setColor(int row, int col, int rgba8888);
+
+    /**
+     * Copies a block of layers into the store with its origin at ({@code rowOffset}, {@code colOffset}).
+     */
+    default void write(MapLayers block, int rowOffset, int colOffset) {
+        for (int r = 0; r < block.getRows(); r++) {
+            for (int c = 0; c < block.getCols(); c++) {
+                int i = block.index(r, c);
+                int row = rowOffset + r;
+                int col = colOffset + c;
+                setHeight(row, col, block.getHeight(i));
+                setTemperature(row, col, block.getTemperature(i));
+                setMoisture(row, col, block.getMoisture(i));
+                setBiome(row, col, block.getBiome(i));
+                setTerrain(row, col, block.getTerrain(i));
+                setLevel(row, col, block.getLevel(i));
+                setTemperatureType(row, col, block.getTemperatureType(i));
+                setMoistureType(row, col, block.getMoistureType(i));
+                setColor(row, col, block.getColor(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the cached view for a tile, or {@code null} if none was created yet.
+     */
+    Tile getView(int row, int col);
+    void setView(int row, int col, Tile tile);
+
+    /**
+     * Pins or unpins a view holding state that cannot be regenerated, e.g. a placed cube.
+     * Stores that drop views on their own keep pinned ones; the others ignore this.
+     */
+    default void pinView(int row, int col, boolean pinned) {
+    }
+
+    /**
+     * Drops all cached tile views together with their render state.
+     */
+    void clearViews();
+}
@@ -0,0 +1,172 @@
+package pl.julkot1.game.map.path;
+
+import pl.julkot1.game.map.ChangeTracker;
+import pl.julkot1.game.map.HexLayout;
+import pl.julkot1.game.map.HexMap;
+import pl.julkot1.game.map.TileStore;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Cheapest movement cost from every tile to the nearest of a set of targets, and the
+ * direction a unit on each tile should step to follow it. Units heading to the same
+ * targets share one field and only read their tile's direction.
+ * <p>
+ * Costs come from one multi-source Dijkstra pass run backwards from the targets.
+ * Directions are derived afterwards, each tile independently picking its cheapest
+ * neighbour, so that pass runs in parallel on large maps and gives the same result
+ * regardless of thread scheduling.
+ */
+public class FlowField {
+    public static final byte NO_DIRECTION = -1;
+
+    /** Maps at least this large derive directions in parallel. */
+    static final int PARALLEL_TILES = 1 << 16;
+
+    private final int rows;
+    private final int cols;
+    private final float[] cost;
+    private final byte[] direction;
+    private final int regionCols;
+    /** Regions whose tiles the field depends on; changes elsewhere cannot affect it. */
+    private final boolean[] dependsOnRegion;
+    private final long version;
+
+    private FlowField(int rows, int cols, long version) {
+        this.rows = rows;
+        this.cols = cols;
+        this.cost = new float[rows * cols];
+        this.direction = new byte[rows * cols];
+        this.regionCols = (cols + ChangeTracker.REGION_SIZE - 1) / ChangeTracker.REGION_SIZE;
+        int regionRows = (rows + ChangeTracker.REGION_SIZE - 1) / ChangeTracker.REGION_SIZE;
+        this.dependsOnRegion = new boolean[regionRows * regionCols];
+        this.version = version;
+    }
+
+    /**
+     * Computes a field towards the given target tiles.
+     *
+     * @param open Scratch heap with capacity for every tile of the map; cleared on return.
+     */
+    public static FlowField compute(HexMap map, MovementCosts costs, int[] targetXs, int[] targetYs,
+                                    IndexedMinHeap open) {
+        TileStore store = map.getStore();
+        FlowField field = new FlowField(map.getRows(), map.getCols(), map.getChanges().getVersion());
+        field.computeCosts(store, costs, targetXs, targetYs, open);
+        boolean parallel = field.cost.length >= PARALLEL_TILES && store.supportsConcurrentReads();
+        IntStream rowRange = IntStream.range(0, field.rows);
+        (parallel ? rowRange.parallel() : rowRange).forEach(x -> field.computeDirections(store, costs, x));
+        return field;
+    }
+
+    private void computeCosts(TileStore store, MovementCosts costs, int[] targetXs, int[] targetYs, IndexedMinHeap open) {
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        open.clear();
+        for (int t = 0; t < targetXs.length; t++) {
+            int node = targetXs[t] * cols + targetYs[t];
+            cost[node] = 0f;
+            open.pushOrDecrease(node, 0f);
+        }
+        while (!open.isEmpty()) {
+            int node = open.pop();
+            int x = node / cols;
+            int y = node - x * cols;
+            float base = cost[node];
+            markRegion(x, y);
+            for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                int nx = HexLayout.neighborX(x, d);
+                int ny = HexLayout.neighborY(x, y, d);
+                if (nx < 0 || ny < 0 || nx >= rows || ny >= cols) continue;
+                // Walls next to reached tiles matter too: opening one changes the field
+                markRegion(nx, ny);
+                float step = costs.stepCost(store, nx, ny, x, y);
+                if (step == MovementCosts.IMPASSABLE) continue;
+                int next = nx * cols + ny;
+                float g = base + step;
+                if (g < cost[next]) {
+                    cost[next] = g;
+                    open.pushOrDecrease(next, g);
+                }
+            }
+        }
+    }
+
+    private void computeDirections(TileStore store, MovementCosts costs, int x) {
+        for (int y = 0; y < cols; y++) {
+            int node = x * cols + y;
+            byte best = NO_DIRECTION;
+            float here = cost[node];
+            if (here != 0f && here != Float.POSITIVE_INFINITY) {
+                float bestCost = Float.POSITIVE_INFINITY;
+                for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                    int nx = HexLayout.neighborX(x, d);
+                    int ny = HexLayout.neighborY(x, y, d);
+                    if (nx < 0 || ny < 0 || nx >= rows || ny >= cols) continue;
+                    float through = cost[nx * cols + ny] + costs.stepCost(store, x, y, nx, ny);
+                    if (through < bestCost) {
+                        bestCost = through;
+                        best = (byte) d;
+                    }
+                }
+            }
+            direction[node] = best;
+        }
+    }
+
+    private void markRegion(int x, int y) {
+        dependsOnRegion[(x / ChangeTracker.REGION_SIZE) * regionCols + y / ChangeTracker.REGION_SIZE] = true;
+    }
+
+    /**
+     * Direction index (see {@link HexLayout#neighborX}) to step in from the tile, or
+     * {@link #NO_DIRECTION} on a target or a tile that cannot reach one.
+     */
+    public byte getDirection(int x, int y) {
+        return direction[x * cols + y];
+    }
+
+    /**
+     * Cost of the cheapest route from the tile to a target, infinite if there is none.
+     */
+    public float getCost(int x, int y) {
+        return cost[x * cols + y];
+    }
+
+    public boolean isReachable(int x, int y) {
+        return cost[x * cols + y] != Float.POSITIVE_INFINITY;
+    }
+
+    public boolean isTarget(int x, int y) {
+        return cost[x * cols + y] == 0f;
+    }
+
+    /**
+     * The raw direction layer, row-major like the map's layers. Do not modify.
+     */
+    public byte[] getDirections() {
+        return direction;
+    }
+
+    /**
+     * Map change version the field was computed at.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Whether any change recorded after the field was computed can affect it.
+     */
+    public boolean isStale(ChangeTracker changes) {
+        if (changes.isFullyChangedSince(version)) return true;
+        if (changes.getVersion() == version) return false;
+        for (int r = 0; r < dependsOnRegion.length; r++) {
+            if (dependsOnRegion[r] && changes.isDirtySince(
+                (r / regionCols) * ChangeTracker.REGION_SIZE, (r % regionCols) * ChangeTracker.REGION_SIZE, version)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
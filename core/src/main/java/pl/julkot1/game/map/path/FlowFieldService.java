@@ -0,0 +1,110 @@
+package pl.julkot1.game.map.path;
+
+import pl.julkot1.game.map.HexMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Hands out {@link FlowField}s towards single target tiles, cached per target. A cached
+ * field is reused until a change to the map touches a region it depends on; then it is
+ * recomputed on the next request. The least recently used fields are dropped once more
+ * than {@code capacity} are cached.
+ * <p>
+ * Requests must come from one thread. {@link #prefetch} computes several missing
+ * fields in parallel.
+ * <p>
+ * Targets are tiles. Buildings such as {@link pl.julkot1.game.buildings.CityCenter} hold
+ * no position, so units heading for one ask for the field towards the tile it stands on,
+ * or {@link #computeMulti} for a building covering several tiles.
+ */
+public class FlowFieldService {
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private final HexMap map;
+    private final MovementCosts costs;
+    private final Map<Integer, FlowField> fields;
+    private final ThreadLocal<IndexedMinHeap> heaps;
+    private long computedFields;
+
+    public FlowFieldService(HexMap map, MovementCosts costs) {
+        this(map, costs, DEFAULT_CAPACITY);
+    }
+
+    public FlowFieldService(HexMap map, MovementCosts costs, int capacity) {
+        this.map = map;
+        this.costs = costs;
+        this.fields = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, FlowField> eldest) {
+                return size() > capacity;
+            }
+        };
+        int tiles = map.getRows() * map.getCols();
+        this.heaps = ThreadLocal.withInitial(() -> new IndexedMinHeap(tiles));
+    }
+
+    /**
+     * Field towards the tile, computed if it is not cached or out of date.
+     */
+    public FlowField get(int targetX, int targetY) {
+        int key = targetX * map.getCols() + targetY;
+        FlowField field = fields.get(key);
+        if (field == null || field.isStale(map.getChanges())) {
+            field = compute(targetX, targetY);
+            fields.put(key, field);
+        }
+        return field;
+    }
+
+    /**
+     * Makes sure fields towards all given tiles are cached, computing the missing ones
+     * in parallel when the map's store allows concurrent reads.
+     */
+    public void prefetch(int[] targetXs, int[] targetYs) {
+        int[] missing = new int[targetXs.length];
+        int count = 0;
+        for (int i = 0; i < targetXs.length; i++) {
+            FlowField field = fields.get(targetXs[i] * map.getCols() + targetYs[i]);
+            if (field == null || field.isStale(map.getChanges())) missing[count++] = i;
+        }
+        FlowField[] computed = new FlowField[count];
+        IntStream range = IntStream.range(0, count);
+        (map.getStore().supportsConcurrentReads() ? range.parallel() : range)
+            .forEach(i -> computed[i] = compute(targetXs[missing[i]], targetYs[missing[i]]));
+        for (int i = 0; i < count; i++) {
+            fields.put(targetXs[missing[i]] * map.getCols() + targetYs[missing[i]], computed[i]);
+        }
+    }
+
+    /**
+     * Uncached field towards the nearest of several tiles, e.g. all tiles of a city.
+     */
+    public FlowField computeMulti(int[] targetXs, int[] targetYs) {
+        return FlowField.compute(map, costs, targetXs, targetYs, heaps.get());
+    }
+
+    public void clear() {
+        fields.clear();
+    }
+
+    public int getCachedFields() {
+        return fields.size();
+    }
+
+    /**
+     * Number of fields computed so far, including recomputations of stale ones.
+     */
+    public long getComputedFields() {
+        return computedFields;
+    }
+
+    private FlowField compute(int targetX, int targetY) {
+        FlowField field = FlowField.compute(map, costs, new int[]{targetX}, new int[]{targetY}, heaps.get());
+        synchronized (this) {
+            computedFields++;
+        }
+        return field;
+    }
+}
@@ -0,0 +1,65 @@
+package pl.julkot1.game.map.path;
+
+import java.util.Arrays;
+
+/**
+ * Reusable path result: tile coordinates from start to goal, both included.
+ */
+public class HexPath {
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private int length;
+    private float cost;
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public int getX(int step) {
+        return xs[step];
+    }
+
+    public int getY(int step) {
+        return ys[step];
+    }
+
+    /**
+     * Total movement cost of the path.
+     */
+    public float getCost() {
+        return cost;
+    }
+
+    public void clear() {
+        length = 0;
+        cost = 0f;
+    }
+
+    void setCost(float cost) {
+        this.cost = cost;
+    }
+
+    void add(int x, int y) {
+        if (length == xs.length) {
+            xs = Arrays.copyOf(xs, length * 2);
+            ys = Arrays.copyOf(ys, length * 2);
+        }
+        xs[length] = x;
+        ys[length] = y;
+        length++;
+    }
+
+    /**
+     * Reverses the steps in place; paths are built goal first.
+     */
+    void reverse() {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            int x = xs[i]; xs[i] = xs[j]; xs[j] = x;
+            int y = ys[i]; ys[i] = ys[j]; ys[j] = y;
+        }
+    }
+}
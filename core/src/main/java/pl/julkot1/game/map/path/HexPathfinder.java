@@ -0,0 +1,158 @@
+package pl.julkot1.game.map.path;
+
+import pl.julkot1.game.map.HexLayout;
+import pl.julkot1.game.map.HexMap;
+import pl.julkot1.game.map.TileStore;
+
+import java.util.Arrays;
+
+/**
+ * A* search over the tiles of a {@link HexMap}.
+ * <p>
+ * All search state lives in flat arrays sized to the map and reused between queries.
+ * Instead of clearing them, every query bumps a search stamp and a node's cost and
+ * parent only count while its stamp matches, so a query costs O(nodes expanded) and
+ * allocates nothing once the result path has grown to size.
+ * <p>
+ * Costs are read from the map on every query, so edits are picked up immediately. Not
+ * thread-safe; use one pathfinder per thread.
+ */
+public class HexPathfinder {
+    /** Default cap on expanded nodes per query. */
+    public static final int DEFAULT_MAX_EXPANSIONS = 1 << 20;
+
+    private final HexMap map;
+    private final int rows;
+    private final int cols;
+    private MovementCosts costs;
+    private int maxExpansions = DEFAULT_MAX_EXPANSIONS;
+
+    private final float[] cost;
+    private final int[] parent;
+    /** Search in which the node was reached; the node's cost and parent are stale otherwise. */
+    private final int[] reached;
+    /** Search in which the node was expanded. */
+    private final int[] closed;
+    private final IndexedMinHeap open;
+    private int search;
+
+    private int lastExpanded;
+
+    public HexPathfinder(HexMap map, MovementCosts costs) {
+        this.map = map;
+        this.rows = map.getRows();
+        this.cols = map.getCols();
+        this.costs = costs;
+        int nodes = rows * cols;
+        this.cost = new float[nodes];
+        this.parent = new int[nodes];
+        this.reached = new int[nodes];
+        this.closed = new int[nodes];
+        this.open = new IndexedMinHeap(nodes);
+    }
+
+    public MovementCosts getCosts() {
+        return costs;
+    }
+
+    public void setCosts(MovementCosts costs) {
+        this.costs = costs;
+    }
+
+    public int getMaxExpansions() {
+        return maxExpansions;
+    }
+
+    /**
+     * Caps the number of nodes a single query may expand; queries that hit the cap fail.
+     */
+    public void setMaxExpansions(int maxExpansions) {
+        this.maxExpansions = maxExpansions;
+    }
+
+    /**
+     * Number of nodes expanded by the last query.
+     */
+    public int getLastExpanded() {
+        return lastExpanded;
+    }
+
+    /**
+     * Finds the cheapest path from {@code (startX, startY)} to {@code (goalX, goalY)}.
+     *
+     * @param out Receives the path; cleared if there is none.
+     * @return Whether a path was found.
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, HexPath out) {
+        out.clear();
+        lastExpanded = 0;
+        if (!inside(startX, startY) || !inside(goalX, goalY)) return false;
+        TileStore store = map.getStore();
+        if (!costs.isPassable(store, goalX, goalY)) return false;
+
+        nextSearch();
+        float minStep = costs.minStepCost();
+        int start = startX * cols + startY;
+        int goal = goalX * cols + goalY;
+        reach(start, 0f, -1);
+        open.clear();
+        open.pushOrDecrease(start, minStep * HexLayout.distance(startX, startY, goalX, goalY));
+
+        while (!open.isEmpty()) {
+            int node = open.pop();
+            if (node == goal) {
+                buildPath(goal, out);
+                open.clear();
+                return true;
+            }
+            closed[node] = search;
+            if (++lastExpanded > maxExpansions) break;
+
+            int x = node / cols;
+            int y = node - x * cols;
+            float base = cost[node];
+            for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                int nx = HexLayout.neighborX(x, d);
+                int ny = HexLayout.neighborY(x, y, d);
+                if (!inside(nx, ny)) continue;
+                int next = nx * cols + ny;
+                if (closed[next] == search) continue;
+                float step = costs.stepCost(store, x, y, nx, ny);
+                if (step == MovementCosts.IMPASSABLE) continue;
+                float g = base + step;
+                if (reached[next] != search || g < cost[next]) {
+                    reach(next, g, node);
+                    open.pushOrDecrease(next, g + minStep * HexLayout.distance(nx, ny, goalX, goalY));
+                }
+            }
+        }
+        open.clear();
+        return false;
+    }
+
+    private boolean inside(int x, int y) {
+        return x >= 0 && y >= 0 && x < rows && y < cols;
+    }
+
+    private void reach(int node, float g, int from) {
+        reached[node] = search;
+        cost[node] = g;
+        parent[node] = from;
+    }
+
+    private void nextSearch() {
+        if (++search == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(closed, 0);
+            search = 1;
+        }
+    }
+
+    private void buildPath(int goal, HexPath out) {
+        for (int node = goal; node != -1; node = parent[node]) {
+            out.add(node / cols, node % cols);
+        }
+        out.reverse();
+        out.setCost(cost[goal]);
+    }
+}
@@ -0,0 +1,644 @@
+package pl.julkot1.game.map.path;
+
+import pl.julkot1.game.map.ChangeTracker;
+import pl.julkot1.game.map.HexLayout;
+import pl.julkot1.game.map.HexMap;
+import pl.julkot1.game.map.TileStore;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical A* (HPA*) for long routes on large maps.
+ * <p>
+ * The map is split into square clusters. Where passable tiles of two neighbouring
+ * clusters touch, each contiguous run of crossings gets one transition (two for long
+ * runs); transition tiles become the nodes of an abstract graph, connected across the
+ * border by the single step between them and inside a cluster by the cheapest path that
+ * stays in the cluster. A query first searches the abstract graph from the start to the
+ * goal, then refines every hop: border hops are single steps and in-cluster hops are
+ * searched inside their cluster only. Short queries go straight to a plain
+ * {@link HexPathfinder} search.
+ * <p>
+ * The abstraction follows the map's {@link ChangeTracker}: before each query, clusters
+ * overlapping regions that changed are recomputed along with their neighbours, whose
+ * shared transitions depend on them. Routes are near-optimal rather than optimal.
+ * Not thread-safe.
+ */
+public class HierarchicalPathfinder {
+    public static final int DEFAULT_CLUSTER_SIZE = ChangeTracker.REGION_SIZE;
+
+    /** Runs of crossings at least this long get a transition at each end instead of one. */
+    private static final int LONG_ENTRANCE = 6;
+    private static final float UNREACHED = Float.POSITIVE_INFINITY;
+    private static final int START = -2;
+
+    // Neighbouring cluster offsets whose shared border is owned by the current cluster
+    private static final int[] BORDER_DX = {1, 0, 1, 1};
+    private static final int[] BORDER_DY = {0, 1, 1, -1};
+
+    private static final class Cluster {
+        final int x0, y0, x1, y1;
+        /** Tile ids of the transition tiles inside this cluster. */
+        int[] nodes = new int[0];
+        /** Cheapest in-cluster cost from node i to node j at {@code i * nodes.length + j}. */
+        float[] intra = new float[0];
+        /** Inter-cluster edges of node i are {@code interStart[i] .. interStart[i + 1]}. */
+        int[] interStart = new int[1];
+        int[] interTarget = new int[0];
+        float[] interCost = new float[0];
+
+        Cluster(int x0, int y0, int x1, int y1) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        boolean contains(int x, int y) {
+            return x >= x0 && y >= y0 && x < x1 && y < y1;
+        }
+
+        int height() { return y1 - y0; }
+    }
+
+    private final HexMap map;
+    private final int rows;
+    private final int cols;
+    private final int clusterSize;
+    private final int clusterRows;
+    private final int clusterCols;
+    private final Cluster[] clusters;
+    /** Transitions {@code (tile in owner, tile in neighbour)} per owner cluster and border. */
+    private final int[][] borders;
+    private final HexPathfinder local;
+    private MovementCosts costs;
+
+    /** Local index of a tile in its cluster's node list, or -1 for non-transition tiles. */
+    private final int[] nodeIndex;
+
+    private HexMap syncedMap;
+    private long syncedVersion = -1;
+    private boolean costsChanged;
+    private final boolean[] dirty;
+    private final boolean[] rebuild;
+    private long rebuiltClusters;
+
+    // In-cluster Dijkstra state, indexed by local tile
+    private final float[] localCost;
+    private final int[] localParent;
+    private final int[] localReached;
+    private final int[] localClosed;
+    private final IndexedMinHeap localOpen;
+    private int localSearch;
+
+    // Abstract search state, indexed by tile id
+    private final float[] abstractCost;
+    private final int[] abstractParent;
+    private final int[] abstractReached;
+    private final int[] abstractClosed;
+    private final IndexedMinHeap abstractOpen;
+    private int abstractSearch;
+    private int lastAbstractExpanded;
+
+    // Scratch buffers, grown on demand
+    private int[] edgeScratch = new int[64];
+    private int[] runScratch = new int[32];
+    private int[] nodeScratch = new int[64];
+    private int[] fromScratch = new int[64];
+    private int[] toScratch = new int[64];
+    private float[] goalCosts = new float[16];
+    private int[] route = new int[64];
+    private int[] localRoute = new int[64];
+    private final HexPath segment = new HexPath();
+
+    public HierarchicalPathfinder(HexMap map, MovementCosts costs) {
+        this(map, costs, DEFAULT_CLUSTER_SIZE);
+    }
+
+    public HierarchicalPathfinder(HexMap map, MovementCosts costs, int clusterSize) {
+        this.map = map;
+        this.rows = map.getRows();
+        this.cols = map.getCols();
+        this.costs = costs;
+        this.clusterSize = clusterSize;
+        this.clusterRows = (rows + clusterSize - 1) / clusterSize;
+        this.clusterCols = (cols + clusterSize - 1) / clusterSize;
+        this.clusters = new Cluster[clusterRows * clusterCols];
+        for (int cx = 0; cx < clusterRows; cx++) {
+            for (int cy = 0; cy < clusterCols; cy++) {
+                clusters[cx * clusterCols + cy] = new Cluster(cx * clusterSize, cy * clusterSize,
+                    Math.min(rows, (cx + 1) * clusterSize), Math.min(cols, (cy + 1) * clusterSize));
+            }
+        }
+        this.borders = new int[clusters.length * BORDER_DX.length][];
+        this.dirty = new boolean[clusters.length];
+        this.rebuild = new boolean[clusters.length];
+        this.local = new HexPathfinder(map, costs);
+
+        int tiles = rows * cols;
+        this.nodeIndex = new int[tiles];
+        Arrays.fill(nodeIndex, -1);
+        this.abstractCost = new float[tiles];
+        this.abstractParent = new int[tiles];
+        this.abstractReached = new int[tiles];
+        this.abstractClosed = new int[tiles];
+        this.abstractOpen = new IndexedMinHeap(tiles);
+
+        int clusterTiles = clusterSize * clusterSize;
+        this.localCost = new float[clusterTiles];
+        this.localParent = new int[clusterTiles];
+        this.localReached = new int[clusterTiles];
+        this.localClosed = new int[clusterTiles];
+        this.localOpen = new IndexedMinHeap(clusterTiles);
+    }
+
+    public MovementCosts getCosts() {
+        return costs;
+    }
+
+    /**
+     * Replaces the cost model; the whole abstraction is rebuilt on the next query.
+     */
+    public void setCosts(MovementCosts costs) {
+        this.costs = costs;
+        this.local.setCosts(costs);
+        this.costsChanged = true;
+    }
+
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    public int getClusterCount() {
+        return clusters.length;
+    }
+
+    /**
+     * Number of transition nodes in the abstract graph.
+     */
+    public int getAbstractNodeCount() {
+        sync();
+        int count = 0;
+        for (Cluster cluster : clusters) count += cluster.nodes.length;
+        return count;
+    }
+
+    /**
+     * Total number of cluster recomputations so far, including the initial build.
+     */
+    public long getRebuiltClusters() {
+        return rebuiltClusters;
+    }
+
+    /**
+     * Number of abstract nodes expanded by the last long query.
+     */
+    public int getLastAbstractExpanded() {
+        return lastAbstractExpanded;
+    }
+
+    /**
+     * Brings the abstraction up to date with the map. Called by {@link #findPath}; call
+     * it directly to move the cost out of the first query after an edit.
+     */
+    public void sync() {
+        ChangeTracker changes = map.getChanges();
+        if (syncedMap != map || costsChanged || changes.isFullyChangedSince(syncedVersion)) {
+            Arrays.fill(dirty, true);
+        } else if (changes.getVersion() != syncedVersion) {
+            changes.dirtyRegionsSince(syncedVersion, (rowStart, colStart, rowEnd, colEnd) -> {
+                for (int cx = rowStart / clusterSize; cx <= (rowEnd - 1) / clusterSize; cx++) {
+                    for (int cy = colStart / clusterSize; cy <= (colEnd - 1) / clusterSize; cy++) {
+                        dirty[cx * clusterCols + cy] = true;
+                    }
+                }
+            });
+        } else {
+            return;
+        }
+        syncedMap = map;
+        syncedVersion = changes.getVersion();
+        costsChanged = false;
+        rebuildDirty();
+    }
+
+    private void rebuildDirty() {
+        TileStore store = map.getStore();
+        for (int c = 0; c < clusters.length; c++) {
+            if (!dirty[c]) continue;
+            int cx = c / clusterCols;
+            int cy = c % clusterCols;
+            // Transitions on every border of the cluster depend on its tiles
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nx = cx + dx;
+                    int ny = cy + dy;
+                    if (nx < 0 || ny < 0 || nx >= clusterRows || ny >= clusterCols) continue;
+                    rebuild[nx * clusterCols + ny] = true;
+                    if (dx == 0 && dy == 0) continue;
+                    int k = borderIndex(dx, dy);
+                    if (k >= 0) {
+                        computeBorder(store, cx, cy, k);
+                    } else {
+                        computeBorder(store, nx, ny, borderIndex(-dx, -dy));
+                    }
+                }
+            }
+            dirty[c] = false;
+        }
+        for (int c = 0; c < clusters.length; c++) {
+            if (!rebuild[c]) continue;
+            rebuildNodes(store, c);
+            rebuild[c] = false;
+            rebuiltClusters++;
+        }
+    }
+
+    private static int borderIndex(int dx, int dy) {
+        for (int k = 0; k < BORDER_DX.length; k++) {
+            if (BORDER_DX[k] == dx && BORDER_DY[k] == dy) return k;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds transitions between the owner cluster and its neighbour in border direction
+     * {@code k}: crossings of passable tiles are grouped into runs of adjacent crossings
+     * and each run gets a transition in its middle, or at both ends when it is long.
+     */
+    private void computeBorder(TileStore store, int cx, int cy, int k) {
+        int owner = cx * clusterCols + cy;
+        int bx = cx + BORDER_DX[k];
+        int by = cy + BORDER_DY[k];
+        if (bx < 0 || by < 0 || bx >= clusterRows || by >= clusterCols) {
+            borders[owner * BORDER_DX.length + k] = null;
+            return;
+        }
+        Cluster a = clusters[owner];
+        Cluster b = clusters[bx * clusterCols + by];
+
+        int edges = 0;
+        int xStart = Math.max(a.x0, b.x0 - 1), xEnd = Math.min(a.x1, b.x1 + 1);
+        int yStart = Math.max(a.y0, b.y0 - 1), yEnd = Math.min(a.y1, b.y1 + 1);
+        for (int x = xStart; x < xEnd; x++) {
+            for (int y = yStart; y < yEnd; y++) {
+                if (!costs.isPassable(store, x, y)) continue;
+                for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                    int nx = HexLayout.neighborX(x, d);
+                    int ny = HexLayout.neighborY(x, y, d);
+                    if (!b.contains(nx, ny) || !costs.isPassable(store, nx, ny)) continue;
+                    if (edgeScratch.length < 2 * edges + 2) edgeScratch = Arrays.copyOf(edgeScratch, edgeScratch.length * 2);
+                    edgeScratch[2 * edges] = x * cols + y;
+                    edgeScratch[2 * edges + 1] = nx * cols + ny;
+                    edges++;
+                }
+            }
+        }
+
+        // Group crossings into runs: two crossings belong together when both their tiles
+        // are equal or adjacent. Borders are short, so a quadratic union is cheap.
+        if (runScratch.length < edges) runScratch = new int[edgeScratch.length / 2];
+        for (int e = 0; e < edges; e++) runScratch[e] = e;
+        for (int e = 1; e < edges; e++) {
+            for (int f = 0; f < e; f++) {
+                if (adjacent(edgeScratch[2 * e], edgeScratch[2 * f])
+                    && adjacent(edgeScratch[2 * e + 1], edgeScratch[2 * f + 1])) {
+                    runScratch[find(e)] = find(f);
+                }
+            }
+        }
+        int transitions = 0;
+        for (int root = 0; root < edges; root++) {
+            if (find(root) != root) continue;
+            int length = 0, first = -1, last = -1;
+            for (int e = 0; e < edges; e++) {
+                if (find(e) != root) continue;
+                if (first < 0) first = e;
+                last = e;
+                length++;
+            }
+            if (length >= LONG_ENTRANCE) {
+                nodeScratch = put(nodeScratch, transitions++, first);
+                nodeScratch = put(nodeScratch, transitions++, last);
+            } else {
+                int middle = length / 2;
+                for (int e = first; e <= last; e++) {
+                    if (find(e) == root && middle-- == 0) {
+                        nodeScratch = put(nodeScratch, transitions++, e);
+                        break;
+                    }
+                }
+            }
+        }
+        int[] border = new int[2 * transitions];
+        for (int t = 0; t < transitions; t++) {
+            border[2 * t] = edgeScratch[2 * nodeScratch[t]];
+            border[2 * t + 1] = edgeScratch[2 * nodeScratch[t] + 1];
+        }
+        borders[owner * BORDER_DX.length + k] = border;
+    }
+
+    private int find(int run) {
+        while (runScratch[run] != run) {
+            runScratch[run] = runScratch[runScratch[run]];
+            run = runScratch[run];
+        }
+        return run;
+    }
+
+    private boolean adjacent(int tileA, int tileB) {
+        return HexLayout.distance(tileA / cols, tileA % cols, tileB / cols, tileB % cols) <= 1;
+    }
+
+    /**
+     * Collects the cluster's transition tiles from its eight borders and recomputes its
+     * in-cluster and outgoing edges.
+     */
+    private void rebuildNodes(TileStore store, int c) {
+        Cluster cluster = clusters[c];
+        for (int node : cluster.nodes) nodeIndex[node] = -1;
+
+        int cx = c / clusterCols;
+        int cy = c % clusterCols;
+        int nodes = 0;
+        int edges = 0;
+        for (int k = 0; k < BORDER_DX.length; k++) {
+            // Borders owned by this cluster list its tile first
+            int[] own = borders[c * BORDER_DX.length + k];
+            if (own != null) {
+                for (int t = 0; t < own.length; t += 2) {
+                    nodes = addNode(nodes, own[t]);
+                    fromScratch = put(fromScratch, edges, own[t]);
+                    toScratch = put(toScratch, edges++, own[t + 1]);
+                }
+            }
+            int ox = cx - BORDER_DX[k];
+            int oy = cy - BORDER_DY[k];
+            if (ox < 0 || oy < 0 || ox >= clusterRows || oy >= clusterCols) continue;
+            int[] other = borders[(ox * clusterCols + oy) * BORDER_DX.length + k];
+            if (other != null) {
+                for (int t = 0; t < other.length; t += 2) {
+                    nodes = addNode(nodes, other[t + 1]);
+                    fromScratch = put(fromScratch, edges, other[t + 1]);
+                    toScratch = put(toScratch, edges++, other[t]);
+                }
+            }
+        }
+
+        cluster.nodes = Arrays.copyOf(nodeScratch, nodes);
+        cluster.interStart = new int[nodes + 1];
+        cluster.interTarget = new int[edges];
+        cluster.interCost = new float[edges];
+        for (int e = 0; e < edges; e++) cluster.interStart[nodeIndex[fromScratch[e]] + 1]++;
+        for (int i = 0; i < nodes; i++) cluster.interStart[i + 1] += cluster.interStart[i];
+        int[] fill = Arrays.copyOf(cluster.interStart, nodes);
+        for (int e = 0; e < edges; e++) {
+            int from = fromScratch[e];
+            int to = toScratch[e];
+            int slot = fill[nodeIndex[from]]++;
+            cluster.interTarget[slot] = to;
+            cluster.interCost[slot] = costs.stepCost(store, from / cols, from % cols, to / cols, to % cols);
+        }
+
+        cluster.intra = new float[nodes * nodes];
+        for (int i = 0; i < nodes; i++) {
+            int from = cluster.nodes[i];
+            localDijkstra(store, cluster, from / cols, from % cols, -1, false);
+            for (int j = 0; j < nodes; j++) {
+                int to = cluster.nodes[j];
+                cluster.intra[i * nodes + j] = localCostAt(cluster, to / cols, to % cols);
+            }
+        }
+    }
+
+    private int addNode(int nodes, int tile) {
+        if (nodeIndex[tile] >= 0) return nodes;
+        nodeIndex[tile] = nodes;
+        nodeScratch = put(nodeScratch, nodes, tile);
+        return nodes + 1;
+    }
+
+    private static int[] put(int[] array, int index, int value) {
+        if (index >= array.length) array = Arrays.copyOf(array, array.length * 2);
+        array[index] = value;
+        return array;
+    }
+
+    /**
+     * Dijkstra restricted to a cluster. Forward computes costs from the source to every
+     * tile, backward the costs from every tile to the source.
+     *
+     * @param target Local index at which to stop early, or -1 to reach the whole cluster.
+     */
+    private void localDijkstra(TileStore store, Cluster cluster, int sourceX, int sourceY, int target, boolean backward) {
+        if (++localSearch == Integer.MAX_VALUE) {
+            Arrays.fill(localReached, 0);
+            Arrays.fill(localClosed, 0);
+            localSearch = 1;
+        }
+        int height = cluster.height();
+        int source = (sourceX - cluster.x0) * height + (sourceY - cluster.y0);
+        localReached[source] = localSearch;
+        localCost[source] = 0f;
+        localParent[source] = -1;
+        localOpen.clear();
+        localOpen.pushOrDecrease(source, 0f);
+        while (!localOpen.isEmpty()) {
+            int node = localOpen.pop();
+            localClosed[node] = localSearch;
+            if (node == target) break;
+            int x = cluster.x0 + node / height;
+            int y = cluster.y0 + node % height;
+            float base = localCost[node];
+            for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                int nx = HexLayout.neighborX(x, d);
+                int ny = HexLayout.neighborY(x, y, d);
+                if (!cluster.contains(nx, ny)) continue;
+                int next = (nx - cluster.x0) * height + (ny - cluster.y0);
+                if (localClosed[next] == localSearch) continue;
+                float step = backward ? costs.stepCost(store, nx, ny, x, y) : costs.stepCost(store, x, y, nx, ny);
+                if (step == MovementCosts.IMPASSABLE) continue;
+                float g = base + step;
+                if (localReached[next] != localSearch || g < localCost[next]) {
+                    localReached[next] = localSearch;
+                    localCost[next] = g;
+                    localParent[next] = node;
+                    localOpen.pushOrDecrease(next, g);
+                }
+            }
+        }
+        localOpen.clear();
+    }
+
+    /**
+     * Cheapest path between two tiles of a cluster that stays inside it, appended to
+     * {@code out} without its first tile. Returns its cost, or {@link #UNREACHED}.
+     */
+    private float localPath(TileStore store, Cluster cluster, int fromX, int fromY, int toX, int toY, HexPath out) {
+        int height = cluster.height();
+        int target = (toX - cluster.x0) * height + (toY - cluster.y0);
+        localDijkstra(store, cluster, fromX, fromY, target, false);
+        if (localClosed[target] != localSearch) return UNREACHED;
+        int steps = 0;
+        for (int n = target; localParent[n] != -1; n = localParent[n]) localRoute = put(localRoute, steps++, n);
+        for (int i = steps - 1; i >= 0; i--) {
+            out.add(cluster.x0 + localRoute[i] / height, cluster.y0 + localRoute[i] % height);
+        }
+        return localCost[target];
+    }
+
+    private float localCostAt(Cluster cluster, int x, int y) {
+        int i = (x - cluster.x0) * cluster.height() + (y - cluster.y0);
+        return localReached[i] == localSearch ? localCost[i] : UNREACHED;
+    }
+
+    private int clusterOf(int x, int y) {
+        return (x / clusterSize) * clusterCols + y / clusterSize;
+    }
+
+    /**
+     * Finds a route from {@code (startX, startY)} to {@code (goalX, goalY)}.
+     *
+     * @param out Receives the path; cleared if there is none.
+     * @return Whether a path was found.
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, HexPath out) {
+        out.clear();
+        lastAbstractExpanded = 0;
+        if (startX < 0 || startY < 0 || startX >= rows || startY >= cols
+            || goalX < 0 || goalY < 0 || goalX >= rows || goalY >= cols) {
+            return false;
+        }
+        int startCluster = clusterOf(startX, startY);
+        int goalCluster = clusterOf(goalX, goalY);
+        if (startCluster == goalCluster || HexLayout.distance(startX, startY, goalX, goalY) <= clusterSize) {
+            return local.findPath(startX, startY, goalX, goalY, out);
+        }
+        TileStore store = map.getStore();
+        if (!costs.isPassable(store, goalX, goalY)) return false;
+        sync();
+
+        int hops = searchAbstract(store, startX, startY, goalX, goalY, startCluster, goalCluster);
+        if (hops < 0) return false;
+
+        out.add(startX, startY);
+        float total = 0f;
+        int fromX = startX, fromY = startY;
+        for (int i = hops - 1; i >= 0; i--) {
+            int toX = route[i] / cols;
+            int toY = route[i] % cols;
+            if (toX == fromX && toY == fromY) continue;
+            int c = clusterOf(fromX, fromY);
+            if (i == hops - 1) {
+                // The start may reach its first node from outside the node's cluster
+                if (!local.findPath(fromX, fromY, toX, toY, segment)) {
+                    out.clear();
+                    return false;
+                }
+                for (int s = 1; s < segment.getLength(); s++) out.add(segment.getX(s), segment.getY(s));
+                total += segment.getCost();
+            } else if (c == clusterOf(toX, toY)) {
+                total += localPath(store, clusters[c], fromX, fromY, toX, toY, out);
+            } else {
+                // Hops between clusters are always border crossings of one step
+                out.add(toX, toY);
+                total += costs.stepCost(store, fromX, fromY, toX, toY);
+            }
+            fromX = toX;
+            fromY = toY;
+        }
+        out.setCost(total);
+        return true;
+    }
+
+    /**
+     * A* over the transition nodes. The start is connected to the nodes of its cluster
+     * and the goal to the nodes of its cluster by in-cluster searches. Leaves the route
+     * goal first in {@link #route} and returns its length, or -1 if there is none.
+     */
+    private int searchAbstract(TileStore store, int startX, int startY, int goalX, int goalY,
+                               int startCluster, int goalCluster) {
+        if (++abstractSearch == Integer.MAX_VALUE) {
+            Arrays.fill(abstractReached, 0);
+            Arrays.fill(abstractClosed, 0);
+            abstractSearch = 1;
+        }
+        float minStep = costs.minStepCost();
+        int goal = goalX * cols + goalY;
+
+        Cluster target = clusters[goalCluster];
+        localDijkstra(store, target, goalX, goalY, -1, true);
+        if (goalCosts.length < target.nodes.length) goalCosts = new float[target.nodes.length * 2];
+        for (int j = 0; j < target.nodes.length; j++) {
+            int node = target.nodes[j];
+            goalCosts[j] = localCostAt(target, node / cols, node % cols);
+        }
+
+        abstractOpen.clear();
+        seed(store, clusters[startCluster], startX, startY, 0f, minStep, goalX, goalY);
+        if (!costs.isPassable(store, startX, startY)) {
+            // Units may leave an impassable start tile, possibly straight into another
+            // cluster through a crossing that is not a transition
+            for (int d = 0; d < HexLayout.DIRECTIONS; d++) {
+                int nx = HexLayout.neighborX(startX, d);
+                int ny = HexLayout.neighborY(startX, startY, d);
+                if (nx < 0 || ny < 0 || nx >= rows || ny >= cols || clusterOf(nx, ny) == startCluster) continue;
+                float step = costs.stepCost(store, startX, startY, nx, ny);
+                if (step != MovementCosts.IMPASSABLE) {
+                    seed(store, clusters[clusterOf(nx, ny)], nx, ny, step, minStep, goalX, goalY);
+                }
+            }
+        }
+
+        while (!abstractOpen.isEmpty()) {
+            int node = abstractOpen.pop();
+            if (node == goal) {
+                abstractOpen.clear();
+                int hops = 0;
+                for (int n = goal; n != START; n = abstractParent[n]) route = put(route, hops++, n);
+                return hops;
+            }
+            abstractClosed[node] = abstractSearch;
+            lastAbstractExpanded++;
+
+            int x = node / cols;
+            int y = node % cols;
+            int c = clusterOf(x, y);
+            Cluster cluster = clusters[c];
+            int i = nodeIndex[node];
+            float base = abstractCost[node];
+            if (c == goalCluster && goalCosts[i] != UNREACHED) {
+                relax(goal, base + goalCosts[i], node, minStep, goalX, goalY);
+            }
+            int n = cluster.nodes.length;
+            for (int j = 0; j < n; j++) {
+                float edge = cluster.intra[i * n + j];
+                if (j != i && edge != UNREACHED) relax(cluster.nodes[j], base + edge, node, minStep, goalX, goalY);
+            }
+            for (int e = cluster.interStart[i]; e < cluster.interStart[i + 1]; e++) {
+                relax(cluster.interTarget[e], base + cluster.interCost[e], node, minStep, goalX, goalY);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Queues every node of the cluster reachable from the tile inside it.
+     */
+    private void seed(TileStore store, Cluster cluster, int x, int y, float base, float minStep, int goalX, int goalY) {
+        localDijkstra(store, cluster, x, y, -1, false);
+        for (int node : cluster.nodes) {
+            float g = localCostAt(cluster, node / cols, node % cols);
+            if (g != UNREACHED) relax(node, base + g, START, minStep, goalX, goalY);
+        }
+    }
+
+    private void relax(int node, float g, int from, float minStep, int goalX, int goalY) {
+        if (abstractClosed[node] == abstractSearch) return;
+        if (abstractReached[node] == abstractSearch && g >= abstractCost[node]) return;
+        abstractReached[node] = abstractSearch;
+        abstractCost[node] = g;
+        abstractParent[node] = from;
+        abstractOpen.pushOrDecrease(node, g + minStep * HexLayout.distance(node / cols, node % cols, goalX, goalY));
+    }
+}
@@ -0,0 +1,112 @@
+package pl.julkot1.game.map.path;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of node ids {@code 0..capacity-1} keyed by float priority, with
+ * O(log n) decrease-key. Each node's heap position is tracked in a flat array, so no
+ * entries are allocated and stale duplicates never pile up.
+ */
+public class IndexedMinHeap {
+    private final int[] heap;
+    private final int[] position;
+    private final float[] keys;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        keys = new float[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int node) {
+        return position[node] >= 0;
+    }
+
+    public float getKey(int node) {
+        return keys[node];
+    }
+
+    /**
+     * Removes all nodes, in time proportional to the current size.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) position[heap[i]] = -1;
+        size = 0;
+    }
+
+    /**
+     * Inserts the node, or lowers its key if it is already queued with a higher one.
+     */
+    public void pushOrDecrease(int node, float key) {
+        int i = position[node];
+        if (i < 0) {
+            i = size++;
+            heap[i] = node;
+            position[node] = i;
+            keys[node] = key;
+            siftUp(i);
+        } else if (key < keys[node]) {
+            keys[node] = key;
+            siftUp(i);
+        }
+    }
+
+    public int peek() {
+        return heap[0];
+    }
+
+    public int pop() {
+        int top = heap[0];
+        position[top] = -1;
+        if (--size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        float key = keys[node];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (keys[p] <= key) break;
+            heap[i] = p;
+            position[p] = i;
+            i = parent;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+
+    private void siftDown(int i) {
+        int node = heap[i];
+        float key = keys[node];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[heap[child]]) child = right;
+            int c = heap[child];
+            if (key <= keys[c]) break;
+            heap[i] = c;
+            position[c] = i;
+            i = child;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+}
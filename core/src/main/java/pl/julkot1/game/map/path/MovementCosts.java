@@ -0,0 +1,114 @@
+package pl.julkot1.game.map.path;
+
+import pl.julkot1.game.map.TileStore;
+import pl.julkot1.game.map.Tile;
+
+import java.util.Arrays;
+
+/**
+ * Cost of moving a unit onto a tile. Entering a tile costs its biome cost times its
+ * terrain cost, plus a climb or descent cost per terrain level of height difference.
+ * Impassable tiles cost {@link Float#POSITIVE_INFINITY}. Tables are indexed by enum
+ * ordinal, so a step is a few array reads.
+ */
+public class MovementCosts {
+    public static final float IMPASSABLE = Float.POSITIVE_INFINITY;
+
+    private static final int UNKNOWN_LEVEL = Tile.TerrainLevel.UNKNOWN.ordinal();
+
+    private final float[] biomeCosts = new float[Tile.BiomeType.values().length];
+    private final float[] terrainCosts = new float[Tile.TerrainType.values().length];
+    private float climbCost;
+    private float descentCost;
+
+    /**
+     * All biomes and terrains cost 1, no climb or descent cost.
+     */
+    public MovementCosts() {
+        Arrays.fill(biomeCosts, 1f);
+        Arrays.fill(terrainCosts, 1f);
+    }
+
+    /**
+     * Costs for land units: water is impassable, dense vegetation and cold biomes are slow
+     * and every level climbed costs an extra step.
+     */
+    public static MovementCosts defaults() {
+        MovementCosts costs = new MovementCosts();
+        costs.setTerrainCost(Tile.TerrainType.WATER, IMPASSABLE);
+        costs.setBiomeCost(Tile.BiomeType.OCEAN, IMPASSABLE);
+        costs.setBiomeCost(Tile.BiomeType.LAKE, IMPASSABLE);
+        costs.setBiomeCost(Tile.BiomeType.DESERT, 1.5f);
+        costs.setBiomeCost(Tile.BiomeType.SAVANNA, 1.2f);
+        costs.setBiomeCost(Tile.BiomeType.STEPPE, 1.1f);
+        costs.setBiomeCost(Tile.BiomeType.TUNDRA, 1.6f);
+        costs.setBiomeCost(Tile.BiomeType.TAIGA, 1.8f);
+        costs.setBiomeCost(Tile.BiomeType.JUNGLE, 2.5f);
+        costs.setBiomeCost(Tile.BiomeType.FOREST, 1.8f);
+        costs.setBiomeCost(Tile.BiomeType.SHRUBLAND, 1.3f);
+        costs.setBiomeCost(Tile.BiomeType.FERN_FOREST, 2f);
+        costs.setBiomeCost(Tile.BiomeType.PINE_FOREST, 1.8f);
+        costs.setBiomeCost(Tile.BiomeType.RAINFOREST, 2.5f);
+        costs.setBiomeCost(Tile.BiomeType.DENSE_FOREST, 2.5f);
+        costs.setClimbCost(1f);
+        costs.setDescentCost(0.25f);
+        return costs;
+    }
+
+    public float getBiomeCost(Tile.BiomeType biome) { return biomeCosts[biome.ordinal()]; }
+    public void setBiomeCost(Tile.BiomeType biome, float cost) { biomeCosts[biome.ordinal()] = requirePositive(cost); }
+
+    public float getTerrainCost(Tile.TerrainType terrain) { return terrainCosts[terrain.ordinal()]; }
+    public void setTerrainCost(Tile.TerrainType terrain, float cost) { terrainCosts[terrain.ordinal()] = requirePositive(cost); }
+
+    public float getClimbCost() { return climbCost; }
+    public void setClimbCost(float cost) { climbCost = requireNonNegative(cost); }
+
+    public float getDescentCost() { return descentCost; }
+    public void setDescentCost(float cost) { descentCost = requireNonNegative(cost); }
+
+    /**
+     * Cost of stepping from {@code (fromRow, fromCol)} onto the neighbouring
+     * {@code (toRow, toCol)}, or {@link #IMPASSABLE}.
+     */
+    public float stepCost(TileStore store, int fromRow, int fromCol, int toRow, int toCol) {
+        float cost = biomeCosts[store.getBiome(toRow, toCol)] * terrainCosts[store.getTerrain(toRow, toCol)];
+        if (cost == IMPASSABLE) return IMPASSABLE;
+        int from = store.getLevel(fromRow, fromCol);
+        int to = store.getLevel(toRow, toCol);
+        if (from != UNKNOWN_LEVEL && to != UNKNOWN_LEVEL) {
+            cost += to > from ? (to - from) * climbCost : (from - to) * descentCost;
+        }
+        return cost;
+    }
+
+    /**
+     * Whether a unit can stand on the tile at all.
+     */
+    public boolean isPassable(TileStore store, int row, int col) {
+        return biomeCosts[store.getBiome(row, col)] * terrainCosts[store.getTerrain(row, col)] != IMPASSABLE;
+    }
+
+    /**
+     * Lower bound of any single step, used to keep the A* heuristic admissible.
+     */
+    public float minStepCost() {
+        float min = IMPASSABLE;
+        for (float biome : biomeCosts) {
+            for (float terrain : terrainCosts) {
+                min = Math.min(min, biome * terrain);
+            }
+        }
+        return min == IMPASSABLE ? 0f : min;
+    }
+
+    private static float requirePositive(float cost) {
+        if (!(cost > 0f)) throw new IllegalArgumentException("Movement cost must be positive: " + cost);
+        return cost;
+    }
+
+    private static float requireNonNegative(float cost) {
+        if (!(cost >= 0f) || cost == IMPASSABLE) throw new IllegalArgumentException("Level cost must be finite and non-negative: " + cost);
+        return cost;
+    }
+}
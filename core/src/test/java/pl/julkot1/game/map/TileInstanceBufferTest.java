@@ -0,0 +1,119 @@
+package pl.julkot1.game.map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileInstanceBufferTest {
+    private static final int ROWS = 24;
+    private static final int COLS = 20;
+    private static final float HEX_RADIUS = 1f;
+
+    /** Distinct RGBA8888 color per tile, opaque so the packed alpha is not rounded. */
+    private static int colorOf(int x, int y) {
+        return x << 24 | y << 16 | (x + y) << 8 | 0xff;
+    }
+
+    private static HexMap testMap() {
+        HexMap map = new HexMap(ROWS, COLS);
+        for (int x = 0; x < ROWS; x++) {
+            for (int y = 0; y < COLS; y++) {
+                map.setColorBits(x, y, colorOf(x, y));
+                map.setHeight(x, y, x * 0.5f + y * 0.25f);
+            }
+        }
+        return map;
+    }
+
+    /** Packed vertex color bits of an instance, ABGR with the lowest alpha bit dropped. */
+    private static int packedColor(TileInstanceBuffer buffer, int instance) {
+        return Float.floatToRawIntBits(buffer.getData()[instance * TileInstanceBuffer.FLOATS_PER_INSTANCE + 3]);
+    }
+
+    @Test
+    void buildsTilesWithinRadius() {
+        HexMap map = testMap();
+        HexLayout layout = HexLayout.forMap(map, HEX_RADIUS);
+        float cameraX = layout.worldX(12);
+        float cameraY = 3f;
+        float cameraZ = layout.worldZ(12, 10);
+        float radius = 6f;
+
+        TileInstanceBuffer buffer = new TileInstanceBuffer();
+        buffer.build(map, layout, cameraX, cameraY, cameraZ, radius, -1, -1);
+
+        int expected = 0;
+        for (int x = 0; x < ROWS; x++) {
+            for (int y = 0; y < COLS; y++) {
+                float dx = layout.worldX(x) - cameraX;
+                float dz = layout.worldZ(x, y) - cameraZ;
+                if (dx * dx + cameraY * cameraY + dz * dz < radius * radius) expected++;
+            }
+        }
+        assertTrue(expected > 0 && expected < ROWS * COLS);
+        assertEquals(expected, buffer.size());
+
+        float[] data = buffer.getData();
+        for (int i = 0; i < buffer.size(); i++) {
+            int x = buffer.getTile(i) / COLS;
+            int y = buffer.getTile(i) % COLS;
+            int offset = i * TileInstanceBuffer.FLOATS_PER_INSTANCE;
+            assertEquals(layout.worldX(x), data[offset]);
+            assertEquals(layout.worldZ(x, y), data[offset + 1]);
+            assertEquals(map.getHeight(x, y), data[offset + 2]);
+            int rgba = colorOf(x, y);
+            assertEquals(Integer.reverseBytes(rgba) & 0xfeffffff, packedColor(buffer, i));
+        }
+    }
+
+    @Test
+    void packsColorsAsAbgr() {
+        TileInstanceBuffer buffer = new TileInstanceBuffer();
+        buffer.add(0, 0, 0, 0, 0x11223344);
+        assertEquals(0x44332211, packedColor(buffer, 0));
+    }
+
+    @Test
+    void blendsHighlightedTileWithRed() {
+        assertEquals(0x881119ff, TileInstanceBuffer.highlight(0x11223344));
+        assertEquals(0xff0000ff, TileInstanceBuffer.highlight(0xff000000));
+
+        HexMap map = testMap();
+        HexLayout layout = HexLayout.forMap(map, HEX_RADIUS);
+        TileInstanceBuffer buffer = new TileInstanceBuffer();
+        buffer.build(map, layout, layout.worldX(12), 3f, layout.worldZ(12, 10), 6f, 12, 10);
+
+        int highlighted = 0;
+        for (int i = 0; i < buffer.size(); i++) {
+            int x = buffer.getTile(i) / COLS;
+            int y = buffer.getTile(i) % COLS;
+            int rgba = x == 12 && y == 10 ? TileInstanceBuffer.highlight(colorOf(x, y)) : colorOf(x, y);
+            if (x == 12 && y == 10) highlighted++;
+            assertEquals(Integer.reverseBytes(rgba) & 0xfeffffff, packedColor(buffer, i));
+        }
+        assertEquals(1, highlighted);
+    }
+
+    @Test
+    void growsPastInitialCapacity() {
+        TileInstanceBuffer buffer = new TileInstanceBuffer();
+        int instances = 3000;
+        for (int i = 0; i < instances; i++) {
+            buffer.add(i, i, -i, i * 0.5f, 0x000000ff);
+        }
+        assertEquals(instances, buffer.size());
+        float[] data = buffer.getData();
+        assertTrue(data.length >= instances * TileInstanceBuffer.FLOATS_PER_INSTANCE);
+        for (int i = 0; i < instances; i++) {
+            int offset = i * TileInstanceBuffer.FLOATS_PER_INSTANCE;
+            assertEquals(i, buffer.getTile(i));
+            assertEquals(i, data[offset]);
+            assertEquals(-i, data[offset + 1]);
+            assertEquals(i * 0.5f, data[offset + 2]);
+        }
+
+        buffer.clear();
+        assertEquals(0, buffer.size());
+    }
+}
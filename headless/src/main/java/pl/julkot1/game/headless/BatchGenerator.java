@@ -0,0 +1,117 @@
+package pl.julkot1.game.headless;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.PixmapIO;
+import pl.julkot1.game.map.GeneratorPipeline;
+import pl.julkot1.game.map.HexMap;
+import pl.julkot1.game.map.MapFile;
+import pl.julkot1.game.map.MapGenerator;
+import pl.julkot1.game.map.MapPyramid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates maps for a list of seeds on a pool of threads, each seed with a
+ * {@link GeneratorPipeline} of its own, and writes every map as a {@link MapFile} plus
+ * an optional PNG preview. Large maps additionally run their stages in parallel bands on
+ * the common fork-join pool.
+ */
+public class BatchGenerator {
+    private final int rows;
+    private final int cols;
+    private final Path outputDirectory;
+    private final int previewSize;
+
+    /**
+     * @param previewSize Longest side of the PNG previews in pixels, or 0 for no previews.
+     *                    Larger maps are drawn from a {@link MapPyramid} level like the minimap.
+     */
+    public BatchGenerator(int rows, int cols, Path outputDirectory, int previewSize) {
+        this.rows = rows;
+        this.cols = cols;
+        this.outputDirectory = outputDirectory;
+        this.previewSize = previewSize;
+    }
+
+    public record Result(int seed, Path file, long generateNanos, long writeNanos, String timings) {
+        public double tilesPerSecond(int tiles) {
+            return tiles / (generateNanos / 1e9);
+        }
+    }
+
+    /**
+     * Generates all seeds and waits for them.
+     *
+     * @return Results in the order of {@code seeds}.
+     */
+    public List<Result> generate(int[] seeds, int threads) throws IOException {
+        Files.createDirectories(outputDirectory);
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable ->
+            new Thread(runnable, "batch-generator-" + counter.incrementAndGet()));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int seed : seeds) futures.add(workers.submit(() -> generate(seed)));
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) throw io;
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+            }
+            return results;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private Result generate(int seed) throws IOException {
+        long start = System.nanoTime();
+        HexMap map = new HexMap(rows, cols);
+        GeneratorPipeline pipeline = GeneratorPipeline.forSeed(seed, new MapGenerator.SimpleBiomeResolver());
+        pipeline.run(map);
+        long generated = System.nanoTime();
+
+        Path file = outputDirectory.resolve("map-" + seed + ".hexm");
+        MapFile.save(map, MapGenerator.Params.current().withSeed(seed), file);
+        if (previewSize > 0) writePreview(map, outputDirectory.resolve("map-" + seed + ".png"));
+        Result result = new Result(seed, file, generated - start, System.nanoTime() - generated,
+            pipeline.getLastTimings().toString());
+        System.out.printf("Seed %d: generated in %d ms (%.1f Mtiles/s), written in %d ms: %s%n",
+            seed, result.generateNanos() / 1_000_000, result.tilesPerSecond(rows * cols) / 1e6,
+            result.writeNanos() / 1_000_000, result.timings());
+        return result;
+    }
+
+    /** One pixel per pyramid cell, pixel x running along the map's rows like the minimap. */
+    private void writePreview(HexMap map, Path file) {
+        MapPyramid pyramid = map.getPyramid();
+        int level = pyramid.levelFor(previewSize);
+        Pixmap pixmap = new Pixmap(pyramid.getRows(level), pyramid.getCols(level), Pixmap.Format.RGBA8888);
+        try {
+            for (int x = 0; x < pixmap.getWidth(); x++) {
+                for (int y = 0; y < pixmap.getHeight(); y++) {
+                    pixmap.drawPixel(x, y, level > 0 ? pyramid.getColorBits(level, x, y) : map.getColorBits(x, y));
+                }
+            }
+            PixmapIO.writePNG(new FileHandle(file.toFile()), pixmap);
+        } finally {
+            pixmap.dispose();
+        }
+    }
+}
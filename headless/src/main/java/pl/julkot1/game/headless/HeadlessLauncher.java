@@ -0,0 +1,87 @@
+package pl.julkot1.game.headless;
+
+import com.badlogic.gdx.utils.GdxNativesLoader;
+import pl.julkot1.game.map.MapGenerator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Generates maps offline, without a window or OpenGL context, e.g. on a build server.
+ * <pre>
+ * headless [--rows N] [--cols N] [--seeds N] [--first-seed S] [--threads N] [--out DIR]
+ *          [--preview-size PX] [--no-preview]
+ * </pre>
+ * Seeds {@code first-seed} to {@code first-seed + seeds - 1} are generated in parallel,
+ * each map written as {@code DIR/map-<seed>.hexm} with a PNG preview next to it.
+ */
+public class HeadlessLauncher {
+    private static final String USAGE = "Usage: headless [--rows N] [--cols N] [--seeds N] [--first-seed S]"
+        + " [--threads N] [--out DIR] [--preview-size PX] [--no-preview]";
+
+    public static void main(String[] args) {
+        int rows = 1000;
+        int cols = 1000;
+        int count = 4;
+        int firstSeed = MapGenerator.SEED;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path out = Path.of("maps");
+        int previewSize = 1024;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rows" -> rows = positive(args, ++i);
+                    case "--cols" -> cols = positive(args, ++i);
+                    case "--seeds" -> count = positive(args, ++i);
+                    case "--first-seed" -> firstSeed = Integer.parseInt(value(args, ++i));
+                    case "--threads" -> threads = positive(args, ++i);
+                    case "--out" -> out = Path.of(value(args, ++i));
+                    case "--preview-size" -> previewSize = positive(args, ++i);
+                    case "--no-preview" -> previewSize = 0;
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        // Pixmap needs the gdx natives, which are plain CPU code and load without a GPU
+        if (previewSize > 0) GdxNativesLoader.load();
+
+        int[] seeds = new int[count];
+        for (int i = 0; i < count; i++) seeds[i] = firstSeed + i;
+        threads = Math.min(threads, count);
+        System.out.println("Generating " + count + " maps of " + rows + "x" + cols + " on " + threads
+            + " threads into " + out.toAbsolutePath());
+
+        long start = System.nanoTime();
+        List<BatchGenerator.Result> results;
+        try {
+            results = new BatchGenerator(rows, cols, out, previewSize).generate(seeds, threads);
+        } catch (IOException e) {
+            System.err.println("Batch generation failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double generating = results.stream().mapToLong(BatchGenerator.Result::generateNanos).sum() / 1e9;
+        System.out.printf("Generated %d maps in %.2f s: %.2f maps/s, %.1f Mtiles/s overall, %.0f ms per map%n",
+            results.size(), seconds, results.size() / seconds, (double) rows * cols * results.size() / seconds / 1e6,
+            generating * 1000 / results.size());
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    private static int positive(String[] args, int i) {
+        int value = Integer.parseInt(value(args, i));
+        if (value <= 0) throw new IllegalArgumentException(args[i - 1] + " must be positive: " + value);
+        return value;
+    }
+}
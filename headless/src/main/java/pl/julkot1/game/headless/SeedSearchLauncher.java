@@ -0,0 +1,111 @@
+package pl.julkot1.game.headless;
+
+import pl.julkot1.game.map.MapGenerator;
+import pl.julkot1.game.map.SeedSearch;
+import pl.julkot1.game.map.Tile;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Searches seeds meeting constraints from the command line and prints accepted seeds as
+ * they are found, followed by the final ranking.
+ * <pre>
+ * searchSeeds [--rows N] [--cols N] [--candidates N] [--first-seed S] [--threads N] [--top N]
+ *             [--land MIN:MAX] [--continents COUNT:MIN_TILES] [--distance STEPS]
+ *             [--biome NAME:FRACTION]... [--coarse-step N] [--coarse-tolerance T]
+ * </pre>
+ */
+public class SeedSearchLauncher {
+    private static final String USAGE = "Usage: searchSeeds [--rows N] [--cols N] [--candidates N] [--first-seed S]"
+        + " [--threads N] [--top N] [--land MIN:MAX] [--continents COUNT:MIN_TILES] [--distance STEPS]"
+        + " [--biome NAME:FRACTION]... [--coarse-step N] [--coarse-tolerance T]";
+
+    public static void main(String[] args) throws InterruptedException {
+        int rows = 1000;
+        int cols = 1000;
+        int candidates = 200;
+        int firstSeed = MapGenerator.SEED;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 10;
+        int coarseStep = SeedSearch.DEFAULT_COARSE_STEP;
+        float coarseTolerance = SeedSearch.DEFAULT_COARSE_TOLERANCE;
+        SeedSearch.Constraints constraints = SeedSearch.Constraints.any();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rows" -> rows = Integer.parseInt(value(args, ++i));
+                    case "--cols" -> cols = Integer.parseInt(value(args, ++i));
+                    case "--candidates" -> candidates = Integer.parseInt(value(args, ++i));
+                    case "--first-seed" -> firstSeed = Integer.parseInt(value(args, ++i));
+                    case "--threads" -> threads = Integer.parseInt(value(args, ++i));
+                    case "--top" -> top = Integer.parseInt(value(args, ++i));
+                    case "--coarse-step" -> coarseStep = Integer.parseInt(value(args, ++i));
+                    case "--coarse-tolerance" -> coarseTolerance = Float.parseFloat(value(args, ++i));
+                    case "--land" -> {
+                        String[] range = pair(args, ++i);
+                        constraints = constraints.withLandFraction(Float.parseFloat(range[0]), Float.parseFloat(range[1]));
+                    }
+                    case "--continents" -> {
+                        String[] continents = pair(args, ++i);
+                        constraints = constraints.withContinents(Integer.parseInt(continents[0]),
+                            Integer.parseInt(continents[1]));
+                    }
+                    case "--distance" -> constraints = constraints.withContinentDistance(Integer.parseInt(value(args, ++i)));
+                    case "--biome" -> {
+                        String[] biome = pair(args, ++i);
+                        constraints = constraints.withMinBiome(Tile.BiomeType.valueOf(biome[0].toUpperCase(Locale.ROOT)),
+                            Float.parseFloat(biome[1]));
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (rows <= 0 || cols <= 0 || candidates <= 0 || threads <= 0 || top <= 0) {
+                throw new IllegalArgumentException("Sizes, counts and threads must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        threads = Math.min(threads, candidates);
+        System.out.println("Searching " + candidates + " seeds from " + firstSeed + " for " + rows + "x" + cols
+            + " maps on " + threads + " threads: " + constraints);
+        SeedSearch search = new SeedSearch(rows, cols, constraints, coarseStep, coarseTolerance);
+        SeedSearch.Search running = search.start(firstSeed, candidates, threads, new SeedSearch.Listener() {
+            @Override
+            public void accepted(SeedSearch.Evaluation evaluation, List<SeedSearch.Evaluation> ranking) {
+                System.out.println("Accepted " + evaluation + " (rank " + (ranking.indexOf(evaluation) + 1) + ")");
+            }
+        });
+        try {
+            running.await();
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage() + ": " + e.getCause());
+            System.exit(1);
+            return;
+        }
+
+        double seconds = running.getElapsedNanos() / 1e9;
+        System.out.printf("Evaluated %d seeds in %.2f s (%.1f seeds/s): %d rejected coarse, %d generated in full,"
+                + " %d accepted%n", running.getEvaluated(), seconds, running.getEvaluated() / seconds,
+            running.getRejectedCoarse(), running.getGenerated(), running.getRanking().size());
+        List<SeedSearch.Evaluation> ranking = running.getRanking();
+        for (int i = 0; i < Math.min(top, ranking.size()); i++) {
+            System.out.println((i + 1) + ". " + ranking.get(i));
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    private static String[] pair(String[] args, int i) {
+        String[] pair = value(args, i).split(":");
+        if (pair.length != 2) throw new IllegalArgumentException(args[i - 1] + " expects A:B, got " + args[i]);
+        return pair;
+    }
+}
@@ -4,6 +4,8 @@ import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
 import pl.julkot1.game.Main;
 
+import java.util.Locale;
+
 /** Launches the desktop (LWJGL3) application. */
 public class Lwjgl3Launcher {
     public static void main(String[] args) {
@@ -28,6 +30,14 @@ public class Lwjgl3Launcher {
         //// useful for testing performance, but can also be very stressful to some hardware.
         //// You may also need to configure GPU drivers to fully disable Vsync; this can cause screen tearing.
 
+        //// Instanced tile rendering needs GL30. macOS only offers it as a core profile, which the
+        //// stock libGDX shaders do not compile under, so it stays on GL20 and draws tiles one by one,
+        //// as does any machine started with -Dhex.instancing=false.
+        if (Boolean.parseBoolean(System.getProperty("hex.instancing", "true"))
+            && !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("mac")) {
+            configuration.setOpenGLEmulation(Lwjgl3ApplicationConfiguration.GLEmulation.GL30, 3, 2);
+        }
+
         configuration.setWindowedMode(1920, 1080);
         //configuration.setWindowedMode(2560,1440);
         configuration.setFullscreenMode(Lwjgl3ApplicationConfiguration.getDisplayMode());